@@ -0,0 +1,137 @@
+package simpledb;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a table that
+ * satisfy a conjunction of predicates on fields with a
+ * {@link BitmapIndexFile}. Each predicate is answered by the bitmap index
+ * of its field, the resulting bitmaps are ANDed, and only the table pages
+ * with a tuple left in the result are read, each once and in page order.
+ * <p>
+ * It is a SeqScan of the same table as far as the rest of the plan is
+ * concerned: it has the same TupleDesc, table name and alias.
+ */
+public class BitmapScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableId;
+    private final List<Predicate> predicates;
+    private RecordBitmap bitmap;
+    private Iterator<Integer> pages;
+    private HeapPage page;
+    private BitSet slots;
+    private int slot;
+    private Tuple next;
+
+    /**
+     * Creates a bitmap scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of the table, as for SeqScan.
+     * @param predicates
+     *            the predicates the returned tuples satisfy, at least one;
+     *            each is on a field of the table that has a bitmap index.
+     * @throws IllegalArgumentException if there are no predicates or a
+     *            predicate's field has no bitmap index
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+                      List<Predicate> predicates) {
+        super(tid, tableid, tableAlias);
+        if (predicates.isEmpty())
+            throw new IllegalArgumentException("a bitmap scan needs at least one predicate");
+        for (Predicate p : predicates) {
+            if (Database.getCatalog().getBitmapIndex(tableid, p.getField()) == null)
+                throw new IllegalArgumentException("field " + p.getField() + " has no bitmap index");
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.predicates = new ArrayList<>(predicates);
+    }
+
+    /**
+     * @return the predicates this scan answers from bitmap indexes.
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        bitmap = null;
+        for (Predicate p : predicates) {
+            RecordBitmap b = Database.getCatalog().getBitmapIndex(tableId, p.getField())
+                    .lookup(tid, p.getOp(), p.getOperand());
+            if (bitmap == null)
+                bitmap = b;
+            else
+                bitmap.and(b);
+        }
+        rewind();
+    }
+
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (bitmap != null) {
+            if (page != null) {
+                slot = slots.nextSetBit(slot + 1);
+                if (slot >= 0) {
+                    Tuple t = page.getTuple(slot);
+                    if (t != null)
+                        return t;
+                    continue;
+                }
+                page = null;
+            }
+            if (!pages.hasNext())
+                return null;
+            int pageNo = pages.next();
+            page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableId, pageNo), Permissions.READ_ONLY);
+            slots = bitmap.slots(pageNo);
+            slot = -1;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        bitmap = null;
+        page = null;
+        next = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        next = null;
+        page = null;
+        if (bitmap != null)
+            pages = bitmap.pages().iterator();
+    }
+}
@@ -5,9 +5,15 @@ import simpledb.struct.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -17,6 +23,38 @@ import java.util.Map;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages can also be read into the pool ahead of their use, without locks,
+ * by {@link #prefetchPage}.
+ * <p>
+ * The cached pages are kept in a {@link PageTable} split into stripes, so
+ * that a page found in the pool is returned without taking any lock of the
+ * pool. Only adding a page read from disk and choosing the pages to evict
+ * for it take the lock of the pool. A page a transaction fetches for
+ * writing is pinned in the pool until the transaction is done with it
+ * (see {@link #unpinPage}), so that changes made to it are never lost by
+ * evicting it before it is marked dirty.
+ * <p>
+ * The size of the pool is a budget in bytes. Pages of different tables may
+ * be of different sizes (see {@link DbFile#getPageSize}), and each cached
+ * page takes its own size out of the budget; pages are evicted until a new
+ * page fits.
+ * <p>
+ * The pages to evict are chosen by the {@link ReplacementPolicy} of the
+ * pool, least recently used by default.
+ * <p>
+ * The pool steals: a page a transaction changed may be written out before
+ * the transaction ends, once the log holds an update record with its
+ * before image. A {@link PageWriter} thread writes dirty pages out in the
+ * background while the pool evicts pages, and when no page is clean, the
+ * page to evict is written out first. Pages written out for a transaction
+ * that aborts are restored from the log, see {@link LogFile#rollback}, and
+ * those of transactions a crash cut short by {@link LogFile#recover}.
+ * <p>
+ * A pool may keep the images of pages off the heap in a {@link PageArena},
+ * see {@link #withArena}. The budget of the pool then only bounds the
+ * pages it keeps decoded, and pages it evicts are decoded again from the
+ * arena rather than read from disk.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -27,9 +65,44 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private final LRUCache<PageId, Page> pages;
-    private int numPages;
+    /** Evictions between two wake-ups of the page writer. */
+    static final int WRITER_WAKEUP = 16;
+
+    /** Orders pages by table and page number, as they lie in the files. */
+    private static final Comparator<PageTable.Frame> FILE_ORDER =
+            Comparator.<PageTable.Frame>comparingInt(f -> f.pid.getTableId())
+                    .thenComparingInt(f -> f.pid.pageNumber());
+
+    private final PageTable pages = new PageTable();
+    /** Bytes of pages this pool caches at most. */
+    private final long budget;
+    private final ReplacementPolicy policy;
+    /** The images of pages read from disk, or null. */
+    private final PageArena arena;
     private LockTable lockTable = new LockTable();
+    /** The frames each transaction has pinned. */
+    private final ConcurrentHashMap<TransactionId, Map<PageId, PageTable.Frame>> pinned =
+            new ConcurrentHashMap<>();
+    /**
+     * Counts page writes and drops, so that a prefetch can tell whether the
+     * page it read may have changed on disk meanwhile.
+     */
+    private final AtomicLong epoch = new AtomicLong();
+    /**
+     * The pages each transaction has fetched for writing, the only pages it
+     * can have dirtied.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writeSets =
+            new ConcurrentHashMap<>();
+    /**
+     * The transactions some of whose changes were written out early, or
+     * past the pool, with the tables written that are not forced yet.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> stolen =
+            new ConcurrentHashMap<>();
+    /** The writer of the dirty pages, or null before the first eviction. */
+    private PageWriter writer;
+    private int evictions;
 
 
     /**
@@ -38,38 +111,78 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.numPages = numPages;
-        pages = new LRUCache<>(this.numPages);
+        this(numPages, ReplacementPolicy.create(ReplacementPolicy.LRU));
     }
 
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting them
+     * as the given policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy a policy no other pool uses.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this((long) numPages * PAGE_SIZE, policy, null);
+    }
 
-    private class LRUCache<K, V> extends LinkedHashMap<K, V> {
-        private final int MAX_CACHE_SIZE;
+    private BufferPool(long budget, ReplacementPolicy policy, PageArena arena) {
+        this.budget = budget;
+        this.policy = policy;
+        this.arena = arena;
+    }
 
-        LRUCache(int cacheSize) {
-            super((int) Math.ceil(cacheSize / 0.75) + 1, 0.75f, true);
-            MAX_CACHE_SIZE = cacheSize;
-        }
+    /**
+     * Creates a BufferPool that caches pages of up to the given number of
+     * bytes in all, whatever their size.
+     *
+     * @param budget the bytes of pages this buffer pool caches at most.
+     */
+    public static BufferPool withBudget(long budget) {
+        return withBudget(budget, ReplacementPolicy.create(ReplacementPolicy.LRU));
+    }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry eldest) {
-            if (size() > MAX_CACHE_SIZE) {
-                discardPage((PageId) eldest.getKey());
-                return true;
-            }
-            return false;
-        }
+    /**
+     * Creates a BufferPool with a budget in bytes like {@link #withBudget(long)},
+     * evicting pages as the given policy chooses.
+     *
+     * @param policy a policy no other pool uses.
+     */
+    public static BufferPool withBudget(long budget, ReplacementPolicy policy) {
+        if (budget < 1)
+            throw new IllegalArgumentException("the buffer pool cannot be empty");
+        return new BufferPool(budget, policy, null);
+    }
 
-        @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            for (Map.Entry<K, V> entry : entrySet()) {
-                sb.append(String.format("%s:%s ", entry.getKey(), entry.getValue()));
-            }
-            return sb.toString();
-        }
+    /**
+     * Creates a BufferPool that keeps pages of up to budget bytes decoded
+     * on the heap, and the images of pages of {@link #PAGE_SIZE} bytes in an
+     * off-heap arena of arenaBytes bytes, allocated at once.
+     *
+     * @param budget the bytes of pages this buffer pool keeps decoded.
+     * @param arenaBytes the bytes of page images the arena holds.
+     * @param policy a policy no other pool uses.
+     */
+    public static BufferPool withArena(long budget, long arenaBytes, ReplacementPolicy policy) {
+        if (budget < 1)
+            throw new IllegalArgumentException("the buffer pool cannot be empty");
+        return new BufferPool(budget, policy, new PageArena(arenaBytes, PAGE_SIZE));
     }
 
+    /**
+     * @return the arena of page images of this pool, or null.
+     */
+    public PageArena getArena() {
+        return arena;
+    }
+
+    /**
+     * @return the policy choosing the pages this pool evicts.
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -87,20 +200,323 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but if the page has to be read, it is placed in the given ring rather
+     * than in the least recently used frame of the pool.
+     *
+     * @param ring the ring of the scan reading the page, or null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
 
         lockTable.acquireLock(tid, pid, perm);
 
-        if(pages.containsKey(pid)) {
-            return pages.get(pid);
+        Page page = lookup(tid, pid, perm);
+        if(page == null) {
+            // a prefetch may have cached the page meanwhile
+            page = cachePage(tid, pid, perm,
+                    readPage(pid), ring);
         }
-        Page page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-        if(shouldEvictPage())
-            evictPage();
-        pages.put(pid, page);
+        // the before image is only needed for pages a transaction may write
+        if(perm == Permissions.READ_WRITE)
+            page.captureBeforeImage();
 
         return page;
     }
 
+    /**
+     * Reads a page from its file, through the arena if the pool has one and
+     * the page can be kept there.
+     */
+    private Page readPage(PageId pid) {
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (arena != null && file instanceof HeapFile) {
+            Page page = arena.readPage((HeapFile) file, (HeapPageId) pid);
+            if (page != null)
+                return page;
+        }
+        return file.readPage(pid);
+    }
+
+    /**
+     * Looks a page up without taking a lock of the pool, pinning it for tid
+     * if it is fetched for writing.
+     *
+     * @return the page, or null if it is not cached
+     */
+    private Page lookup(TransactionId tid, PageId pid, Permissions perm) {
+        PageTable.Frame frame = pages.get(pid);
+        if (frame == null || (perm == Permissions.READ_WRITE && !pin(tid, frame)))
+            return null;
+        policy.recordAccess(frame);
+        return frame.page;
+    }
+
+    /**
+     * Retrieves the run of pages [fromPage, toPage) of a table, as a scan
+     * does, with the same locking as
+     * {@link #getPage(TransactionId, PageId, Permissions)}. The locks on all
+     * the pages are acquired at once, and the pages not in the pool are read
+     * with one read per run of missing pages where the file supports it.
+     *
+     * @return the pages, in page number order
+     */
+    public List<Page> getPages(TransactionId tid, int tableId, int fromPage, int toPage, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPages(tid, tableId, fromPage, toPage, perm, null);
+    }
+
+    /**
+     * Retrieves a run of pages like
+     * {@link #getPages(TransactionId, int, int, int, Permissions)}, placing
+     * the pages that have to be read in the given ring.
+     *
+     * @param ring the ring of the scan reading the pages, or null
+     */
+    public List<Page> getPages(TransactionId tid, int tableId, int fromPage, int toPage,
+            Permissions perm, BufferRing ring) throws TransactionAbortedException, DbException {
+        ArrayList<PageId> pids = new ArrayList<>(Math.max(0, toPage - fromPage));
+        for (int i = fromPage; i < toPage; i++)
+            pids.add(new HeapPageId(tableId, i));
+        lockTable.acquireLocks(tid, pids, perm);
+
+        Page[] found = new Page[pids.size()];
+        for (int i = 0; i < found.length; i++)
+            found[i] = lookup(tid, pids.get(i), perm);
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        for (int i = 0; i < found.length; ) {
+            if (found[i] != null) {
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < found.length && found[end] == null)
+                end++;
+            if (file instanceof HeapFile && arena == null) {
+                List<HeapPage> read = ((HeapFile) file).readPages(fromPage + i, end - i);
+                for (int j = i; j < end; j++)
+                    found[j] = read.get(j - i);
+            } else {
+                for (int j = i; j < end; j++)
+                    found[j] = readPage(pids.get(j));
+            }
+            // a prefetch may have cached some of the pages meanwhile
+            for (int j = i; j < end; j++)
+                found[j] = cachePage(tid, pids.get(j), perm, found[j], ring);
+            i = end;
+        }
+        if (perm == Permissions.READ_WRITE) {
+            for (Page page : found)
+                page.captureBeforeImage();
+        }
+        return Arrays.asList(found);
+    }
+
+    /**
+     * Reads a page into the pool ahead of its use by a scan, without
+     * locking it. Nothing is done if the page is cached already or the pool
+     * is under pressure, that is full with at most half its bytes in clean
+     * pages. A
+     * page read while any page was written or dropped from the pool is not
+     * cached, as its image may be stale.
+     *
+     * @return true if the page was cached
+     */
+    public boolean prefetchPage(PageId pid) throws DbException {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Reads a page into the pool ahead of its use like
+     * {@link #prefetchPage(PageId)}, placing it in the given ring.
+     *
+     * @param ring the ring of the scan the page is read for, or null
+     */
+    public boolean prefetchPage(PageId pid, BufferRing ring) throws DbException {
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (pages.get(pid) != null)
+            return false;
+        long seen;
+        synchronized (this) {
+            if (underPressure(file.getPageSize()))
+                return false;
+            seen = epoch.get();
+        }
+        Page page = readPage(pid);
+        synchronized (this) {
+            if (epoch.get() != seen || pages.get(pid) != null || underPressure(page.getPageSize()))
+                return false;
+            if (ring != null)
+                recycle(ring);
+            makeRoom(page.getPageSize());
+            policy.admitted(pages.putIfAbsent(pid, page));
+            if (ring != null)
+                ring.add(pid);
+            return true;
+        }
+    }
+
+    /**
+     * Caches a page that has just been read, unless the page was cached
+     * meanwhile, pinning it for tid if it is fetched for writing.
+     *
+     * @return the cached page
+     */
+    private synchronized Page cachePage(TransactionId tid, PageId pid, Permissions perm,
+            Page page, BufferRing ring) throws DbException {
+        while (true) {
+            PageTable.Frame frame = pages.get(pid);
+            if (frame == null) {
+                if (ring != null)
+                    recycle(ring);
+                makeRoom(page.getPageSize());
+                frame = pages.putIfAbsent(pid, page);
+                if (frame.page == page) {
+                    policy.admitted(frame);
+                    if (ring != null)
+                        ring.add(pid);
+                } else {
+                    policy.recordAccess(frame);
+                }
+            } else {
+                policy.recordAccess(frame);
+            }
+            // a frame discarded meanwhile cannot be pinned; cache the page anew
+            if (perm == Permissions.READ_WRITE && !pin(tid, frame))
+                continue;
+            return frame.page;
+        }
+    }
+
+    /**
+     * Pins a frame for a transaction, once however often the transaction
+     * fetches the page.
+     *
+     * @return false if the frame has been evicted meanwhile
+     */
+    private boolean pin(TransactionId tid, PageTable.Frame frame) {
+        Map<PageId, PageTable.Frame> frames = pinned.computeIfAbsent(tid, k -> new HashMap<>());
+        synchronized (frames) {
+            PageTable.Frame old = frames.get(frame.pid);
+            if (old == frame)
+                return true;
+            if (!frame.pin())
+                return false;
+            if (old != null) {
+                old.unpin();
+                policy.recordRelease(old);
+            }
+            frames.put(frame.pid, frame);
+            writeSets.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(frame.pid);
+            return true;
+        }
+    }
+
+    /**
+     * Unpins a page a transaction fetched for writing, once the transaction
+     * has made its changes to the page and marked it dirty, or will not
+     * change it. The pages a transaction still has pinned are unpinned when
+     * it completes.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, PageTable.Frame> frames = pinned.get(tid);
+        if (frames == null)
+            return;
+        synchronized (frames) {
+            PageTable.Frame frame = frames.remove(pid);
+            if (frame != null) {
+                frame.unpin();
+                policy.recordRelease(frame);
+            }
+        }
+    }
+
+    private void unpinAll(TransactionId tid) {
+        Map<PageId, PageTable.Frame> frames = pinned.remove(tid);
+        if (frames == null)
+            return;
+        synchronized (frames) {
+            for (PageTable.Frame frame : frames.values()) {
+                frame.unpin();
+                policy.recordRelease(frame);
+            }
+            frames.clear();
+        }
+    }
+
+    /**
+     * Frees a frame of a full ring, that of the page that joined it first
+     * and is still cached, clean and not locked by another transaction.
+     * The pages passed over leave the ring to the pool.
+     */
+    private void recycle(BufferRing ring) {
+        PageId victim;
+        while ((victim = ring.nextVictim()) != null) {
+            PageTable.Frame frame = pages.get(victim);
+            if (frame != null && frame.page.isDirty() == null
+                    && !lockTable.lockedByOthers(ring.getTransactionId(), victim)
+                    && pages.evict(frame)) {
+                policy.removed(frame);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages of {@link #PAGE_SIZE} bytes this pool can
+     * cache.
+     */
+    public int getNumPages() {
+        return getNumPages(PAGE_SIZE);
+    }
+
+    /**
+     * @return the number of pages of the given size this pool can cache.
+     */
+    public int getNumPages(int pageSize) {
+        return (int) Math.min(Integer.MAX_VALUE, budget / pageSize);
+    }
+
+    /**
+     * @return the bytes of pages this pool caches at most.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the bytes of the pages cached in the pool.
+     */
+    public long getCachedBytes() {
+        return pages.bytes();
+    }
+
+    /**
+     * @return true if the page is cached in the pool.
+     */
+    public boolean isCached(PageId pid) {
+        return pages.get(pid) != null;
+    }
+
+    /**
+     * @return true if a page of the given size does not fit in the pool and
+     * at most half the budget is taken by clean pages.
+     */
+    private boolean underPressure(int pageSize) {
+        if (pages.bytes() + pageSize <= budget)
+            return false;
+        long clean = 0;
+        for (PageTable.Frame frame : pages.frames()) {
+            if (frame.page.isDirty() == null)
+                clean += frame.page.getPageSize();
+        }
+        return clean <= budget / 2;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -125,6 +541,34 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * Takes over pages a transaction wrote to their file past the pool, as
+     * {@link HeapFile#appendPages} does once their update records are
+     * forced to the log. The pages are locked for writing by tid, and are
+     * handled like pages of tid written out early: their file is forced
+     * when tid commits, and they are rolled back from the log when it
+     * aborts.
+     *
+     * @param pids the pages written, all of one table
+     */
+    public void pagesWritten(TransactionId tid, List<PageId> pids)
+            throws TransactionAbortedException {
+        if (pids.isEmpty())
+            return;
+        stolen.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet())
+                .add(pids.get(0).getTableId());
+        lockTable.acquireLocks(tid, pids, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Return true if a transaction other than tid holds a lock on the
+     * specified page. Used by HeapFile to steer inserts away from pages
+     * that would block.
+     */
+    public boolean isLockedByOthers(TransactionId tid, PageId p) {
+        return lockTable.lockedByOthers(tid, p);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         return lockTable.holdsLock(tid, p);
@@ -141,19 +585,38 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        // a transaction ended here rather than through Transaction ends
+        // in the log too, so that recovery does not take it for a loser
+        LogFile log = Database.getLogFile();
         if (commit) {
             flushPages(tid);
+            stolen.remove(tid);
+            if (log.isLive(tid))
+                log.logCommit(tid);
         } else {
-
-            ConcurrentHashSet<PageId> pageIds = lockTable.getHolds(tid);
-            for (PageId pid : pageIds) {
-                pages.remove(pid);
-                Page page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-                ((HeapFile)Database.getCatalog().getDbFile(pid.getTableId())).resetNumPages();
-                pages.put(pid, page);
-
+            // no page of tid is written out while its changes are undone
+            synchronized (this) {
+                // pages written out early are put back from the log first
+                stolen.remove(tid);
+                if (log.isLive(tid))
+                    log.logAbort(tid);
+
+                ConcurrentHashSet<PageId> pageIds = lockTable.getHolds(tid);
+                // a transaction may end without having locked any page;
+                // pages it changed that are not cached are as on disk
+                if (pageIds != null) {
+                    for (PageId pid : pageIds) {
+                        PageTable.Frame frame = pages.get(pid);
+                        if (frame != null) {
+                            frame.page = readPage(pid);
+                            policy.recordRelease(frame);
+                        }
+                    }
+                }
             }
         }
+        unpinAll(tid);
+        writeSets.remove(tid);
         lockTable.releaseAllLocks(tid);
     }
 
@@ -166,38 +629,27 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
      * been dirtied so that future requests see up-to-date pages.
+     * The tuple is also added to every index of the table.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
      */
-    public Page insertTuple(TransactionId tid, int tableId, Tuple t)
+    public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        int pageNo = 0;
-        BufferPool bufferPool = Database.getBufferPool();
-        for(;pageNo<pages.size();++pageNo) {
-            HeapPage page = (HeapPage) bufferPool.getPage(
-                    tid, new HeapPageId(tableId, pageNo), Permissions.READ_WRITE);
-            if(page.getNumEmptySlots() > 0) {
-                page.insertTuple(t);
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        for (Page page : file.insertTuple(tid, t)) {
+            page.markDirty(true, tid);
+            unpinPage(tid, page.getId());
+        }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page page : index.insertTuple(tid, t)) {
                 page.markDirty(true, tid);
-                return page;
+                unpinPage(tid, page.getId());
             }
         }
-
-        HeapPage page = new HeapPage(new HeapPageId(tableId, pageNo), new byte[BufferPool.PAGE_SIZE]);
-        ((HeapFile)Database.getCatalog().getDbFile(tableId)).incrNumPages();
-        page.insertTuple(t);
-        page.markDirty(true, tid);
-
-        if(shouldEvictPage())
-           evictPage();
-
-        pages.put(page.getId(), page);
-        return page;
     }
 
-
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -206,15 +658,21 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit.  Does not need to update cached versions of any pages that have
      * been dirtied, as it is not possible that a new page was created during the deletion
-     * (note difference from addTuple).
+     * (note difference from addTuple). The tuple is also removed from every
+     * index of its table.
      *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
+        int tableId = t.getRecordId().getPageId().getTableId();
         HeapPage page = (HeapPage) getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        page.markDirty(true, tid);
+        unpinPage(tid, page.getId());
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            index.deleteTuple(tid, t);
     }
 
     /**
@@ -222,13 +680,11 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for proj1
-        HashSet<PageId> pids = new HashSet<>();
-        pids.addAll(pages.keySet());
-        for(PageId pid : pids) {
-            flushPage(pid);
+        for (PageTable.Frame frame : pages.frames()) {
+            flushPage(frame.pid);
         }
     }
 
@@ -237,84 +693,214 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
-        pages.remove(pid);
+    public void discardPage(PageId pid) {
+        epoch.incrementAndGet();
+        if (arena != null)
+            arena.invalidate(pid);
+        PageTable.Frame frame = pages.discard(pid);
+        if (frame != null)
+            policy.recordRelease(frame);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        if(!pages.containsKey(pid)) {
+    private void flushPage(PageId pid) throws IOException {
+        PageTable.Frame frame = pages.get(pid);
+        if(frame == null) {
             // page is not dirty and be evicted.
             return;
         }
-        HeapFile f =  (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
-        f.writePage(pages.get(pid));
+        epoch.incrementAndGet();
+        DbFile f = Database.getCatalog().getDbFile(pid.getTableId());
+        f.writePage(frame.page);
+        if (arena != null)
+            arena.invalidate(pid);
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Write all pages of the specified transaction to disk. Only the pages
+     * the transaction fetched for writing are looked at; those that are
+     * dirty are written in file order, with the adjacent pages of a file
+     * written at once where the file supports it (see
+     * {@link DbFile#writePages}), and each file written is then forced to
+     * disk once, as are the files the pages of the transaction were written
+     * out to early.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
-        ConcurrentHashSet<PageId> pageIds = lockTable.getHolds(tid);
-        if(pageIds == null) {
-            // no read and write operation
-            return;
+        // the tables pages of tid were written out to before
+        Set<Integer> early = stolen.get(tid);
+        Set<PageId> writeSet = writeSets.getOrDefault(tid, Collections.emptySet());
+        ArrayList<PageTable.Frame> dirty = new ArrayList<>();
+        for(PageId pid : writeSet) {
+            PageTable.Frame frame = pages.get(pid);
+            if(frame != null && frame.page.isDirty() != null)
+                dirty.add(frame);
         }
-        for(PageId pid : pageIds) {
-            Page page = pages.get(pid);
-
-            if(page == null || page.isDirty() == null) {
-                continue;
-            }
-            flushPage(pid);
-            if(page != null)
+        dirty.sort(FILE_ORDER);
+        for (int i = 0; i < dirty.size(); ) {
+            int tableId = dirty.get(i).pid.getTableId();
+            int end = i + 1;
+            while (end < dirty.size() && dirty.get(end).pid.getTableId() == tableId)
+                end++;
+            List<PageTable.Frame> frames = dirty.subList(i, end);
+            ArrayList<Page> written = new ArrayList<>(frames.size());
+            for (PageTable.Frame frame : frames)
+                written.add(frame.page);
+
+            epoch.incrementAndGet();
+            DbFile f = Database.getCatalog().getDbFile(tableId);
+            f.writePages(written);
+            f.force();
+            if (early != null)
+                early.remove(tableId);
+            for (int j = 0; j < frames.size(); j++) {
+                Page page = written.get(j);
+                if (arena != null)
+                    arena.invalidate(page.getId());
                 page.markDirty(false, tid);
+                page.setBeforeImage();
+                policy.recordRelease(frames.get(j));
+            }
+            i = end;
+        }
+        if (early != null) {
+            for (Integer tableId : early) {
+                Database.getCatalog().getDbFile(tableId).force();
+                early.remove(tableId);
+            }
         }
     }
 
-    private synchronized boolean shouldEvictPage() {
-        return pages.size() == numPages && haveDirtyPage();
+    /**
+     * Evicts pages until a page of the given size fits in the budget. A
+     * page larger than the whole budget is let into an empty pool.
+     */
+    private void makeRoom(int pageSize) throws DbException {
+        while (!pages.isEmpty() && pages.bytes() + pageSize > budget)
+            evictPage();
     }
 
-    private synchronized boolean haveDirtyPage() {
+    /**
+     * Discards the page the replacement policy chooses, a page that is
+     * clean and not pinned, from the buffer pool. If every page is dirty or
+     * pinned, a dirty page that is not pinned is written out and discarded.
+     */
+    private synchronized void evictPage() throws DbException {
+        // some code goes here
+        // not necessary for proj1
+        if (++evictions % WRITER_WAKEUP == 0)
+            wakeWriter();
+        while (true) {
+            PageTable.Frame victim = policy.nextVictim();
+            if (victim == null)
+                victim = stealVictim();
+            // a frame pinned or dirtied meanwhile is offered again, and
+            // kept apart by the policy if it still is
+            if (victim.page.isDirty() == null && pages.evict(victim)) {
+                policy.removed(victim);
+                return;
+            }
+            if (victim.isEvicted())
+                policy.removed(victim);
+        }
+    }
 
-        ArrayList<PageId> pids = new ArrayList<>();
-        pids.addAll(pages.keySet());
-        for (PageId pid : pids) {
-            HeapPage page = (HeapPage) pages.get(pid);
-            if (page.isDirty() != null)
-                return true;
+    /**
+     * Writes out a dirty page that is not pinned, for evictPage to discard.
+     *
+     * @return the frame of the page written out
+     */
+    private PageTable.Frame stealVictim() throws DbException {
+        wakeWriter();
+        try {
+            for (PageTable.Frame frame : pages.frames()) {
+                if (!frame.isPinned() && steal(frame))
+                    return frame;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write a page out: " + e.getMessage());
+        }
+        throw new DbException("no page can be evicted");
+    }
+
+    private synchronized void wakeWriter() {
+        if (writer == null || !writer.wake()) {
+            writer = new PageWriter(this);
+            writer.start();
         }
-        return false;
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Writes dirty pages that are not pinned out, in file order, if dirty
+     * pages take more than {@link PageWriter#HIGH_WATER} of the budget, until
+     * they take no more than {@link PageWriter#LOW_WATER}. This is a pass
+     * of the {@link PageWriter}; it takes the lock of the pool for one page
+     * at a time.
      */
-    private synchronized void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for proj1
-        PageId removedPid = null;
-        for (PageId pid : pages.keySet())
-        {
-            HeapPage page = (HeapPage)pages.get(pid);
-            if(page.isDirty() != null)
+    void writeBehind() throws IOException {
+        long dirty = 0;
+        ArrayList<PageTable.Frame> candidates = new ArrayList<>();
+        for (PageTable.Frame frame : pages.frames()) {
+            if (frame.page.isDirty() == null)
                 continue;
-            else {
-                removedPid = pid;
-                break;
-            }
+            dirty += frame.page.getPageSize();
+            if (!frame.isPinned())
+                candidates.add(frame);
+        }
+        if (dirty <= budget * PageWriter.HIGH_WATER)
+            return;
+        candidates.sort(FILE_ORDER);
+        for (PageTable.Frame frame : candidates) {
+            if (dirty <= budget * PageWriter.LOW_WATER)
+                return;
+            if (steal(frame))
+                dirty -= frame.page.getPageSize();
         }
+    }
 
-        if(removedPid != null) {
-            pages.remove(removedPid);
-        }else {
-            throw new DbException("no page can be evicted");
+    /**
+     * Writes a dirty page out before the transaction that changed it ends.
+     * The update is logged with the before image of the page, and the log
+     * forced, before the page is written, and the page is left clean. A
+     * page pinned by a transaction, which may be changing it, is not
+     * written. Steals hold the lock of the pool, as rollbacks do (see
+     * {@link LogFile}), so that no page is written out for a transaction
+     * while it is being rolled back.
+     *
+     * @return true if the page was written out
+     */
+    private synchronized boolean steal(PageTable.Frame frame) throws IOException {
+        if (!frame.pin())
+            return false;
+        try {
+            Page page = frame.page;
+            TransactionId dirtier = page.isDirty();
+            if (dirtier == null || frame.pinCount() > 1)
+                return false;
+            // cleaned first, so that a change made meanwhile dirties it again
+            page.markDirty(false, null);
+            try {
+                LogFile log = Database.getLogFile();
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                log.force();
+                stolen.computeIfAbsent(dirtier, k -> ConcurrentHashMap.newKeySet())
+                        .add(frame.pid.getTableId());
+                epoch.incrementAndGet();
+                Database.getCatalog().getDbFile(frame.pid.getTableId()).writePage(page);
+                if (arena != null)
+                    arena.invalidate(frame.pid);
+            } catch (IOException e) {
+                page.markDirty(true, dirtier);
+                throw e;
+            }
+            return true;
+        } finally {
+            frame.unpin();
+            policy.recordRelease(frame);
         }
     }
 }
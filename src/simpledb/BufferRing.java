@@ -0,0 +1,98 @@
+package simpledb;
+
+import simpledb.struct.PageId;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small set of BufferPool frames private to one large scan,
+ * so that the scan does not push the pages other transactions work on out
+ * of the pool.
+ * <p>
+ * The pages a scan reads into the pool through
+ * {@link BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)}
+ * join its ring. Once the ring is full, each further page takes the frame
+ * of the page that joined the ring first, instead of the least recently
+ * used page of the pool. A ring page that has been dirtied, or that another
+ * transaction has locked since, leaves the ring to the pool, and the frame
+ * of the next one is taken. Pages the scan finds in the pool already are
+ * not taken into the ring.
+ * <p>
+ * Scans choose a ring by themselves through {@link #forScan} when their
+ * table is larger than {@link #SCAN_THRESHOLD} of the pool.
+ */
+public class BufferRing {
+
+    /** Frames of a ring. */
+    public static final int SIZE = 16;
+    /**
+     * Fraction of the pool a table must exceed for its scans to use a ring.
+     * Smaller tables are read through the pool, so that they stay cached
+     * for the next scan.
+     */
+    public static final double SCAN_THRESHOLD = 0.75;
+
+    private final TransactionId tid;
+    private final int capacity;
+    /** The pages of the ring, in the order they joined it. */
+    private final ArrayDeque<PageId> members = new ArrayDeque<PageId>();
+
+    /**
+     * Creates a ring for the pages a transaction reads.
+     *
+     * @param capacity the number of frames of the ring, at least 1.
+     */
+    public BufferRing(TransactionId tid, int capacity) {
+        this.tid = tid;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Returns a ring for a scan of a table of the given size by the given
+     * transaction, or null if the table is small enough to be read through
+     * the pool as usual. A ring takes at most a quarter of the pool.
+     */
+    public static BufferRing forScan(TransactionId tid, int tablePages) {
+        return forScan(tid, tablePages, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns a ring for a scan of a table of the given number of pages of
+     * the given size, counting the pool in pages of that size.
+     */
+    public static BufferRing forScan(TransactionId tid, int tablePages, int pageSize) {
+        int poolPages = Database.getBufferPool().getNumPages(pageSize);
+        if (tablePages <= poolPages * SCAN_THRESHOLD)
+            return null;
+        return new BufferRing(tid, Math.min(SIZE, Math.max(1, poolPages / 4)));
+    }
+
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the number of frames of the ring.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of pages in the ring.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return the page to be replaced next if the ring is full, or null.
+     */
+    PageId nextVictim() {
+        return members.size() < capacity ? null : members.poll();
+    }
+
+    void add(PageId pid) {
+        members.add(pid);
+    }
+}
@@ -1,10 +1,18 @@
 package simpledb;
 
+import simpledb.operation.Predicate;
+import simpledb.struct.BTreeFile;
+import simpledb.struct.BitmapIndexFile;
+import simpledb.struct.BloomFilterMap;
 import simpledb.struct.DbFile;
+import simpledb.struct.ExtendibleHashFile;
 import simpledb.struct.HeapFile;
+import simpledb.struct.IndexFile;
+import simpledb.struct.PaxFile;
 import simpledb.struct.TupleDesc;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
@@ -22,6 +30,8 @@ public class Catalog {
 
     private HashMap<Integer, TableDesc> tableDescs;
     private HashMap<String, Integer> nameIdMap;
+    private HashMap<Integer, IndexFile> indexFiles;
+    private HashMap<Integer, ArrayList<IndexFile>> tableIndexes;
 
     /**
      * Constructor.
@@ -30,6 +40,8 @@ public class Catalog {
     public Catalog() {
         tableDescs = new HashMap<>();
         nameIdMap = new HashMap<>();
+        indexFiles = new HashMap<>();
+        tableIndexes = new HashMap<>();
     }
 
     private class TableDesc {
@@ -67,6 +79,22 @@ public class Catalog {
      *                  conflict exists, use the last table to be added as the table for a given name.
      */
     public void addTable(DbFile file, String name, String pkeyField) {
+        addTable(file, name, pkeyField, false);
+    }
+
+    /**
+     * Add a new table to the catalog, choosing how its pages are read.
+     *
+     * @param file         the contents of the table to add
+     * @param name         the name of the table
+     * @param pkeyField    the name of the primary key field
+     * @param memoryMapped if true and file is a HeapFile, pages are read
+     *                     through a memory-mapped view of the file
+     * @see HeapFile#setMemoryMapped
+     */
+    public void addTable(DbFile file, String name, String pkeyField, boolean memoryMapped) {
+        if (file instanceof HeapFile)
+            ((HeapFile) file).setMemoryMapped(memoryMapped);
         TableDesc tableDesc = new TableDesc(file, name, pkeyField);
         tableDescs.put(file.getId(), tableDesc);
         nameIdMap.put(name, file.getId());
@@ -89,6 +117,84 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add an index over a field of a table already in the catalog. The index
+     * is kept up to date by BufferPool.insertTuple and deleteTuple, and its
+     * pages can be fetched through getDbFile(index.getId()), but it is not
+     * listed by tableIdIterator.
+     *
+     * @param index the index to add
+     */
+    public void addIndex(IndexFile index) {
+        indexFiles.put(index.getId(), index);
+        ArrayList<IndexFile> indexes = tableIndexes.get(index.getTableId());
+        if (indexes == null) {
+            indexes = new ArrayList<>();
+            tableIndexes.put(index.getTableId(), indexes);
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * Adds index over table, building it from the table data if the index
+     * file is empty.
+     */
+    private void addIndex(IndexFile index, HeapFile table) throws IOException {
+        addIndex(index);
+        if (index.numPages() == 0)
+            index.rebuild(table);
+    }
+
+    /**
+     * @return the indexes of the specified table; empty if it has none.
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        ArrayList<IndexFile> indexes = tableIndexes.get(tableid);
+        if (indexes == null)
+            return Collections.emptyList();
+        return indexes;
+    }
+
+    /**
+     * @return an index over the given field of the specified table, or null
+     * if there is none.
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return an index over the given field of the specified table that can
+     * look up the entries of predicates with operator op, or null if there
+     * is none. Bitmap indexes are left to getBitmapIndex, as they answer a
+     * predicate by reading every value's bitmap that satisfies it rather
+     * than by looking up a key.
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.supports(op)
+                    && !(index instanceof BitmapIndexFile))
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return the bitmap index over the given field of the specified table,
+     * or null if there is none.
+     */
+    public BitmapIndexFile getBitmapIndex(int tableid, int field) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index instanceof BitmapIndexFile)
+                return (BitmapIndexFile) index;
+        }
+        return null;
+    }
+
     /**
      * Return the id of the table with a specified name,
      *
@@ -112,6 +218,17 @@ public class Catalog {
         return getDbFile(tableid).getTupleDesc();
     }
 
+    /**
+     * Returns the size in bytes of the pages of the specified table.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -121,6 +238,8 @@ public class Catalog {
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         TableDesc tableDesc = tableDescs.get(tableid);
+        if (tableDesc == null && indexFiles.containsKey(tableid))
+            return indexFiles.get(tableid);
         if (tableDesc == null)
             throw new NoSuchElementException("table id does not exist: " + tableid);
 
@@ -148,15 +267,47 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables and indexes from the catalog, closing any open file
+     * handles held by their DbFiles.
      */
     public void clear() {
+        for (IndexFile index : indexFiles.values()) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        indexFiles.clear();
+        tableIndexes.clear();
+        for (TableDesc tableDesc : tableDescs.values()) {
+            if (tableDesc.getDbFile() instanceof Closeable) {
+                try {
+                    ((Closeable) tableDesc.getDbFile()).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         tableDescs.clear();
         nameIdMap.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * A field annotated with "index" gets a B+ tree index stored in
+     * name.field.idx next to the table, one annotated with "hash" an
+     * extendible hash index stored in name.field.hash and one annotated with
+     * "bitmap" a bitmap index stored in name.field.bitmap. An index file
+     * that does not exist yet or is empty is built from the table data.
+     * A field annotated with "bloom" gets per-page Bloom filters of its
+     * values, see {@link BloomFilterMap}.
+     * <p>
+     * Options may follow the field list: "slotted" and "pax" choose the page
+     * layout, "mmap" reads the pages through a memory-mapped view and
+     * "pagesize=N" stores the table in pages of N bytes instead of
+     * {@link BufferPool#PAGE_SIZE}, see {@link HeapFile#checkPageSize}.
      *
      * @param catalogFile
      */
@@ -175,6 +326,10 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexedFields = new ArrayList<Integer>();
+                ArrayList<Integer> hashedFields = new ArrayList<Integer>();
+                ArrayList<Integer> bitmapFields = new ArrayList<Integer>();
+                ArrayList<Integer> bloomFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -186,26 +341,76 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexedFields.add(names.size() - 1);
+                        else if (els2[i].trim().equals("hash"))
+                            hashedFields.add(names.size() - 1);
+                        else if (els2[i].trim().equals("bitmap"))
+                            bitmapFields.add(names.size() - 1);
+                        else if (els2[i].trim().equals("bloom"))
+                            bloomFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                // options may follow the field list, e.g. "name (...) slotted mmap"
+                boolean slotted = false;
+                boolean pax = false;
+                boolean memoryMapped = false;
+                int pageSize = BufferPool.PAGE_SIZE;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().equals("pax"))
+                        pax = true;
+                    else if (option.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (option.toLowerCase().startsWith("pagesize="))
+                        pageSize = HeapFile.checkPageSize(Integer.parseInt(option.substring(9)));
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
-                addTable(tabHf, name, primaryKey);
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf = pax ? new PaxFile(dataFile, t, pageSize)
+                        : new HeapFile(dataFile, t, slotted, pageSize);
+                addTable(tabHf, name, primaryKey, memoryMapped);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : bloomFields) {
+                    tabHf.addBloomFilter(field);
+                    System.out.println("Added Bloom filters on " + name + "." + names.get(field));
+                }
+                for (int field : indexedFields) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + names.get(field) + ".idx");
+                    addIndex(new BTreeFile(indexFile, typeAr[field], tabHf.getId(), field), tabHf);
+                    System.out.println("Added index on " + name + "." + names.get(field));
+                }
+                for (int field : hashedFields) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + names.get(field) + ".hash");
+                    addIndex(new ExtendibleHashFile(indexFile, typeAr[field], tabHf.getId(), field), tabHf);
+                    System.out.println("Added hash index on " + name + "." + names.get(field));
+                }
+                for (int field : bitmapFields) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + names.get(field) + ".bitmap");
+                    addIndex(new BitmapIndexFile(indexFile, typeAr[field], tabHf.getId(), field), tabHf);
+                    System.out.println("Added bitmap index on " + name + "." + names.get(field));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
-        } catch (IndexOutOfBoundsException e) {
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
         }
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ClockPolicy gives each page a second chance, see
+ * {@link ReplacementPolicy#CLOCK}. A hit only sets the reference bit of the
+ * page. The hand sweeps the pages in the order they passed it last: a
+ * referenced page has its bit cleared and is passed over to the end, and
+ * the first page found not referenced is the victim.
+ */
+class ClockPolicy extends ReplacementPolicy {
+
+    /** The candidates from the hand on, with their reference bits. */
+    private final LinkedHashMap<PageTable.Frame, Boolean> clock =
+            new LinkedHashMap<PageTable.Frame, Boolean>();
+
+    @Override
+    public String getName() {
+        return CLOCK;
+    }
+
+    @Override
+    void admitted(PageTable.Frame frame) {
+        clock.put(frame, false);
+    }
+
+    @Override
+    void accessed(PageTable.Frame frame) {
+        // setting the bit of a page leaves it where it is
+        if (clock.containsKey(frame))
+            clock.put(frame, true);
+    }
+
+    @Override
+    void restore(PageTable.Frame frame, int queue) {
+        clock.put(frame, true);
+    }
+
+    @Override
+    void forget(PageTable.Frame frame) {
+        clock.remove(frame);
+    }
+
+    @Override
+    int size() {
+        return clock.size() + heldFrames();
+    }
+
+    @Override
+    PageTable.Frame victim() {
+        // each page is passed over at most once with its bit set
+        int referenced = clock.size();
+        while (!clock.isEmpty()) {
+            Iterator<Map.Entry<PageTable.Frame, Boolean>> hand = clock.entrySet().iterator();
+            Map.Entry<PageTable.Frame, Boolean> entry = hand.next();
+            PageTable.Frame frame = entry.getKey();
+            if (!evictable(frame)) {
+                hand.remove();
+                hold(frame, 0);
+            } else if (entry.getValue() && referenced-- > 0) {
+                hand.remove();
+                clock.put(frame, false);
+            } else {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
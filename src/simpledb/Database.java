@@ -8,6 +8,13 @@ import java.io.*;
     variables used by the database system (the catalog, the buffer pool,
     and the log files, in particular.)
     <p>
+    The replacement policy of the buffer pool is chosen with the system
+    property simpledb.replacement, for example -Dsimpledb.replacement=2q
+    (see {@link ReplacementPolicy#create}); it is LRU by default. The
+    system property simpledb.arena gives the bytes of an off-heap arena of
+    page images for the buffer pool (see {@link BufferPool#withArena}), for
+    example -Dsimpledb.arena=4294967296; there is none by default.
+    <p>
     Provides a set of methods that can be used to access these variables
     from anywhere.
 */
@@ -16,13 +23,20 @@ public class Database {
 	private static Database _instance = new Database();
     private final Catalog _catalog;
     private BufferPool _bufferpool; 
+    /** Name of the replacement policy of the buffer pools. */
+    private String _replacement;
+    /** Bytes of the arena of the buffer pools, or 0 for none. */
+    private final long _arenaBytes;
 
     private final static String LOGFILENAME = "log";
     private LogFile _logfile;
 
     private Database() {
     	_catalog = new Catalog();
-    	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_replacement = System.getProperty("simpledb.replacement", ReplacementPolicy.LRU);
+    	_arenaBytes = Long.getLong("simpledb.arena", 0);
+    	_bufferpool = newBufferPool((long) BufferPool.DEFAULT_PAGES * BufferPool.PAGE_SIZE,
+    	        ReplacementPolicy.create(_replacement));
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -33,6 +47,14 @@ public class Database {
         // startControllerThread();
     }
 
+    /** Create a buffer pool of the given budget with the given policy
+        and the configured arena */
+    private BufferPool newBufferPool(long budget, ReplacementPolicy policy) {
+        if (_arenaBytes > 0)
+            return BufferPool.withArena(budget, _arenaBytes, policy);
+        return BufferPool.withBudget(budget, policy);
+    }
+
     /** Return the log file of the static Database instance*/
     public static LogFile getLogFile() {
         return _instance._logfile;
@@ -52,12 +74,47 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
-        _instance._bufferpool = new BufferPool(pages);
+        return resetBufferPool(pages, _instance._replacement);
+    }
+
+    /** Method used for testing -- create a new instance of the buffer
+        pool with the given replacement policy, which the pools created
+        by the other reset methods keep, and return it
+    */
+    public static BufferPool resetBufferPool(int pages, String replacement) {
+        ReplacementPolicy policy = ReplacementPolicy.create(replacement);
+        _instance._replacement = replacement;
+        _instance._bufferpool = _instance.newBufferPool((long) pages * BufferPool.PAGE_SIZE, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the buffer
+        pool with the given budget in bytes and return it
+    */
+    public static BufferPool resetBufferPoolBudget(long bytes) {
+        _instance._bufferpool = _instance.newBufferPool(bytes,
+                ReplacementPolicy.create(_instance._replacement));
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the buffer
+        pool keeping pages of the given budget in bytes decoded, with an
+        arena of arenaBytes bytes, and return it
+    */
+    public static BufferPool resetBufferPoolArena(long bytes, long arenaBytes) {
+        _instance._bufferpool = BufferPool.withArena(bytes, arenaBytes,
+                ReplacementPolicy.create(_instance._replacement));
         return _instance._bufferpool;
     }
 
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._catalog.clear();
+        try {
+            _instance._logfile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     	_instance = new Database();
     }
 
@@ -2,7 +2,9 @@ package simpledb;
 
 import simpledb.operation.JoinPredicate;
 import simpledb.operation.Operator;
+import simpledb.operation.Filter;
 import simpledb.struct.DbIterator;
+import simpledb.struct.Field;
 import simpledb.struct.Tuple;
 import simpledb.struct.TupleDesc;
 
@@ -10,6 +12,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * When the probe side (child2) is a SeqScan, possibly below filters, and
+ * the build side loaded at most {@link #PROBE_FILTER_KEYS} keys, the scan
+ * is handed the keys so that it skips the pages whose Bloom filters on the
+ * join field hold none of them.
  */
 public class HashEquiJoin extends Operator {
 
@@ -58,6 +65,8 @@ public class HashEquiJoin extends Operator {
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
+    /** Most build keys for which the probe scan tests Bloom filters. */
+    public final static int PROBE_FILTER_KEYS = 256;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
@@ -71,18 +80,39 @@ public class HashEquiJoin extends Operator {
             }
             list.add(t1);
             if (cnt++ == MAP_SIZE)
-                return true;
+                break;
         }
+        setProbeKeys();
         return cnt > 0;
 
     }
 
+    /**
+     * Hands the keys of the loaded map to the scan of the probe side, to be
+     * used from its next open or rewind.
+     */
+    private void setProbeKeys() {
+        DbIterator leaf = child2;
+        while (leaf instanceof Filter)
+            leaf = ((Filter) leaf).getChildren()[0];
+        if (leaf == null || leaf.getClass() != SeqScan.class)
+            return;
+        ArrayList<Field> keys = null;
+        if (map.size() <= PROBE_FILTER_KEYS) {
+            keys = new ArrayList<Field>();
+            for (Object key : map.keySet())
+                keys.add((Field) key);
+        }
+        ((SeqScan) leaf).setProbeKeys(pred.getField2(), keys);
+    }
+
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
         loadMap();
+        child2.open();
+        super.open();
     }
 
     public void close() {
@@ -97,7 +127,9 @@ public class HashEquiJoin extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
+        loadMap();
         child2.rewind();
+        listIt = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -158,8 +190,8 @@ public class HashEquiJoin extends Operator {
         }
 
         // child2 is done: advance child1
-        child2.rewind();
         if (loadMap()) {
+            child2.rewind();
             return fetchNext();
         }
 
@@ -0,0 +1,144 @@
+package simpledb;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies <tt>field op constant</tt>, by looking the
+ * matching entries up in an {@link IndexFile} and fetching each tuple from
+ * its page. Tuples come out in index order rather than in the order they
+ * are laid out on disk.
+ * <p>
+ * It is a SeqScan of the same table as far as the rest of the plan is
+ * concerned: it has the same TupleDesc, table name and alias. The constant
+ * can be replaced between scans with {@link #probe}, which is how an
+ * {@link simpledb.operation.IndexNestedLoopJoin} looks up the tuples that
+ * join with each outer tuple.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate.Op op;
+    private Field constant;
+    private DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates an index scan over the table of the given index as a part of
+     * the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to look the tuples up in.
+     * @param op
+     *            the operator of the predicate on the indexed field; the
+     *            index must support it.
+     * @param constant
+     *            the value the indexed field is compared against, or null
+     *            if it is only set by probe; the scan is empty until then.
+     * @param tableAlias
+     *            the alias of the table, as for SeqScan.
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op,
+                     Field constant, String tableAlias) {
+        super(tid, index.getTableId(), tableAlias);
+        if (!index.supports(op))
+            throw new UnsupportedOperationException("index does not support " + op);
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.constant = constant;
+    }
+
+    public IndexScan(TransactionId tid, IndexFile index, Predicate.Op op, Field constant) {
+        this(tid, index, op, constant,
+                Database.getCatalog().getTableName(index.getTableId()));
+    }
+
+    /**
+     * @return the predicate this scan answers from the index.
+     */
+    public Predicate getPredicate() {
+        return new Predicate(index.getKeyField(), op, constant);
+    }
+
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        next = null;
+        if (constant != null) {
+            entries = index.indexIterator(tid, op, constant);
+            entries.open();
+        }
+    }
+
+    /**
+     * Restarts the open scan with a new constant, so that it returns the
+     * tuples whose indexed field satisfies <tt>field op constant</tt>.
+     */
+    public void probe(Field constant) throws DbException, TransactionAbortedException {
+        close();
+        this.constant = constant;
+        open();
+    }
+
+    /**
+     * Fetches the tuple of the next index entry. Entries whose slot has
+     * been emptied by this transaction are skipped.
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (entries != null && entries.hasNext()) {
+            Tuple entry = entries.next();
+            int pgNo = ((IntField) entry.getField(1)).getValue();
+            int slot = ((IntField) entry.getField(2)).getValue();
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, new HeapPageId(index.getTableId(), pgNo), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(slot);
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() {
+        next = null;
+        if (entries != null)
+            entries.close();
+        entries = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        next = null;
+        if (entries != null)
+            entries.rewind();
+    }
+}
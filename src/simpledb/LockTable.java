@@ -3,9 +3,11 @@ package simpledb;
 import org.apache.mina.util.ConcurrentHashSet;
 import simpledb.struct.PageId;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -60,6 +62,8 @@ class LockTable {
     private ConcurrentHashMap<PageId, ConcurrentHashSet<LockUnit>> bucket = new ConcurrentHashMap<>();
     private ConcurrentHashMap<TransactionId, ConcurrentHashSet<PageId>> holds = new ConcurrentHashMap<>();
     private WaitForGraph waitForGraph = new WaitForGraph();
+    /** Guarded by the latch of the table, that is its monitor. */
+    private long latches;
 
     private void addToBucket(TransactionId tid, PageId pid, LockType type) {
         if(!bucket.containsKey(pid))
@@ -123,102 +127,106 @@ class LockTable {
         return holds.get(tid);
     }
 
+    /**
+     * Grants tid a lock of the given type on pid if it can be granted
+     * without waiting, or tells that tid holds a strong enough lock
+     * already. Called under the latch of the table.
+     *
+     * @return true if tid holds the lock now
+     */
+    private boolean grant(TransactionId tid, PageId pid, LockType lockType) {
+        LockType holdLock = holdLock(tid, pid);
+        if (LockType.ExclusiveLock.equals(holdLock)
+                || (holdLock != null && lockType.equals(LockType.ShareLock)))
+            return true;
+        if (lockType.equals(LockType.ShareLock)) {
+            if (isExclusiveLocked(pid))
+                return false;
+        } else if (locksOnPage(pid).size() > (holdLock == null ? 0 : 1)) {
+            // other transactions hold S locks, or an X lock
+            return false;
+        }
+        addToBucket(tid, pid, lockType);
+        return true;
+    }
+
     public void acquireLock(TransactionId tid, PageId pid, Permissions perms) throws TransactionAbortedException {
 
-         LockItem lockRes = new LockItem(pid.hashCode(), LockItemType.RESOURCE, pid.toString());
-        LockItem lockRequester = new LockItem(tid.getId(), LockItemType.TRANSACTION, tid.toString());
+        LockItem lockRes = new LockItem(pid.hashCode(), LockItemType.RESOURCE, pid);
+        LockItem lockRequester = new LockItem(tid.getId(), LockItemType.TRANSACTION, tid);
+        LockType lockType = LockType.fromPerms(perms);
 
         while(true) {
-            boolean isExclusiveLocked = isExclusiveLocked(pid);
-            LockType holdLock = holdLock(tid, pid);
-            if (isExclusiveLocked) {
-
-                if (holdLock != null && holdLock.equals(LockType.ExclusiveLock)) {
-                    // tid already hold X lock.
+            synchronized (this) {
+                ++latches;
+                if (grant(tid, pid, lockType)) {
+                    waitForGraph.addGrant(lockRes, lockRequester);
                     return;
                 }
-                else {
-                    // Check deadlock and wait
-                    waitForGraph.tryAddEdge(lockRequester, lockRes);
-
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    continue;
-                }
             }
-
-            // No X lock on page
-            LockType lockType = LockType.fromPerms(perms);
-            if (locked(pid)) {
-                // S lock existed.
-                Set<LockUnit> locks = locksOnPage(pid);
-                boolean alreadyholdSLock = locks.contains(new LockUnit(tid, LockType.ShareLock));
-
-                if(! alreadyholdSLock) {
-                    // No S lock hold
-                    if(lockType.equals(LockType.ShareLock)) {
-                        // Request for S lock
-                        addToBucket(tid, pid, lockType);
-                        waitForGraph.addEdge(lockRes, lockRequester);
-                        return;
-                    }else {
-                        // request for X lock but S lock holds by other transaction.
-                        waitForGraph.tryAddEdge(lockRequester, lockRes);
-                        try {
-                            Thread.sleep(10);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        continue;
-                    }
-                }
-
-                if(lockType.equals(LockType.ShareLock)) {
-                    // Already hold S lock and request for S lock
-                    return;
-                }
-                if(locks.size() == 1) {
-                    // only the transaction hold S lock and can upgrade X lock.
-                    addToBucket(tid, pid, lockType);
-                    waitForGraph.addEdge(lockRes, lockRequester);
-                    return;
-                }
-                else {
-                    // other transaction alse hold S lock, can not upgrade to X lock, wait
-                    waitForGraph.tryAddEdge(lockRequester, lockRes);
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    continue;
-                }
+            // Check deadlock and wait
+            waitForGraph.tryAddEdge(lockRequester, lockRes);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
+        }
+    }
 
-            addToBucket(tid, pid, lockType);
-            waitForGraph.addEdge(lockRes, lockRequester);
-            return;
+    /**
+     * Acquires locks on a run of pages, as a scan does. The latch of the
+     * table is taken once for the whole run: every lock that can be
+     * granted without waiting is granted under it, and the holders are
+     * recorded in the wait-for graph in one go. Only the remaining pages
+     * go through acquireLock, which may wait.
+     */
+    public void acquireLocks(TransactionId tid, List<PageId> pids, Permissions perms)
+            throws TransactionAbortedException {
+        LockType lockType = LockType.fromPerms(perms);
+        ArrayList<PageId> granted = new ArrayList<>(pids.size());
+        ArrayList<PageId> waiting = new ArrayList<>();
+        synchronized (this) {
+            ++latches;
+            for (PageId pid : pids)
+                (grant(tid, pid, lockType) ? granted : waiting).add(pid);
         }
+        waitForGraph.addHolders(granted, tid);
+        for (PageId pid : waiting)
+            acquireLock(tid, pid, perms);
+    }
+
+    /**
+     * @return the number of times the latch of the table was taken to
+     * acquire locks.
+     */
+    long getLatches() {
+        return latches;
     }
 
-    public  void releaseLock(TransactionId tid, PageId pid) {
+    public synchronized void releaseLock(TransactionId tid, PageId pid) {
         LockType lockType = holdLock(tid, pid);
         if(lockType != null) {
             releaseLock(tid, pid, lockType);
-            LockItem lockRes = new LockItem(pid.hashCode(), LockItemType.RESOURCE, pid.toString());
-            LockItem lockRequster = new LockItem(tid.getId(), LockItemType.TRANSACTION, tid.toString());
+            LockItem lockRes = new LockItem(pid.hashCode(), LockItemType.RESOURCE, pid);
+            LockItem lockRequster = new LockItem(tid.getId(), LockItemType.TRANSACTION, tid);
             waitForGraph.removeEdge(lockRes, lockRequster);
         }
     }
 
+    public boolean lockedByOthers(TransactionId tid, PageId pid) {
+        for(LockUnit unit : locksOnPage(pid)) {
+            if(!unit.getTid().equals(tid))
+                return true;
+        }
+        return false;
+    }
+
     public boolean holdsLock(TransactionId tid, PageId pid){
         return getHolds(tid).contains(pid);
     }
 
-    public void releaseAllLocks(TransactionId tid) {
+    public synchronized void releaseAllLocks(TransactionId tid) {
         ConcurrentHashSet<PageId> holds = getHolds(tid);
         if(holds == null) {
             return;
@@ -0,0 +1,134 @@
+package simpledb;
+
+import simpledb.struct.PageId;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LruKPolicy evicts the page whose {@link #K}th to last use is longest ago,
+ * see {@link ReplacementPolicy#LRU_K}. Pages used fewer than K times are
+ * evicted first, least recently used first. The uses of evicted pages are
+ * remembered for a while, so that a page read again soon keeps its
+ * history.
+ * <p>
+ * Uses are counted on a logical clock that ticks with each admission and
+ * replayed hit. The pages used K times are ordered in a tree by their Kth
+ * to last use, so choosing the victim among them takes logarithmic rather
+ * than constant time.
+ */
+class LruKPolicy extends ReplacementPolicy {
+
+    /** Uses that make up the history of a page. */
+    static final int K = 2;
+    /** Least number of evicted pages whose history is remembered. */
+    private static final int RETAINED = 64;
+
+    private long clock;
+    /** The last K uses of each candidate or frame kept apart, latest first. */
+    private final HashMap<PageTable.Frame, long[]> history = new HashMap<PageTable.Frame, long[]>();
+    /** The last K uses of evicted pages, evicted first first. */
+    private final LinkedHashMap<PageId, long[]> retained = new LinkedHashMap<PageId, long[]>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+            return size() > Math.max(RETAINED, history.size());
+        }
+    };
+    /** Candidates used fewer than K times, least recently used first. */
+    private final LinkedHashSet<PageTable.Frame> young = new LinkedHashSet<PageTable.Frame>();
+    /** Candidates used K times, by their Kth to last use. */
+    private final TreeMap<Long, PageTable.Frame> old = new TreeMap<Long, PageTable.Frame>();
+
+    @Override
+    public String getName() {
+        return LRU_K;
+    }
+
+    @Override
+    void admitted(PageTable.Frame frame) {
+        long[] uses = retained.remove(frame.pid);
+        if (uses == null)
+            uses = new long[K];
+        history.put(frame, uses);
+        use(uses);
+        place(frame, uses);
+    }
+
+    @Override
+    void accessed(PageTable.Frame frame) {
+        long[] uses = history.get(frame);
+        if (uses == null)
+            return;
+        // a frame kept apart is placed by its history when it is restored
+        boolean queued = unplace(frame, uses);
+        use(uses);
+        if (queued)
+            place(frame, uses);
+    }
+
+    @Override
+    void restore(PageTable.Frame frame, int queue) {
+        place(frame, history.get(frame));
+    }
+
+    @Override
+    void forget(PageTable.Frame frame) {
+        long[] uses = history.remove(frame);
+        if (uses != null) {
+            unplace(frame, uses);
+            retained.put(frame.pid, uses);
+        }
+    }
+
+    @Override
+    int size() {
+        // the history covers the frames kept apart as well
+        return history.size();
+    }
+
+    @Override
+    PageTable.Frame victim() {
+        for (Iterator<PageTable.Frame> it = young.iterator(); it.hasNext(); ) {
+            PageTable.Frame frame = it.next();
+            if (evictable(frame))
+                return frame;
+            it.remove();
+            hold(frame, 0);
+        }
+        Map.Entry<Long, PageTable.Frame> entry;
+        while ((entry = old.firstEntry()) != null) {
+            if (evictable(entry.getValue()))
+                return entry.getValue();
+            old.pollFirstEntry();
+            hold(entry.getValue(), 0);
+        }
+        return null;
+    }
+
+    private void use(long[] uses) {
+        System.arraycopy(uses, 0, uses, 1, K - 1);
+        uses[0] = ++clock;
+    }
+
+    private void place(PageTable.Frame frame, long[] uses) {
+        if (uses[K - 1] == 0)
+            young.add(frame);
+        else
+            old.put(uses[K - 1], frame);
+    }
+
+    /**
+     * @return true if the frame was a candidate
+     */
+    private boolean unplace(PageTable.Frame frame, long[] uses) {
+        if (uses[K - 1] == 0)
+            return young.remove(frame);
+        return old.remove(uses[K - 1], frame);
+    }
+}
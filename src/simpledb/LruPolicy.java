@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * LruPolicy evicts the clean page that was least recently used, see
+ * {@link ReplacementPolicy#LRU}.
+ */
+class LruPolicy extends ReplacementPolicy {
+
+    /** The candidates, least recently used first. */
+    private final LinkedHashSet<PageTable.Frame> order = new LinkedHashSet<PageTable.Frame>();
+
+    @Override
+    public String getName() {
+        return LRU;
+    }
+
+    @Override
+    void admitted(PageTable.Frame frame) {
+        order.add(frame);
+    }
+
+    @Override
+    void accessed(PageTable.Frame frame) {
+        if (order.remove(frame))
+            order.add(frame);
+    }
+
+    @Override
+    void restore(PageTable.Frame frame, int queue) {
+        order.add(frame);
+    }
+
+    @Override
+    void forget(PageTable.Frame frame) {
+        order.remove(frame);
+    }
+
+    @Override
+    int size() {
+        return order.size() + heldFrames();
+    }
+
+    @Override
+    PageTable.Frame victim() {
+        for (Iterator<PageTable.Frame> it = order.iterator(); it.hasNext(); ) {
+            PageTable.Frame frame = it.next();
+            if (evictable(frame))
+                return frame;
+            it.remove();
+            hold(frame, 0);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,188 @@
+package simpledb;
+
+import simpledb.struct.HeapFile;
+import simpledb.struct.HeapPage;
+import simpledb.struct.HeapPageId;
+import simpledb.struct.PageId;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * PageArena keeps the images of pages off the Java heap, in direct buffers
+ * allocated once when the arena is created. A BufferPool with an arena
+ * (see {@link BufferPool#withArena}) keeps its decoded pages within a small
+ * heap budget, and the images of many more pages in the arena: a page
+ * missing from the pool is decoded from its image in the arena if it is
+ * there, and read from its file into the arena otherwise. The images are
+ * read from the file channel straight into the arena, and copied once into
+ * the page decoded from them.
+ * <p>
+ * The arena is divided into slots of one page size. Only pages of that
+ * size of HeapFiles that are not compressed (see
+ * {@link HeapFile#readPageImage}) are kept in the arena; other pages are
+ * read from their files as without an arena. Slots are reused in the
+ * order of a clock, which passes over slots holding images used since it
+ * last came by once.
+ * <p>
+ * An image is the page as it is on disk; the pool drops it through
+ * {@link #invalidate} whenever the page is written or discarded.
+ */
+public class PageArena {
+
+    /** Most bytes of one of the direct buffers of an arena. */
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final int slotSize;
+    private final int slotsPerChunk;
+    private final ByteBuffer[] chunks;
+    /** The page whose image each slot holds, or null. */
+    private final PageId[] owners;
+    private final boolean[] referenced;
+    /** Whether a slot is being read into. */
+    private final boolean[] loading;
+    private final HashMap<PageId, Integer> slots = new HashMap<PageId, Integer>();
+    private int hand;
+    /**
+     * Counts invalidations, so that a read can tell whether the image it
+     * read may be older than a write.
+     */
+    private long version;
+
+    /**
+     * Creates an arena of the given size.
+     *
+     * @param bytes the bytes of page images the arena holds at most
+     * @param slotSize the size of the pages the arena holds
+     */
+    public PageArena(long bytes, int slotSize) {
+        long n = bytes / slotSize;
+        if (n < 1)
+            throw new IllegalArgumentException("the arena cannot be empty");
+        if (n > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("the arena has too many slots");
+        this.slotSize = slotSize;
+        slotsPerChunk = CHUNK_SIZE / slotSize;
+        chunks = new ByteBuffer[(int) ((n + slotsPerChunk - 1) / slotsPerChunk)];
+        for (int i = 0; i < chunks.length; i++) {
+            long slotsInChunk = Math.min(slotsPerChunk, n - (long) i * slotsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect((int) slotsInChunk * slotSize);
+        }
+        owners = new PageId[(int) n];
+        referenced = new boolean[(int) n];
+        loading = new boolean[(int) n];
+    }
+
+    /**
+     * @return the size of the pages the arena holds.
+     */
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * @return the number of pages the arena holds at most.
+     */
+    public int getNumSlots() {
+        return owners.length;
+    }
+
+    /**
+     * @return true if the arena holds the image of the given page.
+     */
+    public synchronized boolean contains(PageId pid) {
+        return slots.containsKey(pid);
+    }
+
+    /**
+     * Reads a page through the arena: decodes it from its image, reading
+     * the image from the file first if the arena does not hold it.
+     *
+     * @return the page, or null if the page cannot be kept in the arena
+     */
+    HeapPage readPage(HeapFile file, HeapPageId pid) {
+        if (file.getPageSize() != slotSize || !file.hasPageImages())
+            return null;
+        while (true) {
+            long seen;
+            int slot;
+            synchronized (this) {
+                Integer cached = slots.get(pid);
+                if (cached != null) {
+                    referenced[cached] = true;
+                    return file.decodePage(pid, image(cached));
+                }
+                slot = claim();
+                if (slot < 0)
+                    return null;
+                seen = version;
+            }
+            try {
+                file.readPageImage(pid.pageNumber(), image(slot));
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    loading[slot] = false;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                loading[slot] = false;
+                // an image read while the page was written may be stale
+                if (version != seen)
+                    continue;
+                if (!slots.containsKey(pid)) {
+                    owners[slot] = pid;
+                    referenced[slot] = true;
+                    slots.put(pid, slot);
+                }
+                return file.decodePage(pid, image(slot));
+            }
+        }
+    }
+
+    /**
+     * Drops the image of a page that has been written or discarded.
+     */
+    synchronized void invalidate(PageId pid) {
+        version++;
+        Integer slot = slots.remove(pid);
+        if (slot != null)
+            owners[slot] = null;
+    }
+
+    /**
+     * Frees the next slot of the clock for a read.
+     *
+     * @return the slot, or -1 if all the slots are being read into
+     */
+    private int claim() {
+        // every slot is passed over at most once for its reference
+        for (int i = 0; i < 2 * owners.length; i++) {
+            int slot = hand;
+            hand = (hand + 1) % owners.length;
+            if (loading[slot])
+                continue;
+            if (owners[slot] != null && referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (owners[slot] != null)
+                slots.remove(owners[slot]);
+            owners[slot] = null;
+            loading[slot] = true;
+            return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a buffer over the image of a slot.
+     */
+    private ByteBuffer image(int slot) {
+        ByteBuffer buf = chunks[slot / slotsPerChunk].duplicate();
+        int offset = (slot % slotsPerChunk) * slotSize;
+        buf.limit(offset + slotSize);
+        buf.position(offset);
+        return buf.slice();
+    }
+}
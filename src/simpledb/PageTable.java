@@ -0,0 +1,174 @@
+package simpledb;
+
+import simpledb.struct.Page;
+import simpledb.struct.PageId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageTable maps the ids of the pages cached in the BufferPool to their
+ * frames. The table is split into {@link #STRIPES} stripes by the hash of
+ * the page id. Looking a page up takes no lock; adding and removing frames
+ * latch the stripe of the page only, so that threads working on different
+ * pages do not wait for each other.
+ * <p>
+ * A frame can be pinned, and a pinned frame is never removed from the
+ * table by {@link #evict}. Pinning and evicting race through the pin count
+ * of the frame: an evicted frame has a negative count and cannot be pinned
+ * any more, so a frame that was pinned is still in the table.
+ */
+class PageTable {
+
+    /** Number of stripes, a power of two. */
+    static final int STRIPES = 16;
+
+    /** A page cached in the pool. */
+    static final class Frame {
+        final PageId pid;
+        /** The page; replaced in place when an abort reads it back. */
+        volatile Page page;
+        /** Whether a release of the frame waits for the replacement policy. */
+        final AtomicBoolean releasePending = new AtomicBoolean();
+        private final AtomicInteger pins = new AtomicInteger();
+
+        Frame(PageId pid, Page page) {
+            this.pid = pid;
+            this.page = page;
+        }
+
+        /**
+         * @return false if the frame has been evicted and cannot be pinned.
+         */
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0)
+                    return false;
+                if (pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        void unpin() {
+            pins.updateAndGet(n -> n > 0 ? n - 1 : n);
+        }
+
+        boolean isPinned() {
+            return pins.get() > 0;
+        }
+
+        /**
+         * @return the number of pins on the frame.
+         */
+        int pinCount() {
+            return Math.max(0, pins.get());
+        }
+
+        boolean isEvicted() {
+            return pins.get() < 0;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentHashMap<PageId, Frame>[] stripes = new ConcurrentHashMap[STRIPES];
+    private final AtomicLong bytes = new AtomicLong();
+
+    PageTable() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ConcurrentHashMap<PageId, Frame>();
+    }
+
+    private ConcurrentHashMap<PageId, Frame> stripe(PageId pid) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /**
+     * @return the frame of the given page, or null if it is not cached.
+     */
+    Frame get(PageId pid) {
+        return stripe(pid).get(pid);
+    }
+
+    /**
+     * Adds a frame for the given page, unless the page is cached already.
+     *
+     * @return the frame of the page
+     */
+    Frame putIfAbsent(PageId pid, Page page) {
+        ConcurrentHashMap<PageId, Frame> stripe = stripe(pid);
+        synchronized (stripe) {
+            Frame frame = stripe.get(pid);
+            if (frame != null)
+                return frame;
+            frame = new Frame(pid, page);
+            stripe.put(pid, frame);
+            bytes.addAndGet(page.getPageSize());
+            return frame;
+        }
+    }
+
+    /**
+     * Removes a frame from the table unless it is pinned.
+     *
+     * @return true if the frame was removed
+     */
+    boolean evict(Frame frame) {
+        ConcurrentHashMap<PageId, Frame> stripe = stripe(frame.pid);
+        synchronized (stripe) {
+            if (stripe.get(frame.pid) != frame || !frame.pins.compareAndSet(0, -1))
+                return false;
+            stripe.remove(frame.pid);
+            bytes.addAndGet(-frame.page.getPageSize());
+            return true;
+        }
+    }
+
+    /**
+     * Removes the frame of the given page, pinned or not.
+     *
+     * @return the removed frame, or null if the page was not cached
+     */
+    Frame discard(PageId pid) {
+        ConcurrentHashMap<PageId, Frame> stripe = stripe(pid);
+        synchronized (stripe) {
+            Frame frame = stripe.remove(pid);
+            if (frame != null) {
+                frame.pins.set(-1);
+                bytes.addAndGet(-frame.page.getPageSize());
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * @return the bytes of the cached pages.
+     */
+    long bytes() {
+        return bytes.get();
+    }
+
+    boolean isEmpty() {
+        for (ConcurrentHashMap<PageId, Frame> stripe : stripes) {
+            if (!stripe.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the frames of the table at some point during the call.
+     */
+    List<Frame> frames() {
+        ArrayList<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> stripe : stripes)
+            frames.addAll(stripe.values());
+        return frames;
+    }
+}
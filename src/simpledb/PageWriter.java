@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageWriter writes the dirty pages of a BufferPool out in the background,
+ * ahead of their eviction, so that the pool keeps clean pages to evict
+ * while transactions change more pages than it holds. The writer runs
+ * while the pool wakes it up, and ends once it has had nothing to do for
+ * {@link #IDLE_MILLIS}; the pool starts a new one when it needs it again.
+ * <p>
+ * A pass of the writer does nothing until dirty pages take more than
+ * {@link #HIGH_WATER} of the budget of the pool, and then writes pages
+ * out until they take no more than {@link #LOW_WATER}, see
+ * {@link BufferPool#writeBehind}.
+ */
+class PageWriter extends Thread {
+
+    /** Share of the budget in dirty pages at which the writer writes. */
+    static final double HIGH_WATER = 0.5;
+    /** Share of the budget in dirty pages the writer writes down to. */
+    static final double LOW_WATER = 0.25;
+    /** Milliseconds the writer waits to be woken up before it ends. */
+    static final long IDLE_MILLIS = 1000;
+
+    private final BufferPool pool;
+    /** Whether a pass was asked for since the last one started. */
+    private boolean wanted = true;
+    /** Whether the writer has stopped waiting for passes. */
+    private boolean done;
+
+    PageWriter(BufferPool pool) {
+        super("simpledb page writer");
+        setDaemon(true);
+        this.pool = pool;
+    }
+
+    /**
+     * Asks the writer for a pass.
+     *
+     * @return false if the writer has ended and a new one is needed
+     */
+    synchronized boolean wake() {
+        if (done)
+            return false;
+        wanted = true;
+        notify();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                if (!wanted) {
+                    try {
+                        wait(IDLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        // ends the writer like a timeout
+                    }
+                }
+                if (!wanted) {
+                    done = true;
+                    return;
+                }
+                wanted = false;
+            }
+            try {
+                pool.writeBehind();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
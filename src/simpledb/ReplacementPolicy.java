@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplacementPolicy chooses the pages the BufferPool evicts to make room
+ * for the pages it reads. The policy of a pool is chosen when the pool is
+ * created, see {@link #create} and {@link Database}.
+ * <p>
+ * A policy only ever offers frames that are clean and not pinned. Frames
+ * that are dirty or pinned are kept apart from the candidates once the
+ * policy comes across them, and return to the candidates when the pool
+ * reports that they may be evictable again. Victims are thus found without
+ * passing over the pages that cannot be evicted, in constant time for
+ * {@link #LRU}, {@link #CLOCK} and {@link #TWO_QUEUE}.
+ * <p>
+ * All the methods but the recording ones are called under the lock of the
+ * pool. Hits on cached pages take no lock: they are recorded in a buffer
+ * by {@link #recordAccess} and replayed in their order before the next
+ * victim is chosen. When more than {@link #ACCESS_BUFFER} hits are waiting,
+ * further ones are not recorded.
+ */
+public abstract class ReplacementPolicy {
+
+    /** Evicts the least recently used page. */
+    public static final String LRU = "lru";
+    /** Evicts the first page the clock hand finds not referenced. */
+    public static final String CLOCK = "clock";
+    /** Keeps pages used only once apart from the pages used again. */
+    public static final String TWO_QUEUE = "2q";
+    /** Evicts the page whose second to last use is longest ago. */
+    public static final String LRU_K = "lru-k";
+
+    /** Most hits waiting to be replayed. */
+    public static final int ACCESS_BUFFER = 4096;
+
+    private final ConcurrentLinkedQueue<PageTable.Frame> accesses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger();
+    private final ConcurrentLinkedQueue<PageTable.Frame> releases = new ConcurrentLinkedQueue<>();
+    /** The frames kept apart as dirty or pinned, with the queue they left. */
+    private final LinkedHashMap<PageTable.Frame, Integer> held = new LinkedHashMap<>();
+
+    /**
+     * Creates a policy by name.
+     *
+     * @param name one of {@link #LRU}, {@link #CLOCK}, {@link #TWO_QUEUE}
+     *            and {@link #LRU_K}
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static ReplacementPolicy create(String name) {
+        switch (name.toLowerCase()) {
+        case LRU:
+            return new LruPolicy();
+        case CLOCK:
+            return new ClockPolicy();
+        case TWO_QUEUE:
+            return new TwoQueuePolicy();
+        case LRU_K:
+            return new LruKPolicy();
+        default:
+            throw new IllegalArgumentException("unknown replacement policy " + name);
+        }
+    }
+
+    /**
+     * @return the name the policy is created by.
+     */
+    public abstract String getName();
+
+    /**
+     * @return true if the page of the frame can be evicted.
+     */
+    static boolean evictable(PageTable.Frame frame) {
+        return frame.page.isDirty() == null && !frame.isPinned();
+    }
+
+    /**
+     * Records a hit on a cached page, without taking a lock.
+     */
+    final void recordAccess(PageTable.Frame frame) {
+        if (buffered.incrementAndGet() > ACCESS_BUFFER) {
+            buffered.decrementAndGet();
+            return;
+        }
+        accesses.offer(frame);
+    }
+
+    /**
+     * Records that a frame may have become evictable, because it was
+     * unpinned or written out, or that it was discarded, without taking a
+     * lock. A frame is queued once until the policy has taken note of it.
+     */
+    final void recordRelease(PageTable.Frame frame) {
+        if (frame.releasePending.compareAndSet(false, true))
+            releases.offer(frame);
+    }
+
+    /**
+     * Replays the recorded hits and releases, as done before a victim is
+     * chosen.
+     */
+    private void drain() {
+        PageTable.Frame frame;
+        while ((frame = accesses.poll()) != null) {
+            buffered.decrementAndGet();
+            if (!frame.isEvicted())
+                accessed(frame);
+        }
+        while ((frame = releases.poll()) != null) {
+            frame.releasePending.set(false);
+            Integer queue = held.get(frame);
+            if (frame.isEvicted()) {
+                removed(frame);
+            } else if (queue != null && evictable(frame)) {
+                held.remove(frame);
+                restore(frame, queue);
+            }
+        }
+    }
+
+    /**
+     * Chooses the next page to evict, once the recorded hits and releases
+     * are replayed.
+     *
+     * @return a clean frame that is not pinned, or null if there is none
+     */
+    final PageTable.Frame nextVictim() {
+        drain();
+        PageTable.Frame frame = victim();
+        if (frame == null && !held.isEmpty()) {
+            // a page may have been cleaned without the pool knowing
+            for (Iterator<Map.Entry<PageTable.Frame, Integer>> it = held.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<PageTable.Frame, Integer> entry = it.next();
+                if (evictable(entry.getKey())) {
+                    it.remove();
+                    restore(entry.getKey(), entry.getValue());
+                }
+            }
+            frame = victim();
+        }
+        return frame;
+    }
+
+    /**
+     * A frame has been evicted or discarded. A frame kept apart goes back
+     * to its queue first, so that the policy forgets it the same way as a
+     * candidate. Calling this again for the same frame does nothing.
+     */
+    final void removed(PageTable.Frame frame) {
+        Integer queue = held.remove(frame);
+        if (queue != null)
+            restore(frame, queue);
+        forget(frame);
+    }
+
+    /**
+     * @return the number of frames kept apart.
+     */
+    final int heldFrames() {
+        return held.size();
+    }
+
+    /**
+     * Keeps a frame the policy took off one of its queues apart until it
+     * is evictable again.
+     *
+     * @param queue the queue the frame goes back to, see {@link #restore}
+     */
+    final void hold(PageTable.Frame frame, int queue) {
+        held.put(frame, queue);
+    }
+
+    /**
+     * A page has been read into a new frame.
+     */
+    abstract void admitted(PageTable.Frame frame);
+
+    /**
+     * A cached page has been used again. Frames kept apart are not on a
+     * queue of the policy.
+     */
+    abstract void accessed(PageTable.Frame frame);
+
+    /**
+     * A frame kept apart is evictable again and goes back to the given
+     * queue.
+     */
+    abstract void restore(PageTable.Frame frame, int queue);
+
+    /**
+     * A frame on a queue of the policy has been evicted or discarded.
+     */
+    abstract void forget(PageTable.Frame frame);
+
+    /**
+     * @return the number of frames the policy keeps track of, candidates
+     * and frames kept apart.
+     */
+    abstract int size();
+
+    /**
+     * Chooses the next page to evict. Frames found dirty or pinned on the
+     * way are taken off their queue and kept apart through {@link #hold}.
+     * The victim stays on its queue until the pool has evicted it.
+     *
+     * @return a clean frame that is not pinned, or null if there is none
+     */
+    abstract PageTable.Frame victim();
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import simpledb.operation.Predicate;
 import simpledb.struct.*;
 
 import java.util.*;
@@ -8,6 +9,12 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates pushed down with {@link #addPredicate}, and the join keys set
+ * by {@link #setProbeKeys}, let a scan of a HeapFile pass over the pages
+ * whose zone map or Bloom filters rule out a match; the tuples of the pages
+ * read are still all returned, so the predicates also have to be applied by
+ * a Filter or join above the scan.
  */
 public class SeqScan implements DbIterator {
 
@@ -17,6 +24,10 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile dbfile;
     private DbFileIterator iterator;
+    private TupleDesc aliasedTd;
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    private int probeField = -1;
+    private Collection<Field> probeKeys;
 
 
     /**
@@ -49,6 +60,20 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTableName(tableId);
     }
     
+    /**
+     * @return the id of the table this operator scans.
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of.
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -72,13 +97,80 @@ public class SeqScan implements DbIterator {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
         dbfile = Database.getCatalog().getDbFile(tableid);
-        iterator =  dbfile.iterator(tid);
+        predicates.clear();
+        probeKeys = null;
+        if (dbfile instanceof HeapFile) {
+            final HeapFile heapFile = (HeapFile) dbfile;
+            iterator = heapFile.iterator(tid, new PageFilter() {
+                public boolean mayMatch(int pgNo) {
+                    return mayRead(heapFile, pgNo);
+                }
+            });
+        } else {
+            iterator = dbfile.iterator(tid);
+        }
+        TupleDesc td = dbfile.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        aliasedTd = new TupleDesc(types, names);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Pushes a predicate down to this scan, to skip the pages that cannot
+     * hold a tuple satisfying it. Takes effect from the next open or
+     * rewind. A predicate the scan has already is not added again.
+     *
+     * @param p
+     *            a predicate on a field of the scanned table.
+     */
+    public void addPredicate(Predicate p) {
+        if (!predicates.contains(p))
+            predicates.add(p);
+    }
+
+    /**
+     * Restricts this scan to the pages whose Bloom filters on a field may
+     * hold one of the given keys, as done by the probe side of a hash join.
+     * Takes effect from the next open or rewind.
+     *
+     * @param field
+     *            a field of the scanned table.
+     * @param keys
+     *            the keys looked for, or null to read all pages again.
+     */
+    public void setProbeKeys(int field, Collection<Field> keys) {
+        probeField = field;
+        probeKeys = keys;
+    }
+
+    private boolean mayRead(HeapFile heapFile, int pgNo) {
+        for (Predicate p : predicates) {
+            if (!heapFile.mayMatch(pgNo, p))
+                return false;
+        }
+        if (probeKeys != null) {
+            BloomFilterMap filter = heapFile.getBloomFilter(probeField);
+            if (filter != null && !filter.mayContainAny(pgNo, probeKeys))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the predicates pushed down to this scan.
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         iterator.open();
     }
@@ -93,7 +185,7 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        return dbfile.getTupleDesc();
+        return aliasedTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -1,7 +1,10 @@
 package simpledb;
+import simpledb.struct.BulkLoader;
 import simpledb.struct.DbFile;
 import simpledb.struct.DbFileIterator;
+import simpledb.struct.HeapFile;
 import simpledb.struct.HeapFileEncoder;
+import simpledb.struct.Segments;
 import simpledb.struct.Tuple;
 
 import java.io.*;
@@ -12,12 +15,51 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // a trailing "pagesize=N" writes pages of N bytes
+            int pageSize = BufferPool.PAGE_SIZE;
+            if (args[args.length-1].startsWith("pagesize=")) {
+                pageSize = HeapFile.checkPageSize(Integer.parseInt(args[args.length-1].substring(9)));
+                String[] newargs = new String[args.length-1];
+                System.arraycopy(args, 0, newargs, 0, newargs.length);
+                args = newargs;
+            }
+            // a trailing "segmented" splits the file into segment files
+            boolean segmented = args[args.length-1].equals("segmented");
+            if (segmented) {
+                String[] newargs = new String[args.length-1];
+                System.arraycopy(args, 0, newargs, 0, newargs.length);
+                args = newargs;
+            }
+            // a trailing "compressed" stores the pages deflated
+            boolean compressed = args[args.length-1].equals("compressed");
+            if (compressed && segmented) {
+                System.err.println("Compressed files cannot be segmented");
+                return;
+            }
+            if (compressed) {
+                String[] newargs = new String[args.length-1];
+                System.arraycopy(args, 0, newargs, 0, newargs.length);
+                args = newargs;
+            }
+            // a trailing "slotted" or "pax" selects the page format
+            boolean slotted = args[args.length-1].equals("slotted");
+            boolean pax = args[args.length-1].equals("pax");
+            if (slotted || pax) {
+                String[] newargs = new String[args.length-1];
+                System.arraycopy(args, 0, newargs, 0, newargs.length);
+                args = newargs;
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
             File sourceTxtFile=new File(args[1]);
             File targetDatFile=new File(args[1].replaceAll(".txt", ".dat"));
+            File pageFile = targetDatFile;
+            if (compressed) {
+                pageFile = File.createTempFile("uncompressed", ".dat");
+                pageFile.deleteOnExit();
+            }
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
@@ -48,8 +90,15 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            // parse in parallel and write whole pages
+            new BulkLoader(ts, fieldSeparator, slotted, pax, pageSize).convert(sourceTxtFile, pageFile);
+            if (compressed) {
+                HeapFileEncoder.compress(pageFile, targetDatFile, pageSize);
+                pageFile.delete();
+            }
+            if (segmented)
+                HeapFileEncoder.segment(targetDatFile, pageSize,
+                        (int) (Segments.DEFAULT_SEGMENT_BYTES / pageSize));
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -72,6 +121,23 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("vacuum")) {
+            // vacuum <catalog file> <table>
+            if (args.length != 3) {
+                System.err.println("Unexpected number of arguments to vacuum");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            DbFile table = Database.getCatalog().getDbFile(
+                    Database.getCatalog().getTableId(args[2]));
+            if (!(table instanceof HeapFile)) {
+                System.err.println("Only heap files can be vacuumed");
+                return;
+            }
+            int reclaimed = ((HeapFile) table).compact();
+            System.out.println(reclaimed + " pages reclaimed from " + args[2]);
+            Database.getCatalog().clear();
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.struct.PageId;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * TwoQueuePolicy keeps the pages used only once apart from those used
+ * again, see {@link ReplacementPolicy#TWO_QUEUE}. A page read into the pool
+ * joins the first in, first out queue A1in. A page evicted from A1in is
+ * remembered by its id in A1out, and if it is read again while remembered
+ * it joins the least recently used queue Am. Pages are evicted from A1in
+ * while it holds more than a quarter of the candidates, so that a scan
+ * passing through the pool once does not push the pages of Am out.
+ */
+class TwoQueuePolicy extends ReplacementPolicy {
+
+    private static final int A1IN = 0;
+    private static final int AM = 1;
+
+    /** Pages used once, first in first. */
+    private final LinkedHashSet<PageTable.Frame> a1in = new LinkedHashSet<PageTable.Frame>();
+    /** Pages used again, least recently used first. */
+    private final LinkedHashSet<PageTable.Frame> am = new LinkedHashSet<PageTable.Frame>();
+    /** Ids of the pages last evicted from A1in, oldest first. */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+
+    @Override
+    public String getName() {
+        return TWO_QUEUE;
+    }
+
+    /**
+     * @return the number of candidates A1in holds before it gives up pages.
+     */
+    private int kin() {
+        return Math.max(1, (a1in.size() + am.size()) / 4);
+    }
+
+    /**
+     * @return the number of page ids A1out remembers.
+     */
+    private int kout() {
+        return Math.max(1, (a1in.size() + am.size()) / 2);
+    }
+
+    @Override
+    void admitted(PageTable.Frame frame) {
+        if (a1out.remove(frame.pid))
+            am.add(frame);
+        else
+            a1in.add(frame);
+    }
+
+    @Override
+    void accessed(PageTable.Frame frame) {
+        // hits in A1in are correlated with the first use and do not count
+        if (am.remove(frame))
+            am.add(frame);
+    }
+
+    @Override
+    void restore(PageTable.Frame frame, int queue) {
+        (queue == AM ? am : a1in).add(frame);
+    }
+
+    @Override
+    void forget(PageTable.Frame frame) {
+        if (a1in.remove(frame)) {
+            a1out.add(frame.pid);
+            for (Iterator<PageId> it = a1out.iterator(); a1out.size() > kout(); ) {
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(frame);
+        }
+    }
+
+    @Override
+    int size() {
+        return a1in.size() + am.size() + heldFrames();
+    }
+
+    @Override
+    PageTable.Frame victim() {
+        PageTable.Frame frame = null;
+        if (a1in.size() > kin())
+            frame = first(a1in, A1IN);
+        if (frame == null)
+            frame = first(am, AM);
+        if (frame == null)
+            frame = first(a1in, A1IN);
+        return frame;
+    }
+
+    /**
+     * @return the first evictable frame of a queue, keeping the frames
+     * before it apart
+     */
+    private PageTable.Frame first(LinkedHashSet<PageTable.Frame> queue, int tag) {
+        for (Iterator<PageTable.Frame> it = queue.iterator(); it.hasNext(); ) {
+            PageTable.Frame frame = it.next();
+            if (evictable(frame))
+                return frame;
+            it.remove();
+            hold(frame, tag);
+        }
+        return null;
+    }
+}
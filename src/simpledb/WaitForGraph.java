@@ -1,7 +1,10 @@
 package simpledb;
 
+import simpledb.struct.PageId;
 import simpledb.utils.Digraph;
 
+import java.util.List;
+
 
 enum LockItemType {
     RESOURCE,
@@ -10,12 +13,14 @@ enum LockItemType {
 class LockItem {
     long id;
     LockItemType type;
-    String desc;
+    // the page or transaction itself, only turned into a string for
+    // printing the graph
+    Object owner;
 
-    LockItem(long id, LockItemType type, String desc) {
+    LockItem(long id, LockItemType type, Object owner) {
         this.id = id;
         this.type = type;
-        this.desc = desc;
+        this.owner = owner;
     }
 
     long getId() {
@@ -27,7 +32,7 @@ class LockItem {
     }
 
     String getDesc() {
-        return desc;
+        return String.valueOf(owner);
     }
 
     @Override
@@ -46,7 +51,7 @@ class LockItem {
 
     @Override
     public String toString() {
-        return desc;
+        return getDesc();
     }
 }
 
@@ -57,11 +62,35 @@ public class WaitForGraph {
         digraph = new Digraph<>();
     }
 
-    public void addEdge(LockItem from, LockItem to) {
+    public synchronized void addEdge(LockItem from, LockItem to) {
         digraph.addEdge(from ,to);
     }
 
-    public boolean haveEdge(LockItem from, LockItem to) {
+    /** Records that the transaction holds a lock on the page. */
+    public synchronized void addHolder(PageId pid, TransactionId tid) {
+        addEdge(new LockItem(pid.hashCode(), LockItemType.RESOURCE, pid),
+                new LockItem(tid.getId(), LockItemType.TRANSACTION, tid));
+    }
+
+    /**
+     * Records that the requester holds a lock on the resource, and drops
+     * the edge of its wait for the resource if it waited. A stale wait
+     * edge would close a cycle with the holder edge, and keep a later
+     * wait of the requester for the resource from being checked.
+     */
+    public synchronized void addGrant(LockItem resource, LockItem requester) {
+        if (haveEdge(requester, resource))
+            removeEdge(requester, resource);
+        addEdge(resource, requester);
+    }
+
+    /** Records that the transaction holds locks on the pages. */
+    public synchronized void addHolders(List<PageId> pids, TransactionId tid) {
+        for (PageId pid : pids)
+            addHolder(pid, tid);
+    }
+
+    public synchronized boolean haveEdge(LockItem from, LockItem to) {
         return digraph.haveEdge(from, to);
     }
 
@@ -80,12 +109,12 @@ public class WaitForGraph {
         digraph.removeEdge(from, to);
     }
 
-    public boolean haveCircle() {
+    public synchronized boolean haveCircle() {
         return digraph.hasCircle();
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return digraph.toString();
     }
 }
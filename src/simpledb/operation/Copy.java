@@ -0,0 +1,96 @@
+package simpledb.operation;
+
+import simpledb.*;
+import simpledb.struct.*;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Bulk loads the tuples of a delimited text file into the table specified
+ * in the constructor, as done by a COPY statement. The pages are written
+ * by a {@link BulkLoader} straight to the end of the table rather than
+ * through the BufferPool tuple by tuple as with Insert.
+ */
+public class Copy extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final File file;
+    private final int tableId;
+    private final char fieldSeparator;
+    private boolean loaded;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the load.
+     * @param file
+     *            The text file to load, one tuple per line.
+     * @param tableid
+     *            The table in which to load the tuples.
+     * @param fieldSeparator
+     *            The character between the fields of a line.
+     * @throws DbException
+     *             if the table is not a HeapFile.
+     */
+    public Copy(TransactionId t, File file, int tableid, char fieldSeparator)
+            throws DbException {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new DbException("only heap files can be bulk loaded");
+        this.tid = t;
+        this.file = file;
+        this.tableId = tableid;
+        this.fieldSeparator = fieldSeparator;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return new TupleDesc(new Type[]{Type.INT_TYPE});
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        loaded = false;
+    }
+
+    public void close() {
+        loaded = true;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        loaded = false;
+    }
+
+    /**
+     * Loads the file into the table specified by the constructor.
+     *
+     * @return A 1-field tuple containing the number of loaded records, or
+     *         null if called more than once.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (loaded)
+            return null;
+        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        long count;
+        try {
+            count = BulkLoader.forTable(table, fieldSeparator).load(tid, table, file);
+        } catch (IOException e) {
+            throw new DbException("cannot load " + file + ": " + e.getMessage());
+        }
+        loaded = true;
+        Tuple t = new Tuple(getTupleDesc());
+        t.setField(0, new IntField((int) count));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
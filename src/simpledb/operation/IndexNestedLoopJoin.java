@@ -0,0 +1,109 @@
+package simpledb.operation;
+
+import simpledb.*;
+import simpledb.struct.DbIterator;
+import simpledb.struct.Tuple;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is a nested loops join whose inner relation is read
+ * through an index on its join field: for every outer tuple, the
+ * {@link IndexScan} of the inner relation is probed with the value of the
+ * outer join field, so only the matching inner tuples are read instead of
+ * the whole inner relation.
+ * <p>
+ * The inner child is an IndexScan, possibly below operators with a single
+ * child such as Filters of the inner table. The index scan's operator must
+ * be the join operator with the sides swapped, as the indexed field is on
+ * the right of the join predicate and on the left of the index predicate.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private DbIterator outer;
+    private DbIterator inner;
+    private IndexScan probe;
+    private Tuple outerTuple;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, reading
+     *            it with an IndexScan on the join field
+     * @throws IllegalArgumentException if child2 has no such IndexScan
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        super(p, child1, child2);
+        this.pred = p;
+        this.outer = child1;
+        this.inner = child2;
+        this.probe = findProbe(child2);
+    }
+
+    private static IndexScan findProbe(DbIterator inner) {
+        while (inner instanceof Operator && ((Operator) inner).getChildren().length == 1)
+            inner = ((Operator) inner).getChildren()[0];
+        if (!(inner instanceof IndexScan))
+            throw new IllegalArgumentException("the inner relation of an index join must be read with an IndexScan");
+        return (IndexScan) inner;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outerTuple = null;
+        super.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        outerTuple = null;
+    }
+
+    /**
+     * Returns the next outer tuple joined with one of the inner tuples the
+     * index returns for it.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outerTuple != null && inner.hasNext()) {
+                Tuple t2 = inner.next();
+                if (pred.filter(outerTuple, t2))
+                    return merge(outerTuple, t2);
+                continue;
+            }
+            if (!outer.hasNext())
+                return null;
+            outerTuple = outer.next();
+            probe.probe(outerTuple.getField(pred.getField1()));
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        Tuple t = new Tuple(getTupleDesc());
+        int leftLen = left.getTupleDesc().numFields();
+        for (int i = 0; i < leftLen; ++i)
+            t.setField(i, left.getField(i));
+        for (int j = 0; j < right.getTupleDesc().numFields(); ++j)
+            t.setField(leftLen + j, right.getField(j));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{outer, inner};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+        inner = children[1];
+        probe = findProbe(inner);
+    }
+}
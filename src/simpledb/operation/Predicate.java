@@ -112,6 +112,23 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Two predicates are equal if they compare the same field number to
+     * equal operands with the same operator.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof Predicate))
+            return false;
+        Predicate p = (Predicate) o;
+        return field == p.field && op == p.op
+                && operand.getType() == p.operand.getType()
+                && operand.equals(p.operand);
+    }
+
+    public int hashCode() {
+        return (field * 31 + op.hashCode()) * 31 + operand.hashCode();
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -432,6 +434,61 @@ public class Parser {
 
     }
 
+    /**
+     * COPY table FROM 'file' [DELIMITER 'c'], which bulk loads a text file
+     * into a table. Zql does not know it, so it is matched before parsing.
+     */
+    static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*COPY\\s+(\\w+)\\s+FROM\\s+'([^']*)'(?:\\s+DELIMITER\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    public Query handleCopyStatement(Matcher s, TransactionId tId)
+            throws DbException, simpledb.ParsingException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(s.group(1));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + s.group(1));
+        }
+        char fieldSeparator = s.group(3) != null ? s.group(3).charAt(0) : ',';
+        Query copyQ = new Query(tId);
+        copyQ.setPhysicalPlan(new Copy(tId, new File(s.group(2)), tableId,
+                fieldSeparator));
+        return copyQ;
+    }
+
+    /**
+     * VACUUM table, which compacts a table online. Zql does not know it, so
+     * it is matched before parsing.
+     */
+    static final Pattern VACUUM_STATEMENT = Pattern.compile(
+            "\\s*VACUUM\\s+(\\w+)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Compacts the table of a VACUUM statement. The compaction runs short
+     * transactions of its own, so it cannot be part of a user transaction.
+     */
+    public void handleVacuumStatement(Matcher s) throws DbException,
+            IOException, simpledb.ParsingException {
+        if (inUserTrans)
+            throw new simpledb.ParsingException(
+                    "VACUUM cannot run inside a transaction");
+        DbFile table;
+        try {
+            table = Database.getCatalog().getDbFile(
+                    Database.getCatalog().getTableId(s.group(1)));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + s.group(1));
+        }
+        if (!(table instanceof HeapFile))
+            throw new simpledb.ParsingException("Only heap files can be vacuumed");
+        int reclaimed = ((HeapFile) table).compact();
+        System.out.println(reclaimed + " pages reclaimed from " + s.group(1));
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, ParseException {
@@ -508,11 +565,25 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            Matcher copy = COPY_STATEMENT.matcher(text.toString("UTF-8"));
+            boolean isCopy = copy.matches();
+            Matcher vacuum = VACUUM_STATEMENT.matcher(text.toString("UTF-8"));
+            boolean isVacuum = vacuum.matches();
+            ZStatement s = null;
+            if (!isCopy && !isVacuum) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.toByteArray()));
+                s = p.readStatement();
+            }
 
             Query query = null;
-            if (s instanceof ZTransactStmt)
+            if (isVacuum)
+                handleVacuumStatement(vacuum);
+            else if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
@@ -522,7 +593,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (isCopy)
+                        query = handleCopyStatement(copy, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -535,7 +608,7 @@ public class Parser {
                         System.out
                                 .println("Can't parse "
                                         + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                                        + "\n -- parser only handles SQL transactions, insert, delete, copy, vacuum and select statements");
                     }
                     if (query != null)
                         query.execute();
@@ -586,7 +659,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -603,6 +676,7 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        Database.getCatalog().clear();
         System.out.println("Bye");
     }
 
@@ -1,10 +1,13 @@
 package simpledb.query.optimizer;
 
 import simpledb.*;
+import simpledb.operation.Filter;
+import simpledb.operation.IndexNestedLoopJoin;
 import simpledb.operation.Join;
 import simpledb.operation.JoinPredicate;
 import simpledb.operation.Predicate;
 import simpledb.struct.DbIterator;
+import simpledb.struct.IndexFile;
 
 import java.util.*;
 
@@ -40,6 +43,12 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * If the optimizer chose to probe an index for lj (see
+     * {@link LogicalJoinNode#indexProbe}), plan2 scans a base table, possibly
+     * below filters, and the table has an index on its join field that
+     * supports the join operator, the join is an {@link IndexNestedLoopJoin}
+     * that reads the table through that index.
      * 
      * @param lj
      *            The join being considered
@@ -74,12 +83,61 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        DbIterator indexed = lj.indexProbe ? indexedInner(lj, plan2) : null;
+        if (indexed != null)
+            j = new IndexNestedLoopJoin(p, plan1, indexed);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Rewrites plan2 to read its table through an index on the join field of
+     * lj, if plan2 is a SeqScan of table lj.t2Alias, possibly below Filters,
+     * and the table has such an index.
+     *
+     * @return the rewritten plan, or null if the table cannot be probed
+     */
+    private static DbIterator indexedInner(LogicalJoinNode lj, DbIterator plan2) {
+        Filter parent = null;
+        DbIterator leaf = plan2;
+        while (leaf instanceof Filter) {
+            parent = (Filter) leaf;
+            leaf = parent.getChildren()[0];
+        }
+        if (leaf == null || leaf.getClass() != SeqScan.class)
+            return null;
+        SeqScan scan = (SeqScan) leaf;
+        if (!scan.getAlias().equals(lj.t2Alias))
+            return null;
+        // the indexed field is on the left of the index predicate
+        Predicate.Op op = lj.swapInnerOuter().p;
+        IndexFile index = probeIndex(scan.getTableId(), lj.f2PureName, op);
+        if (index == null)
+            return null;
+        IndexScan probe = new IndexScan(scan.getTransactionId(), index, op, null, scan.getAlias());
+        if (parent == null)
+            return probe;
+        parent.setChildren(new DbIterator[] {probe});
+        return plan2;
+    }
+
+    /**
+     * @return an index of the table on the named field that supports op, or
+     *         null if there is none
+     */
+    private static IndexFile probeIndex(int tableId, String field, Predicate.Op op) {
+        int f;
+        try {
+            f = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return Database.getCatalog().getIndex(tableId, f, op);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -108,19 +166,89 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * Estimate the cost of a join, like {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)}. If the right-hand side is the base table
+     * j.t2Alias and it has an index on its join field, the join may also be an
+     * {@link IndexNestedLoopJoin}, which costs one scan of the left-hand side
+     * and one index lookup per left-hand tuple; the cheaper of the two is
+     * returned. The join is planned as an index join exactly when
+     * {@link #probeIsCheaper} holds for the same arguments.
+     * 
+     * @param innerIsTable
+     *            true if the right-hand side is the base table j.t2Alias,
+     *            false if it is a subplan that joins it
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            return Math.min(cost1 + card1 * cost2 + card1 * card2,
+                    estimateIndexJoinCost(j, card1, card2, cost1, innerIsTable));
         }
     }
 
+    /**
+     * @return true if the join is estimated cheaper as an
+     *         {@link IndexNestedLoopJoin} than as a nested loop join, given
+     *         the arguments of {@link #estimateJoinCost(LogicalJoinNode, int,
+     *         int, double, double, boolean)}
+     */
+    private boolean probeIsCheaper(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return false;
+        return estimateIndexJoinCost(j, card1, card2, cost1, innerIsTable)
+                < cost1 + card1 * cost2 + card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a join as an {@link IndexNestedLoopJoin}: one scan
+     * of the left-hand side and one index lookup per left-hand tuple.
+     *
+     * @return the cost, or infinity if the right-hand side is not a table
+     *         with an index that can be probed
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, boolean innerIsTable) {
+        if (!innerIsTable)
+            return Double.POSITIVE_INFINITY;
+        double probeCost = estimateIndexProbeCost(j, card1, card2);
+        if (probeCost < 0)
+            return Double.POSITIVE_INFINITY;
+        return cost1 + card1 * probeCost;
+    }
+
+    /**
+     * Estimate the cost of looking up the right-hand tuples that join with one
+     * left-hand tuple through an index of table j.t2Alias.
+     *
+     * @return the cost of one lookup, including one predicate application per
+     *         tuple it returns, or -1 if the table has no usable index
+     */
+    private double estimateIndexProbeCost(LogicalJoinNode j, int card1, int card2) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null
+                || probeIndex(tableId, j.f2PureName, j.swapInnerOuter().p) == null)
+            return -1;
+        TableStats stats = TableStats.getTableStats(
+                Database.getCatalog().getTableName(tableId));
+        if (stats == null)
+            return -1;
+        int card = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, card1, card2,
+                isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName),
+                TableStats.getStatsMap(), p.getTableAliasToIdMapping());
+        double matches = card1 == 0 ? 0 : (double) card / card1;
+        return stats.estimateIndexProbeCost(matches) + matches;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -234,6 +362,10 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
+        // nothing to order; the plan cache has no entry for the empty set
+        if (joins.isEmpty())
+            return new Vector<LogicalJoinNode>(joins);
+
         PlanCache cache = new PlanCache();
         Set<LogicalJoinNode> hash = new HashSet<>(joins);
         Set<Set<LogicalJoinNode>> join = enumerateSubsets(joins,1);
@@ -324,6 +456,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // only a base table can be probed through its indexes
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -359,6 +493,7 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1IsTable = false;
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -375,6 +510,7 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2IsTable = false;
 
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
@@ -389,14 +525,16 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t2IsTable);
+        boolean probe = probeIsCheaper(j, t1card, t2card, t1cost, t2cost, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            probe = probeIsCheaper(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -410,7 +548,8 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        // j may be one of the joins of the query; plan the probe on a copy
+        cc.plan.addElement(probe ? j.withIndexProbe() : j); // prevbest is left -- add new join to end
         return cc;
     }
 
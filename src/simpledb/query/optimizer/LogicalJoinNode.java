@@ -25,6 +25,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the join probes an index of t2 for each tuple of t1, as chosen by the JoinOptimizer. */
+    public boolean indexProbe;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +67,13 @@ public class LogicalJoinNode {
         LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
         return j2;
     }
+
+    /** Return a copy of this join that probes an index of t2 for each tuple of t1. */
+    public LogicalJoinNode withIndexProbe() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.indexProbe = true;
+        return j2;
+    }
     
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
@@ -6,6 +6,7 @@ import simpledb.struct.*;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -275,8 +276,99 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Convert the constant of a filter into a Field of the type of the
+     *  filtered field.
+     */
+    private static Field getFilterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Pick the filter on a table that is cheapest to answer through an
+     *  index of the table. Filters on indexed fields whose operator the
+     *  index supports are candidates; one is only chosen if its estimated index scan cost
+     *  is below the cost of scanning the whole table.
+     *  @return the chosen filter, or null if the table should be scanned
+     */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, TableStats s)
+        throws ParsingException {
+        if (s == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        LogicalFilterNode best = null;
+        double bestCost = s.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            if (Database.getCatalog().getIndex(table.t, field, lf.p) == null)
+                continue;
+            double sel = s.estimateSelectivity(field, lf.p, getFilterConstant(lf, td.getFieldType(field)));
+            double cost = s.estimateIndexScanCost(sel);
+            if (cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /** Pick the filters on a table that are cheaper to answer together
+     *  through bitmap indexes than through the table or its chosen index.
+     *  Every filter on a field with a bitmap index is taken, as ANDing one
+     *  more bitmap only costs the pages of that bitmap and can only leave
+     *  fewer table pages to read.
+     *  @param indexFilter the filter chosen by chooseIndexFilter, or null
+     *  @return the chosen filters, or null if bitmap indexes should not be used
+     */
+    private ArrayList<LogicalFilterNode> chooseBitmapFilters(LogicalScanNode table, TableStats s,
+            LogicalFilterNode indexFilter) throws ParsingException {
+        if (s == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<LogicalFilterNode> chosen = new ArrayList<LogicalFilterNode>();
+        double sel = 1.0;
+        int bitmapPages = 0;
+        double bestCost = s.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            double fsel = s.estimateSelectivity(field, lf.p, getFilterConstant(lf, td.getFieldType(field)));
+            if (lf == indexFilter)
+                bestCost = Math.min(bestCost, s.estimateIndexScanCost(fsel));
+            BitmapIndexFile index = Database.getCatalog().getBitmapIndex(table.t, field);
+            if (index == null)
+                continue;
+            chosen.add(lf);
+            sel *= fsel;
+            // the directory and the share of the segments holding the bitmaps
+            // of the matching values
+            bitmapPages += 1 + (int) Math.ceil((index.numPages() - 1) * fsel);
+        }
+        if (chosen.isEmpty() || s.estimateBitmapScanCost(sel, bitmapPages) >= bestCost)
+            return null;
+        return chosen;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   A table with an index on a filtered field is read with an {@link IndexScan}
+     *   instead of a SeqScan when {@link TableStats} estimates that to be cheaper,
+     *   and one with bitmap indexes on filtered fields with a {@link BitmapScan}
+     *   that answers all of those filters when that is cheaper still.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -310,6 +402,32 @@ public class LogicalPlan {
 
         }
 
+        // answer the most selective indexed filter of each table from its
+        // index, or all filters on bitmap-indexed fields from their bitmaps,
+        // when that is cheaper than scanning the table
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+            LogicalFilterNode lf = chooseIndexFilter(table, s);
+            ArrayList<LogicalFilterNode> bitmapFilters = chooseBitmapFilters(table, s, lf);
+            if (bitmapFilters != null) {
+                ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+                for (LogicalFilterNode bf : bitmapFilters) {
+                    int field = td.fieldNameToIndex(bf.fieldPureName);
+                    predicates.add(new Predicate(field, bf.p, getFilterConstant(bf, td.getFieldType(field))));
+                }
+                subplanMap.put(table.alias, new BitmapScan(t, table.t, table.alias, predicates));
+                indexFilters.addAll(bitmapFilters);
+            } else if (lf != null) {
+                int field = td.fieldNameToIndex(lf.fieldPureName);
+                subplanMap.put(table.alias, new IndexScan(t,
+                        Database.getCatalog().getIndex(table.t, field, lf.p), lf.p,
+                        getFilterConstant(lf, td.getFieldType(field)), table.alias));
+                indexFilters.add(lf);
+            }
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -327,10 +445,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = getFilterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -338,7 +453,17 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the index or bitmap scan already applies its filters; a
+            // sequential scan takes the others to skip pages by zone map
+            // and Bloom filters
+            if (!indexFilters.contains(lf)) {
+                DbIterator leaf = subplan;
+                while (leaf instanceof Filter)
+                    leaf = ((Filter) leaf).getChildren()[0];
+                if (leaf.getClass() == SeqScan.class)
+                    ((SeqScan) leaf).addPredicate(p);
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -64,6 +64,8 @@ public class TableStats {
 
     private static Object[] histograms;
     private int scanCost;
+    private int ioCostPerPage;
+    private int pageNum;
     private int tupleNum = 0;
     private TupleDesc td;
 
@@ -110,8 +112,9 @@ public class TableStats {
 
         DbFile dbFile = Database.getCatalog().getDbFile(tableid);
         HeapFile heapFile = (HeapFile) dbFile;
-        int pageNum = heapFile.numPages();
+        this.pageNum = heapFile.numPages();
         this.scanCost = ioCostPerPage * pageNum;
+        this.ioCostPerPage = ioCostPerPage;
 
         this.td = heapFile.getTupleDesc();
         histograms = new Object[td.numFields()];
@@ -173,6 +176,61 @@ public class TableStats {
         return scanCost;
     }
 
+    /**
+     * Number of index pages an index lookup is assumed to read on its way
+     * from the root to the first leaf.
+     */
+    static final int INDEX_DESCENT_PAGES = 3;
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of
+     * the given selectivity through an index. The index is not clustered,
+     * so every matching tuple is assumed to cost a page read of its own.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicate answered by the index
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        return ioCostPerPage * (INDEX_DESCENT_PAGES + tupleNum * selectivityFactor);
+    }
+
+    /**
+     * Estimates the cost of one of many lookups in an index of this table,
+     * as done for every outer tuple of an index nested loops join. The
+     * pages above the leaves or buckets are read by every lookup and stay
+     * in the buffer pool, so a lookup costs one index page and a page per
+     * tuple it returns.
+     *
+     * @param matches
+     *            The estimated number of tuples the lookup returns
+     * @return The estimated cost of the lookup.
+     */
+    public double estimateIndexProbeCost(double matches) {
+        return ioCostPerPage * (1 + matches);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of
+     * the given combined selectivity through bitmap indexes. The bitmaps are
+     * read first and every table page with a matching tuple is then read
+     * once, so the cost is bounded by the pages of the table however many
+     * tuples match. The matching tuples are assumed to be spread over the
+     * table at random.
+     *
+     * @param selectivityFactor
+     *            The combined selectivity of the predicates
+     * @param bitmapPages
+     *            The number of bitmap index pages read for the predicates
+     * @return The estimated cost of the bitmap scan.
+     */
+    public double estimateBitmapScanCost(double selectivityFactor, int bitmapPages) {
+        double pages = 0;
+        if (pageNum > 0)
+            pages = pageNum * (1 - Math.pow(1 - 1.0 / pageNum, tupleNum * selectivityFactor));
+        return ioCostPerPage * (bitmapPages + pages);
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
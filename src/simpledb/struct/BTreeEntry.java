@@ -0,0 +1,116 @@
+package simpledb.struct;
+
+import simpledb.Type;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+
+/**
+ * BTreeEntry is one entry of a B+ tree index: a key value and the position,
+ * page number and slot, of the indexed tuple in its HeapFile.
+ * <p>
+ * Entries are ordered by key and then by position, so entries of equal keys
+ * are still distinct and every entry has one place in the tree. The same
+ * ordering is used for the separator keys of internal pages.
+ */
+public class BTreeEntry implements Comparable<BTreeEntry> {
+
+    private final Field key;
+    private final int pageNo;
+    private final int slot;
+
+    public BTreeEntry(Field key, int pageNo, int slot) {
+        this.key = key;
+        this.pageNo = pageNo;
+        this.slot = slot;
+    }
+
+    /**
+     * @return an entry that sorts before every real entry with this key.
+     */
+    public static BTreeEntry lowest(Field key) {
+        return new BTreeEntry(key, Integer.MIN_VALUE, Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return an entry that sorts after every real entry with this key.
+     */
+    public static BTreeEntry highest(Field key) {
+        return new BTreeEntry(key, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    public int getPageNo() {
+        return pageNo;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the record id of the indexed tuple in the given table.
+     */
+    public RecordId getRecordId(int tableId) {
+        return new RecordId(new HeapPageId(tableId, pageNo), slot);
+    }
+
+    /**
+     * Orders two fields of the same type.
+     */
+    public static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    public int compareTo(BTreeEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        if (pageNo != o.pageNo)
+            return pageNo < o.pageNo ? -1 : 1;
+        return slot < o.slot ? -1 : (slot == o.slot ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BTreeEntry && compareTo((BTreeEntry) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * key.hashCode() + pageNo) + slot;
+    }
+
+    /**
+     * @return the number of bytes an entry with a key of the given type
+     * takes on a page.
+     */
+    public static int size(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    void serialize(DataOutputStream dos) throws IOException {
+        key.serialize(dos);
+        dos.writeInt(pageNo);
+        dos.writeInt(slot);
+    }
+
+    static BTreeEntry parse(DataInputStream dis, Type keyType) throws IOException {
+        try {
+            Field key = keyType.parse(dis);
+            return new BTreeEntry(key, dis.readInt(), dis.readInt());
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key + "@" + pageNo + ":" + slot;
+    }
+}
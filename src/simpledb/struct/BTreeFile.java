@@ -0,0 +1,494 @@
+package simpledb.struct;
+
+import simpledb.*;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BTreeFile is a B+ tree index over one field of a HeapFile. Its entries
+ * are (key, record id) pairs, see {@link BTreeEntry}, kept in sorted order
+ * in leaf pages that are chained left to right; internal pages route
+ * lookups to the right leaf. Page 0 is a {@link BTreeRootPtrPage} that
+ * points at the root.
+ * <p>
+ * All pages are read and written through the BufferPool, so the tree is
+ * locked and recovered like any table: lookups hold read locks on the
+ * pages they visit, inserts and deletes write locks on the leaf and on
+ * the internal pages a split changes. Pages are allocated at the end of
+ * the file; pages that become under-full after deletes are not merged.
+ * <p>
+ * As an {@link IndexFile}, insertTuple and deleteTuple take a tuple of the
+ * indexed table and add or remove its entry, and the iterators return the
+ * entries themselves. It answers equality and range predicates.
+ *
+ * @see IndexScan
+ * @see Catalog#addIndex
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final Type keyType;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private final AtomicInteger pageCount = new AtomicInteger(0);
+    private transient FileChannel channel;
+
+    /**
+     * Opens the B+ tree stored in f, creating an empty one if f is empty.
+     *
+     * @param f the file that stores the index
+     * @param keyType the type of the indexed field
+     * @param tableId the id of the HeapFile that is indexed
+     * @param keyField the index of the indexed field in that table
+     */
+    public BTreeFile(File f, Type keyType, int tableId, int keyField) {
+        this.f = f;
+        this.keyType = keyType;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] {keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {"key", "pageno", "slot"});
+        pageCount.set((int) (f.length() / BufferPool.PAGE_SIZE));
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this BTreeFile, the hash code of
+     * its absolute file name like for HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return the id of the indexed table.
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the index of the indexed field in the table.
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the TupleDesc of the index entries returned by iterator.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int numPages() {
+        return pageCount.get();
+    }
+
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        return channel;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId bpid = (BTreePageId) pid;
+        long offset = (long) bpid.pageNumber() * BufferPool.PAGE_SIZE;
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            byte[] data = buf.array();
+            if (bpid.pageNumber() == 0) {
+                // the root pointer of a new file reads as an empty tree
+                if (BTreePage.pageType(data) != BTreePage.ROOT_PTR)
+                    data = BTreeRootPtrPage.createPageData(0);
+                return new BTreeRootPtrPage(bpid, data);
+            }
+            if (BTreePage.pageType(data) == BTreePage.INTERNAL)
+                return new BTreeInternalPage(bpid, data);
+            // pages past the end, or allocated by an aborted transaction,
+            // read as empty leaves
+            if (BTreePage.pageType(data) != BTreePage.LEAF)
+                data = BTreeLeafPage.createPageData(Collections.<BTreeEntry>emptyList(), 0);
+            return new BTreeLeafPage(bpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        long offset = (long) pgNo * BufferPool.PAGE_SIZE;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+        int count;
+        while ((count = pageCount.get()) <= pgNo)
+            pageCount.compareAndSet(count, pgNo + 1);
+    }
+
+    /**
+     * Appends a page with the given image to the file and fetches it for
+     * writing.
+     */
+    private BTreePage allocatePage(TransactionId tid, byte[] data)
+            throws IOException, TransactionAbortedException, DbException {
+        int pgNo;
+        synchronized (this) {
+            // page 0 is always the root pointer
+            pgNo = Math.max(pageCount.get(), 1);
+            writePageData(pgNo, data);
+        }
+        return (BTreePage) Database.getBufferPool().getPage(
+                tid, new BTreePageId(getId(), pgNo), Permissions.READ_WRITE);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(
+                tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    private BTreeEntry entryFor(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        return new BTreeEntry(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Walks from the root to the leaf whose range contains e, read locking
+     * the internal pages and locking the leaf with perm.
+     *
+     * @param path if not null, receives the page numbers of the internal
+     *             pages on the way, root first
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, BTreeEntry e, Permissions perm,
+                                   List<Integer> path)
+            throws TransactionAbortedException, DbException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int pgNo = rootPtr.getRoot();
+        if (pgNo == 0)
+            return null;
+        while (true) {
+            BTreePage page = getPage(tid, pgNo, Permissions.READ_ONLY);
+            if (page instanceof BTreeLeafPage) {
+                if (perm == Permissions.READ_WRITE)
+                    page = getPage(tid, pgNo, perm);
+                return (BTreeLeafPage) page;
+            }
+            if (path != null)
+                path.add(pgNo);
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            pgNo = e == null ? internal.firstChild() : internal.childFor(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = entryFor(t);
+        ArrayList<Page> dirtied = new ArrayList<>();
+        ArrayList<Integer> path = new ArrayList<>();
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE, path);
+        if (leaf == null) {
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_WRITE);
+            if (rootPtr.getRoot() == 0) {
+                // dirty before allocating, so the pool cannot evict it meanwhile
+                markDirty(rootPtr, tid, dirtied);
+                leaf = (BTreeLeafPage) allocatePage(tid,
+                        BTreeLeafPage.createPageData(Collections.<BTreeEntry>emptyList(), 0));
+                rootPtr.setRoot(leaf.getId().pageNumber());
+            } else {
+                leaf = findLeaf(tid, e, Permissions.READ_WRITE, path);
+            }
+        }
+        leaf.insert(e);
+        markDirty(leaf, tid, dirtied);
+        if (leaf.isOverfull()) {
+            BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid,
+                    BTreeLeafPage.createPageData(Collections.<BTreeEntry>emptyList(), 0));
+            leaf.splitInto(right);
+            markDirty(right, tid, dirtied);
+            insertIntoParent(tid, path, leaf.getId().pageNumber(),
+                    right.entries().get(0), right.getId().pageNumber(), dirtied);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Adds separator key between the split page left and its new right
+     * sibling to the parent at the end of path, splitting the parent in
+     * turn if it overflows.
+     */
+    private void insertIntoParent(TransactionId tid, List<Integer> path, int left,
+                                  BTreeEntry key, int right, List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid,
+                    BTreeInternalPage.createPageData(Collections.<BTreeEntry>emptyList(),
+                            Collections.singletonList(0)));
+            root.initRoot(left, key, right);
+            markDirty(root, tid, dirtied);
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_WRITE);
+            rootPtr.setRoot(root.getId().pageNumber());
+            markDirty(rootPtr, tid, dirtied);
+            return;
+        }
+        int parentNo = path.remove(path.size() - 1);
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, parentNo, Permissions.READ_WRITE);
+        parent.insertAfter(left, key, right);
+        markDirty(parent, tid, dirtied);
+        if (parent.isOverfull()) {
+            BTreeInternalPage sibling = (BTreeInternalPage) allocatePage(tid,
+                    BTreeInternalPage.createPageData(Collections.<BTreeEntry>emptyList(),
+                            Collections.singletonList(0)));
+            BTreeEntry up = parent.splitInto(sibling);
+            markDirty(sibling, tid, dirtied);
+            insertIntoParent(tid, path, parentNo, up, sibling.getId().pageNumber(), dirtied);
+        }
+    }
+
+    private static void markDirty(BTreePage page, TransactionId tid, List<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BTreeEntry e = entryFor(t);
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE, null);
+        if (leaf == null || !leaf.delete(e))
+            throw new DbException("tuple is not in this index");
+        leaf.markDirty(true, tid);
+        return leaf;
+    }
+
+    /**
+     * Returns an iterator over all entries of the index in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * Returns an iterator over the entries whose key k satisfies
+     * <tt>k op key</tt>, in key order. Range and equality operators only
+     * visit the leaves that can hold matching entries.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new BTreeFileIterator(tid, op, key);
+    }
+
+    private class BTreeFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private List<BTreeEntry> entries;
+        private int pos;
+        private int nextLeaf;
+        private Tuple next;
+        private boolean done;
+
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            next = null;
+            done = false;
+            BTreeEntry start = null;
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                start = BTreeEntry.lowest(key);
+            else if (op == Predicate.Op.GREATER_THAN)
+                start = BTreeEntry.highest(key);
+            BTreeLeafPage leaf = findLeaf(tid, start, Permissions.READ_ONLY, null);
+            if (leaf == null) {
+                done = true;
+                return;
+            }
+            setLeaf(leaf);
+            if (start != null)
+                pos = leaf.lowerBound(start);
+        }
+
+        private void setLeaf(BTreeLeafPage leaf) {
+            // copy, so that deletes through this transaction do not shift
+            // the entries under the iterator
+            entries = new ArrayList<>(leaf.entries());
+            nextLeaf = leaf.getNextLeaf();
+            pos = 0;
+        }
+
+        /**
+         * @return true if no entry after e can satisfy the predicate.
+         */
+        private boolean pastEnd(BTreeEntry e) {
+            if (op == null)
+                return false;
+            int c = BTreeEntry.compareKeys(e.getKey(), key);
+            switch (op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return c > 0;
+            case LESS_THAN:
+                return c >= 0;
+            default:
+                return false;
+            }
+        }
+
+        private Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (!done) {
+                if (pos >= entries.size()) {
+                    if (nextLeaf == 0) {
+                        done = true;
+                        break;
+                    }
+                    setLeaf((BTreeLeafPage) getPage(tid, nextLeaf, Permissions.READ_ONLY));
+                    continue;
+                }
+                BTreeEntry e = entries.get(pos++);
+                if (pastEnd(e)) {
+                    done = true;
+                    break;
+                }
+                if (op == null || e.getKey().compare(op, key)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, e.getKey());
+                    t.setField(1, new IntField(e.getPageNo()));
+                    t.setField(2, new IntField(e.getSlot()));
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null && entries != null)
+                next = fetchNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the current contents of table, which is read
+     * directly from disk. The entries are sorted and written bottom up into
+     * full leaves and internal pages, bypassing the BufferPool, so this is
+     * meant for opening a database, before any transaction runs.
+     */
+    public synchronized void rebuild(HeapFile table) throws IOException {
+        ArrayList<BTreeEntry> all = new ArrayList<>();
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                all.add(new BTreeEntry(t.getField(keyField), i, t.getRecordId().tupleno()));
+            }
+        }
+        Collections.sort(all);
+
+        getChannel().truncate(0);
+        pageCount.set(1);
+        int root = 0;
+        if (!all.isEmpty()) {
+            // each level is a list of (page number, lowest entry) pairs
+            ArrayList<Integer> level = new ArrayList<>();
+            ArrayList<BTreeEntry> lows = new ArrayList<>();
+            int cap = BTreeLeafPage.capacity(keyType);
+            int first = pageCount.get();
+            int nleaves = (all.size() + cap - 1) / cap;
+            for (int i = 0; i < nleaves; i++) {
+                List<BTreeEntry> chunk = all.subList(i * cap, Math.min(all.size(), (i + 1) * cap));
+                int next = i + 1 < nleaves ? first + i + 1 : 0;
+                writePageData(first + i, BTreeLeafPage.createPageData(chunk, next));
+                level.add(first + i);
+                lows.add(chunk.get(0));
+            }
+            int fanout = BTreeInternalPage.capacity(keyType) + 1;
+            while (level.size() > 1) {
+                ArrayList<Integer> upper = new ArrayList<>();
+                ArrayList<BTreeEntry> upperLows = new ArrayList<>();
+                for (int i = 0; i < level.size(); i += fanout) {
+                    int end = Math.min(level.size(), i + fanout);
+                    int pgNo = pageCount.get();
+                    writePageData(pgNo, BTreeInternalPage.createPageData(
+                            lows.subList(i + 1, end), level.subList(i, end)));
+                    upper.add(pgNo);
+                    upperLows.add(lows.get(i));
+                }
+                level = upper;
+                lows = upperLows;
+            }
+            root = level.get(0);
+        }
+        writePageData(0, BTreeRootPtrPage.createPageData(root));
+    }
+}
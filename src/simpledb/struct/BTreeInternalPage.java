@@ -0,0 +1,133 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+import simpledb.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage is an inner node of a BTreeFile: n separator entries
+ * and n + 1 child page numbers. Child i holds the entries e with
+ * key(i-1) &lt;= e &lt; key(i).
+ * <p>
+ * The page image is the page type byte, an int separator count, the first
+ * child page number and then each separator followed by the child to its
+ * right.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    static final int HEADER_SIZE = 9;
+
+    private ArrayList<BTreeEntry> keys = new ArrayList<>();
+    private ArrayList<Integer> children = new ArrayList<>();
+
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        int n = dis.readInt();
+        children.add(dis.readInt());
+        for (int i = 0; i < n; i++) {
+            keys.add(BTreeEntry.parse(dis, keyType));
+            children.add(dis.readInt());
+        }
+    }
+
+    /**
+     * @return the number of separators an internal page holds for the
+     * given key type.
+     */
+    public static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (BTreeEntry.size(keyType) + 4);
+    }
+
+    /**
+     * @return the page image of an internal page with the given separators
+     * and one more child than separators.
+     */
+    public static byte[] createPageData(List<BTreeEntry> keys, List<Integer> children) {
+        return createPageData(INTERNAL, "separators", dos -> {
+            dos.writeInt(keys.size());
+            dos.writeInt(children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(children.get(i + 1));
+            }
+        });
+    }
+
+    public byte[] getPageData() {
+        return createPageData(keys, children);
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the page number of the child whose range contains e.
+     */
+    public int childFor(BTreeEntry e) {
+        int lo = 0, hi = keys.size();
+        // count the separators that are <= e
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return children.get(lo);
+    }
+
+    public int firstChild() {
+        return children.get(0);
+    }
+
+    /**
+     * Adds separator key with child right directly after child left. The
+     * page may overflow its capacity until BTreeFile splits it.
+     */
+    void insertAfter(int left, BTreeEntry key, int right) {
+        int i = children.indexOf(left);
+        if (i < 0)
+            throw new IllegalStateException("page " + left + " is not a child of " + pid);
+        keys.add(i, key);
+        children.add(i + 1, right);
+    }
+
+    boolean isOverfull() {
+        return keys.size() > capacity(keyType);
+    }
+
+    /**
+     * Moves the upper half of the separators and children into right.
+     *
+     * @return the middle separator, which moves up to the parent.
+     */
+    BTreeEntry splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        BTreeEntry up = keys.get(mid);
+        right.keys = new ArrayList<>(keys.subList(mid + 1, keys.size()));
+        right.children = new ArrayList<>(children.subList(mid + 1, children.size()));
+        keys = new ArrayList<>(keys.subList(0, mid));
+        children = new ArrayList<>(children.subList(0, mid + 1));
+        return up;
+    }
+
+    /**
+     * Makes this page a root with the two given children.
+     */
+    void initRoot(int left, BTreeEntry key, int right) {
+        keys.clear();
+        children.clear();
+        children.add(left);
+        keys.add(key);
+        children.add(right);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+import simpledb.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds the entries of a BTreeFile in sorted order, together
+ * with the page number of the next leaf so that range scans can walk the
+ * leaves from left to right.
+ * <p>
+ * The page image is the page type byte, an int entry count, an int next
+ * leaf page number (0 for the last leaf) and the entries, each the
+ * serialized key followed by the page number and slot of the tuple.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    static final int HEADER_SIZE = 9;
+
+    private ArrayList<BTreeEntry> entries = new ArrayList<>();
+    private int nextLeaf;
+
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        int n = dis.readInt();
+        nextLeaf = dis.readInt();
+        for (int i = 0; i < n; i++)
+            entries.add(BTreeEntry.parse(dis, keyType));
+    }
+
+    /**
+     * @return the number of entries a leaf holds for the given key type.
+     */
+    public static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / BTreeEntry.size(keyType);
+    }
+
+    /**
+     * @return the page image of a leaf holding the given sorted entries.
+     */
+    public static byte[] createPageData(List<BTreeEntry> entries, int nextLeaf) {
+        return createPageData(LEAF, "entries", dos -> {
+            dos.writeInt(entries.size());
+            dos.writeInt(nextLeaf);
+            for (BTreeEntry e : entries)
+                e.serialize(dos);
+        });
+    }
+
+    public byte[] getPageData() {
+        return createPageData(entries, nextLeaf);
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the entries of this leaf in order. The list is the page's
+     * own; callers that modify the page while iterating must copy it.
+     */
+    public List<BTreeEntry> entries() {
+        return entries;
+    }
+
+    public int getNextLeaf() {
+        return nextLeaf;
+    }
+
+    void setNextLeaf(int nextLeaf) {
+        this.nextLeaf = nextLeaf;
+    }
+
+    /**
+     * @return the position of the first entry that is not smaller than e.
+     */
+    public int lowerBound(BTreeEntry e) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(e) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Adds e at its place in the sort order. The page may overflow its
+     * capacity until BTreeFile splits it.
+     */
+    void insert(BTreeEntry e) {
+        entries.add(lowerBound(e), e);
+    }
+
+    /**
+     * @return true if e was on this page and has been removed.
+     */
+    boolean delete(BTreeEntry e) {
+        int i = lowerBound(e);
+        if (i < entries.size() && entries.get(i).equals(e)) {
+            entries.remove(i);
+            return true;
+        }
+        return false;
+    }
+
+    boolean isOverfull() {
+        return entries.size() > capacity(keyType);
+    }
+
+    /**
+     * Moves the upper half of the entries into right, which becomes the
+     * next leaf after this one.
+     */
+    void splitInto(BTreeLeafPage right) {
+        int mid = entries.size() / 2;
+        right.entries = new ArrayList<>(entries.subList(mid, entries.size()));
+        entries = new ArrayList<>(entries.subList(0, mid));
+        right.nextLeaf = nextLeaf;
+        nextLeaf = right.getId().pageNumber();
+    }
+}
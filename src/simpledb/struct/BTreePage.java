@@ -0,0 +1,19 @@
+package simpledb.struct;
+
+/**
+ * BTreePage is the base of the page types of a BTreeFile. The first byte
+ * of every page image is the page type, one of {@link #ROOT_PTR},
+ * {@link #INTERNAL} or {@link #LEAF}.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage extends IndexPage<BTreePageId> {
+
+    public static final byte ROOT_PTR = 1;
+    public static final byte INTERNAL = 2;
+    public static final byte LEAF = 3;
+
+    BTreePage(BTreePageId id) {
+        super(id);
+    }
+}
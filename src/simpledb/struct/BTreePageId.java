@@ -0,0 +1,21 @@
+package simpledb.struct;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId extends IndexPageId {
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree index.
+     *
+     * @param tableId The id of the BTreeFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        super(tableId, pgNo);
+    }
+
+    @Override
+    String kind() {
+        return "btree";
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.struct;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It records the page
+ * number of the root of the tree, or 0 while the tree is empty, so that a
+ * root split only has to update this page.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        root = dis.readInt();
+    }
+
+    /**
+     * @return the page image of a root pointer page pointing at root.
+     */
+    public static byte[] createPageData(int root) {
+        return createPageData(ROOT_PTR, "root", dos -> dos.writeInt(root));
+    }
+
+    /**
+     * @return the page number of the root, or 0 if the tree is empty.
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    public byte[] getPageData() {
+        return createPageData(root);
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+}
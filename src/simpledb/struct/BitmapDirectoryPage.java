@@ -0,0 +1,124 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+import simpledb.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapDirectoryPage lists distinct values of the indexed field of a
+ * BitmapIndexFile, each with the page number of the first
+ * {@link BitmapSegmentPage} of its bitmap. The directory starts on page 0
+ * and goes on in a chain of further directory pages once a page is full;
+ * as every lookup reads the whole directory, a bitmap index only suits
+ * fields with few distinct values.
+ * <p>
+ * The page image is the page type byte, the int page number of the next
+ * directory page (0 for the last one), an int value count and the values,
+ * each followed by its first segment page number.
+ */
+public class BitmapDirectoryPage extends BitmapPage {
+
+    static final int HEADER_SIZE = 9;
+
+    private ArrayList<Field> values = new ArrayList<>();
+    private ArrayList<Integer> firsts = new ArrayList<>();
+    private int next;
+
+    public BitmapDirectoryPage(BitmapPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        next = dis.readInt();
+        int n = dis.readInt();
+        try {
+            for (int i = 0; i < n; i++) {
+                values.add(keyType.parse(dis));
+                firsts.add(dis.readInt());
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+    }
+
+    /**
+     * @return the number of distinct values a directory page holds for the
+     * given key type.
+     */
+    public static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (keyType.getLen() + 4);
+    }
+
+    /**
+     * @return the page image of a directory page with the given values and
+     * first segment page numbers.
+     */
+    public static byte[] createPageData(List<Field> values, List<Integer> firsts, int next) {
+        return createPageData(DIRECTORY, "values", dos -> {
+            dos.writeInt(next);
+            dos.writeInt(values.size());
+            for (int i = 0; i < values.size(); i++) {
+                values.get(i).serialize(dos);
+                dos.writeInt(firsts.get(i));
+            }
+        });
+    }
+
+    public byte[] getPageData() {
+        return createPageData(values, firsts, next);
+    }
+
+    public BitmapDirectoryPage getBeforeImage() {
+        try {
+            return new BitmapDirectoryPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the page number of the next directory page, or 0.
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the distinct values on this page; must not be modified.
+     */
+    public List<Field> values() {
+        return values;
+    }
+
+    /**
+     * @return the first segment page of the i-th value.
+     */
+    public int firstSegment(int i) {
+        return firsts.get(i);
+    }
+
+    /**
+     * @return the position of value in values(), or -1.
+     */
+    public int indexOf(Field value) {
+        for (int i = 0; i < values.size(); i++) {
+            if (BTreeEntry.compareKeys(values.get(i), value) == 0)
+                return i;
+        }
+        return -1;
+    }
+
+    boolean isFull() {
+        return values.size() >= capacity(keyType);
+    }
+
+    void add(Field value, int first) {
+        values.add(value);
+        firsts.add(first);
+    }
+}
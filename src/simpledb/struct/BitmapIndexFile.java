@@ -0,0 +1,494 @@
+package simpledb.struct;
+
+import simpledb.*;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BitmapIndexFile is a bitmap index over one field of a HeapFile with few
+ * distinct values, such as a status code or a category. For every distinct
+ * value it keeps a compressed bitmap of the record ids of the tuples with
+ * that value, stored as a chain of {@link BitmapSegmentPage}s; the values
+ * and their chains are listed in a chain of {@link BitmapDirectoryPage}s
+ * starting on page 0.
+ * <p>
+ * Any predicate on the field is answered by {@link #lookup}, which ORs the
+ * bitmaps of the values that satisfy it into a {@link RecordBitmap}; the
+ * bitmaps of predicates on several fields are ANDed by a
+ * {@link simpledb.BitmapScan}, which then reads only the table pages with
+ * qualifying tuples.
+ * <p>
+ * All pages are read and written through the BufferPool. Lookups read
+ * lock the directory and the segments they read; inserts and deletes
+ * write lock the segment they change, and, when they add a value, the
+ * first and the last directory page.
+ *
+ * @see IndexFile
+ * @see Catalog#addIndex
+ */
+public class BitmapIndexFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final Type keyType;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private final AtomicInteger pageCount = new AtomicInteger(0);
+    private transient FileChannel channel;
+
+    /**
+     * Opens the bitmap index stored in f, creating an empty one if f is
+     * empty.
+     *
+     * @param f the file that stores the index
+     * @param keyType the type of the indexed field
+     * @param tableId the id of the HeapFile that is indexed
+     * @param keyField the index of the indexed field in that table
+     */
+    public BitmapIndexFile(File f, Type keyType, int tableId, int keyField) {
+        this.f = f;
+        this.keyType = keyType;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] {keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {"key", "pageno", "slot"});
+        pageCount.set((int) (f.length() / BufferPool.PAGE_SIZE));
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this file, the hash code of its
+     * absolute file name like for HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int numPages() {
+        return pageCount.get();
+    }
+
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        return channel;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BitmapPageId bpid = (BitmapPageId) pid;
+        long offset = (long) bpid.pageNumber() * BufferPool.PAGE_SIZE;
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            byte[] data = buf.array();
+            if (BitmapPage.pageType(data) == BitmapPage.DIRECTORY)
+                return new BitmapDirectoryPage(bpid, data);
+            // the directory of a new file reads as an empty index
+            if (bpid.pageNumber() == 0)
+                return new BitmapDirectoryPage(bpid, emptyDirectory());
+            // pages past the end, or allocated by an aborted transaction,
+            // read as empty segments
+            if (BitmapPage.pageType(data) != BitmapPage.SEGMENT)
+                data = BitmapSegmentPage.createPageData(new TreeMap<Integer, BitSet>(), 0);
+            return new BitmapSegmentPage(bpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        long offset = (long) pgNo * BufferPool.PAGE_SIZE;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+        int count;
+        while ((count = pageCount.get()) <= pgNo)
+            pageCount.compareAndSet(count, pgNo + 1);
+    }
+
+    private static byte[] emptyDirectory() {
+        return BitmapDirectoryPage.createPageData(Collections.<Field>emptyList(),
+                Collections.<Integer>emptyList(), 0);
+    }
+
+    /**
+     * Appends a page with the given image to the file and fetches it for
+     * writing.
+     */
+    private BitmapPage allocatePage(TransactionId tid, byte[] data)
+            throws IOException, TransactionAbortedException, DbException {
+        int pgNo;
+        synchronized (this) {
+            // page 0 is always the directory
+            pgNo = Math.max(pageCount.get(), 1);
+            writePageData(pgNo, data);
+        }
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Appends an empty segment page to the file and fetches it for writing.
+     */
+    private BitmapSegmentPage allocateSegment(TransactionId tid)
+            throws IOException, TransactionAbortedException, DbException {
+        return (BitmapSegmentPage) allocatePage(tid,
+                BitmapSegmentPage.createPageData(new TreeMap<Integer, BitSet>(), 0));
+    }
+
+    /**
+     * Reads the pages of the directory in chain order, read locking them.
+     */
+    private ArrayList<BitmapDirectoryPage> directory(TransactionId tid)
+            throws TransactionAbortedException, DbException {
+        ArrayList<BitmapDirectoryPage> chain = new ArrayList<>();
+        int pgNo = 0;
+        do {
+            BitmapDirectoryPage dir = (BitmapDirectoryPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+            chain.add(dir);
+            pgNo = dir.getNext();
+        } while (pgNo != 0);
+        return chain;
+    }
+
+    /**
+     * @return the first segment page of the bitmap of value, or 0 if the
+     * directory does not list the value.
+     */
+    private static int firstSegment(List<BitmapDirectoryPage> directory, Field value) {
+        for (BitmapDirectoryPage dir : directory) {
+            int i = dir.indexOf(value);
+            if (i >= 0)
+                return dir.firstSegment(i);
+        }
+        return 0;
+    }
+
+    private BitmapPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BitmapPage) Database.getBufferPool().getPage(
+                tid, new BitmapPageId(getId(), pgNo), perm);
+    }
+
+    private RecordId recordIdOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        return rid;
+    }
+
+    /**
+     * Finds the segment of the chain starting at first that covers the
+     * given table page, read locking the segments on the way and locking
+     * that one with perm.
+     */
+    private BitmapSegmentPage findSegment(TransactionId tid, int first, int pageNo,
+                                          Permissions perm)
+            throws TransactionAbortedException, DbException {
+        int target = first;
+        for (int pgNo = first; pgNo != 0; ) {
+            BitmapSegmentPage segment = (BitmapSegmentPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+            if (segment.firstPage() > pageNo)
+                break;
+            if (segment.firstPage() != -1)
+                target = pgNo;
+            pgNo = segment.getNext();
+        }
+        return (BitmapSegmentPage) getPage(tid, target, perm);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = recordIdOf(t);
+        Field value = t.getField(keyField);
+        ArrayList<Page> dirtied = new ArrayList<>();
+        int first = firstSegment(directory(tid), value);
+        if (first == 0) {
+            // values are added by one transaction at a time, which holds
+            // the first directory page
+            BitmapDirectoryPage head = (BitmapDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+            ArrayList<BitmapDirectoryPage> directory = directory(tid);
+            first = firstSegment(directory, value);
+            if (first == 0) {
+                int lastNo = directory.get(directory.size() - 1).getId().pageNumber();
+                BitmapDirectoryPage dir = (BitmapDirectoryPage) getPage(tid, lastNo, Permissions.READ_WRITE);
+                // dirty before allocating, so the pool cannot evict it meanwhile
+                dir.markDirty(true, tid);
+                dirtied.add(dir);
+                if (dir.isFull()) {
+                    BitmapDirectoryPage added = (BitmapDirectoryPage) allocatePage(tid, emptyDirectory());
+                    dir.setNext(added.getId().pageNumber());
+                    added.markDirty(true, tid);
+                    dirtied.add(added);
+                    dir = added;
+                }
+                BitmapSegmentPage segment = allocateSegment(tid);
+                dir.add(value, segment.getId().pageNumber());
+                first = segment.getId().pageNumber();
+            }
+            if (!dirtied.contains(head))
+                Database.getBufferPool().unpinPage(tid, head.getId());
+        }
+        BitmapSegmentPage segment = findSegment(tid, first,
+                rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        segment.set(rid.getPageId().pageNumber(), rid.tupleno());
+        segment.markDirty(true, tid);
+        dirtied.add(segment);
+        if (segment.isOverfull()) {
+            BitmapSegmentPage right = allocateSegment(tid);
+            segment.splitInto(right);
+            right.markDirty(true, tid);
+            dirtied.add(right);
+        }
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = recordIdOf(t);
+        int first = firstSegment(directory(tid), t.getField(keyField));
+        if (first != 0) {
+            BitmapSegmentPage segment = findSegment(tid, first,
+                    rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+            if (segment.clear(rid.getPageId().pageNumber(), rid.tupleno())) {
+                segment.markDirty(true, tid);
+                return segment;
+            }
+        }
+        throw new DbException("tuple is not in this index");
+    }
+
+    /**
+     * Returns the record ids of the tuples whose indexed field f satisfies
+     * <tt>f op key</tt>: the OR of the bitmaps of the distinct values that
+     * satisfy it.
+     */
+    public RecordBitmap lookup(TransactionId tid, Predicate.Op op, Field key)
+            throws DbException, TransactionAbortedException {
+        RecordBitmap bitmap = new RecordBitmap();
+        for (BitmapDirectoryPage dir : directory(tid)) {
+            for (int i = 0; i < dir.values().size(); i++) {
+                if (!dir.values().get(i).compare(op, key))
+                    continue;
+                for (int pgNo = dir.firstSegment(i); pgNo != 0; ) {
+                    BitmapSegmentPage segment = (BitmapSegmentPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+                    segment.addTo(bitmap);
+                    pgNo = segment.getNext();
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the number of distinct values in the index.
+     */
+    public int numValues(TransactionId tid) throws DbException, TransactionAbortedException {
+        int n = 0;
+        for (BitmapDirectoryPage dir : directory(tid))
+            n += dir.values().size();
+        return n;
+    }
+
+    /**
+     * Returns an iterator over all entries of the index, value by value.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BitmapFileIterator(tid, null, null);
+    }
+
+    /**
+     * Every operator is supported, as the predicate is simply applied to
+     * each distinct value.
+     */
+    public boolean supports(Predicate.Op op) {
+        return true;
+    }
+
+    /**
+     * Returns an iterator over the entries whose key k satisfies
+     * <tt>k op key</tt>, value by value and in record id order for each
+     * value.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new BitmapFileIterator(tid, op, key);
+    }
+
+    private class BitmapFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private Iterator<Tuple> entries;
+
+        BitmapFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            // low cardinality bitmaps are small, so the entries are simply
+            // gathered up front
+            ArrayList<Tuple> all = new ArrayList<>();
+            ArrayList<Field> values = new ArrayList<>();
+            for (BitmapDirectoryPage dir : directory(tid))
+                values.addAll(dir.values());
+            for (Field value : values) {
+                if (op != null && !value.compare(op, key))
+                    continue;
+                RecordBitmap bitmap = lookup(tid, Predicate.Op.EQUALS, value);
+                for (int pageNo : bitmap.pages()) {
+                    BitSet slots = bitmap.slots(pageNo);
+                    for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, value);
+                        t.setField(1, new IntField(pageNo));
+                        t.setField(2, new IntField(slot));
+                        all.add(t);
+                    }
+                }
+            }
+            entries = all.iterator();
+        }
+
+        public boolean hasNext() {
+            return entries != null && entries.hasNext();
+        }
+
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return entries.next();
+        }
+
+        public void close() {
+            entries = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the current contents of table, which is read
+     * directly from disk. The bitmaps are packed into as few segments as
+     * they fit in and written bypassing the BufferPool, so this is meant for
+     * opening a database, before any transaction runs.
+     */
+    public synchronized void rebuild(HeapFile table) throws IOException {
+        ArrayList<Field> values = new ArrayList<>();
+        ArrayList<TreeMap<Integer, BitSet>> bitmaps = new ArrayList<>();
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int v = values.indexOf(t.getField(keyField));
+                if (v < 0) {
+                    values.add(t.getField(keyField));
+                    bitmaps.add(new TreeMap<Integer, BitSet>());
+                    v = values.size() - 1;
+                }
+                BitSet slots = bitmaps.get(v).get(i);
+                if (slots == null) {
+                    slots = new BitSet();
+                    bitmaps.get(v).put(i, slots);
+                }
+                slots.set(t.getRecordId().tupleno());
+            }
+        }
+
+        getChannel().truncate(0);
+        pageCount.set(1);
+        ArrayList<Integer> firsts = new ArrayList<>();
+        for (TreeMap<Integer, BitSet> bitmap : bitmaps) {
+            // cut the bitmap into segments that fill a page each
+            ArrayList<TreeMap<Integer, BitSet>> segments = new ArrayList<>();
+            TreeMap<Integer, BitSet> current = new TreeMap<>();
+            int size = BitmapSegmentPage.HEADER_SIZE;
+            for (Map.Entry<Integer, BitSet> e : bitmap.entrySet()) {
+                int entrySize = BitmapSegmentPage.size(e.getValue());
+                if (size + entrySize > BufferPool.PAGE_SIZE) {
+                    segments.add(current);
+                    current = new TreeMap<>();
+                    size = BitmapSegmentPage.HEADER_SIZE;
+                }
+                current.put(e.getKey(), e.getValue());
+                size += entrySize;
+            }
+            segments.add(current);
+            int first = pageCount.get();
+            firsts.add(first);
+            for (int s = 0; s < segments.size(); s++) {
+                int next = s + 1 < segments.size() ? first + s + 1 : 0;
+                writePageData(first + s, BitmapSegmentPage.createPageData(segments.get(s), next));
+            }
+        }
+        // the directory pages after the first go after the segments
+        int capacity = BitmapDirectoryPage.capacity(keyType);
+        int dirPages = Math.max(1, (values.size() + capacity - 1) / capacity);
+        int extra = pageCount.get();
+        for (int d = 0; d < dirPages; d++) {
+            int from = d * capacity;
+            int to = Math.min(values.size(), from + capacity);
+            int pgNo = d == 0 ? 0 : extra + d - 1;
+            int next = d + 1 < dirPages ? extra + d : 0;
+            writePageData(pgNo, BitmapDirectoryPage.createPageData(values.subList(from, to),
+                    firsts.subList(from, to), next));
+        }
+    }
+}
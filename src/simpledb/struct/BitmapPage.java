@@ -0,0 +1,18 @@
+package simpledb.struct;
+
+/**
+ * BitmapPage is the base of the page types of a BitmapIndexFile. The
+ * first byte of every page image is the page type, {@link #DIRECTORY} or
+ * {@link #SEGMENT}.
+ *
+ * @see BitmapIndexFile
+ */
+public abstract class BitmapPage extends IndexPage<BitmapPageId> {
+
+    public static final byte DIRECTORY = 1;
+    public static final byte SEGMENT = 2;
+
+    BitmapPage(BitmapPageId id) {
+        super(id);
+    }
+}
@@ -0,0 +1,21 @@
+package simpledb.struct;
+
+/** Unique identifier for the pages of a BitmapIndexFile. */
+public class BitmapPageId extends IndexPageId {
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific bitmap index.
+     *
+     * @param tableId The id of the BitmapIndexFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public BitmapPageId(int tableId, int pgNo) {
+        super(tableId, pgNo);
+    }
+
+    @Override
+    String kind() {
+        return "bitmap";
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapSegmentPage holds a piece of the bitmap of one value of a
+ * BitmapIndexFile: the slot bitmaps of the table pages in a range of page
+ * numbers that have a tuple with the value. The segments of a value are
+ * chained in page number order; a segment covers the table pages from its
+ * first one up to the first one of the next segment.
+ * <p>
+ * The bitmap is compressed by leaving out the table pages that do not
+ * have the value at all and by cutting every slot bitmap after its last
+ * set bit.
+ * <p>
+ * The page image is the page type byte, the int page number of the next
+ * segment (0 for the last one), an int count of table pages and, for each
+ * of them, its int page number, the short length of its slot bitmap and
+ * the bitmap bytes, lowest slot first.
+ */
+public class BitmapSegmentPage extends BitmapPage {
+
+    static final int HEADER_SIZE = 9;
+    static final int ENTRY_HEADER_SIZE = 6;
+
+    private TreeMap<Integer, BitSet> slots = new TreeMap<>();
+    private int next;
+
+    public BitmapSegmentPage(BitmapPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        next = dis.readInt();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) {
+            int pageNo = dis.readInt();
+            byte[] bits = new byte[dis.readShort()];
+            dis.readFully(bits);
+            slots.put(pageNo, BitSet.valueOf(bits));
+        }
+    }
+
+    /**
+     * @return the page image of a segment with the given slot bitmaps.
+     */
+    public static byte[] createPageData(SortedMap<Integer, BitSet> slots, int next) {
+        return createPageData(SEGMENT, "bitmaps", dos -> {
+            dos.writeInt(next);
+            dos.writeInt(slots.size());
+            for (Map.Entry<Integer, BitSet> e : slots.entrySet()) {
+                byte[] bits = e.getValue().toByteArray();
+                dos.writeInt(e.getKey());
+                dos.writeShort(bits.length);
+                dos.write(bits);
+            }
+        });
+    }
+
+    /**
+     * @return the number of bytes the slot bitmap of one table page takes.
+     */
+    static int size(BitSet bits) {
+        return ENTRY_HEADER_SIZE + (bits.length() + 7) / 8;
+    }
+
+    public byte[] getPageData() {
+        return createPageData(slots, next);
+    }
+
+    public BitmapSegmentPage getBeforeImage() {
+        try {
+            return new BitmapSegmentPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the page number of the next segment, or 0.
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the first table page this segment has bits for, or -1 if it
+     * is empty.
+     */
+    public int firstPage() {
+        return slots.isEmpty() ? -1 : slots.firstKey();
+    }
+
+    /**
+     * Adds the records of this segment to bitmap.
+     */
+    public void addTo(RecordBitmap bitmap) {
+        for (Map.Entry<Integer, BitSet> e : slots.entrySet())
+            bitmap.or(e.getKey(), e.getValue());
+    }
+
+    void set(int pageNo, int slot) {
+        BitSet bits = slots.get(pageNo);
+        if (bits == null) {
+            bits = new BitSet();
+            slots.put(pageNo, bits);
+        }
+        bits.set(slot);
+    }
+
+    /**
+     * @return true if the slot was set and has been cleared.
+     */
+    boolean clear(int pageNo, int slot) {
+        BitSet bits = slots.get(pageNo);
+        if (bits == null || !bits.get(slot))
+            return false;
+        bits.clear(slot);
+        if (bits.isEmpty())
+            slots.remove(pageNo);
+        return true;
+    }
+
+    boolean isOverfull() {
+        int size = HEADER_SIZE;
+        for (BitSet bits : slots.values())
+            size += size(bits);
+        return size > BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Moves the upper half of the table pages into right, which becomes
+     * the next segment after this one.
+     */
+    void splitInto(BitmapSegmentPage right) {
+        int mid = new ArrayList<>(slots.keySet()).get(slots.size() / 2);
+        right.slots = new TreeMap<>(slots.tailMap(mid));
+        slots = new TreeMap<>(slots.headMap(mid));
+        right.next = next;
+        next = right.getId().pageNumber();
+    }
+}
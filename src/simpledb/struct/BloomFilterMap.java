@@ -0,0 +1,286 @@
+package simpledb.struct;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * BloomFilterMap keeps a Bloom filter of the values of one field for each
+ * page of a HeapFile, so that a scan looking for given values of the field
+ * can pass over the pages that cannot hold any of them. Unlike a
+ * {@link ZoneMap} it also helps on unclustered fields with many values.
+ * <p>
+ * A filter has about {@link #BITS_PER_TUPLE} bits per tuple a page of the
+ * file can hold and {@link #HASHES} hash functions, for a false positive
+ * rate of a few percent on a full page. The filters are kept in memory and
+ * persisted next to the data file, in a file named after the data file and
+ * the field with the ".bloom" suffix: a {@link MapStamp} header, then per
+ * page a byte that is 1 if the filter is known followed by its bits.
+ * <p>
+ * Filters are maintained like zone map entries: inserts add their value to
+ * the filter of their page in memory at once, deletes leave it in, and the
+ * filter is rebuilt from the page when the page is written by
+ * {@link HeapFile#writePage}, which drops the deleted values. Filters of
+ * pages not yet known are built when the page is first read; unknown pages
+ * may hold any value. The filter file is forced and stamped along with the
+ * data file, as the zone map is, and dropped on load if its stamp does not
+ * match the data file.
+ */
+public class BloomFilterMap implements Closeable {
+
+    /** Bits of a filter per tuple a page can hold. */
+    public static final int BITS_PER_TUPLE = 8;
+    /** Number of bits set per value. */
+    public static final int HASHES = 5;
+
+    private final File file;
+    private final HeapFile heapFile;
+    private final int field;
+    /** Bits of a filter, a multiple of 64. */
+    private final int bits;
+    private final int words;
+    private final int entrySize;
+    private boolean[] known;
+    private long[] filters;
+    private final MapStamp stamp;
+    private transient FileChannel channel;
+
+    BloomFilterMap(HeapFile heapFile, int field) {
+        this.heapFile = heapFile;
+        this.field = field;
+        this.file = fileFor(heapFile.getFile(), field);
+        TupleDesc td = heapFile.getTupleDesc();
+        int tuplesPerPage = heapFile.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        this.words = Math.max(1, (tuplesPerPage * BITS_PER_TUPLE + 63) / 64);
+        this.bits = words * 64;
+        this.entrySize = 1 + words * 8;
+        this.stamp = new MapStamp(heapFile);
+    }
+
+    /**
+     * @return the file the Bloom filters of the given field of the given
+     * data file are stored in.
+     */
+    public static File fileFor(File dataFile, int field) {
+        return new File(dataFile.getPath() + "." + field + ".bloom");
+    }
+
+    /**
+     * Deletes the Bloom filter files of all fields of the given data file,
+     * as done when the data file is written anew.
+     */
+    public static void deleteFiles(File dataFile) {
+        File dir = dataFile.getAbsoluteFile().getParentFile();
+        String prefix = dataFile.getName() + ".";
+        String[] names = dir == null ? null : dir.list();
+        if (names == null)
+            return;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(".bloom")
+                    && name.substring(prefix.length(), name.length() - 6).matches("\\d+"))
+                new File(dir, name).delete();
+        }
+    }
+
+    /**
+     * @return the field whose values the filters hold.
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * Loads the persisted filters on first use if their stamp matches the
+     * data file.
+     */
+    private void load() {
+        if (known != null)
+            return;
+        int numPages = heapFile.numPages();
+        ensureCapacity(Math.max(numPages, 16) - 1);
+        if (!file.exists())
+            return;
+        try {
+            FileChannel ch = getChannel();
+            if (!stamp.check(ch)) {
+                stamp.reset(ch);
+                return;
+            }
+            int n = (int) Math.min((ch.size() - MapStamp.SIZE) / entrySize, numPages);
+            ByteBuffer buf = ByteBuffer.allocate(n * entrySize);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, MapStamp.SIZE + buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+            for (int i = 0; i < n && buf.remaining() >= entrySize; i++) {
+                known[i] = buf.get() == 1;
+                for (int w = 0; w < words; w++)
+                    filters[i * words + w] = buf.getLong();
+            }
+        } catch (IOException e) {
+            // start from unknown filters, whose pages are always read
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureCapacity(int pgNo) {
+        if (known == null) {
+            known = new boolean[pgNo + 1];
+            filters = new long[known.length * words];
+        } else if (pgNo >= known.length) {
+            int size = Math.max(pgNo + 1, known.length * 2);
+            known = Arrays.copyOf(known, size);
+            filters = Arrays.copyOf(filters, size * words);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * Spreads the hash code of a value, as Field hash codes of ints are the
+     * values themselves.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Sets or tests the bits of a value in the filter of a page.
+     *
+     * @return true if all the bits were set before
+     */
+    private boolean probe(int pgNo, Field value, boolean set) {
+        int h1 = mix(value.hashCode());
+        int h2 = mix(h1) | 1;
+        int base = pgNo * words;
+        boolean all = true;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % bits;
+            long mask = 1L << (bit & 63);
+            int w = base + (bit >>> 6);
+            all = all && (filters[w] & mask) != 0;
+            if (set)
+                filters[w] |= mask;
+            else if (!all)
+                return false;
+        }
+        return all;
+    }
+
+    /**
+     * @return false if the given page holds no tuple with the given value of
+     * the field, true if it may.
+     */
+    public synchronized boolean mayContain(int pgNo, Field value) {
+        load();
+        if (pgNo >= known.length || !known[pgNo])
+            return true;
+        return probe(pgNo, value, false);
+    }
+
+    /**
+     * @return false if the given page holds none of the given values of the
+     * field, true if it may.
+     */
+    public synchronized boolean mayContainAny(int pgNo, Collection<? extends Field> values) {
+        load();
+        if (pgNo >= known.length || !known[pgNo])
+            return true;
+        for (Field value : values) {
+            if (probe(pgNo, value, false))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the value of a tuple inserted on a page to the page's filter in
+     * memory.
+     */
+    synchronized void add(int pgNo, Tuple t) {
+        load();
+        if (pgNo >= known.length || !known[pgNo])
+            return;
+        probe(pgNo, t.getField(field), true);
+    }
+
+    /**
+     * Builds the filter of a page that has just been read from the data
+     * file if it is not known yet, and persists it.
+     */
+    synchronized void learn(int pgNo, HeapPage page) {
+        load();
+        if (pgNo < known.length && known[pgNo])
+            return;
+        try {
+            persist(pgNo, page);
+        } catch (IOException e) {
+            // the filter stays known in memory; it is written again with
+            // the page
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuilds the filter of a page that has just been written to the data
+     * file, both in memory and on disk.
+     */
+    synchronized void persist(int pgNo, HeapPage page) throws IOException {
+        load();
+        ensureCapacity(pgNo);
+        int base = pgNo * words;
+        Arrays.fill(filters, base, base + words, 0L);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            probe(pgNo, it.next().getField(field), true);
+        known[pgNo] = true;
+
+        ByteBuffer buf = ByteBuffer.allocate(entrySize);
+        buf.put((byte) 1);
+        for (int w = 0; w < words; w++)
+            buf.putLong(filters[base + w]);
+        buf.flip();
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, MapStamp.SIZE + (long) pgNo * entrySize + buf.position());
+    }
+
+    /**
+     * Clears the stamp of the filter file before the data file is written.
+     */
+    synchronized void changing() throws IOException {
+        load();
+        if (channel != null)
+            stamp.clear(channel);
+    }
+
+    /**
+     * Forces the filter file and stamps it, after the data file was forced
+     * with the given count of writes.
+     */
+    synchronized void force(long writes) throws IOException {
+        if (known == null)
+            return;
+        stamp.stamp(getChannel(), writes);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
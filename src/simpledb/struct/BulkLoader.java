@@ -0,0 +1,446 @@
+package simpledb.struct;
+
+import simpledb.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader turns comma delimited text, in the input format of
+ * {@link HeapFileEncoder}, into heap pages. It is meant for large inputs:
+ * the text is cut into chunks of whole lines that worker threads parse in
+ * parallel, each encoding its tuples straight into complete page images
+ * in a ByteBuffer. The chunks are written in input order, each with one
+ * large sequential write, and only a few chunks per worker are in memory
+ * at a time, so the input is streamed however large it is.
+ * <p>
+ * {@link #convert} writes a new data file, like HeapFileEncoder.
+ * {@link #load} appends to a table of a running database: the pages
+ * bypass the BufferPool and go to the end of the HeapFile through
+ * {@link HeapFile#appendPages}, which logs them one record per page rather
+ * than one per tuple. The appended pages are locked for the loading
+ * transaction, and are forced or rolled back with its other changes. The
+ * indexes of the table are maintained through the BufferPool, tuple by
+ * tuple, as for Insert.
+ * <p>
+ * Every chunk starts a new page, so the last page of each chunk may not be
+ * full.
+ */
+public class BulkLoader {
+
+    /** Bytes of text a worker parses at a time. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final Type[] typeAr;
+    private final char fieldSeparator;
+    private final boolean slotted;
+    private final boolean pax;
+    private final int pageSize;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // the layout of fixed slot pages
+    private final int recordSize;
+    private final int slotsPerPage;
+    private final int headerSize;
+
+    /**
+     * Creates a loader for text with the given field types.
+     *
+     * @param typeAr the types of the fields of each input line
+     * @param fieldSeparator the character between the fields of a line
+     * @param slotted if true, variable length SlottedHeapPages are written
+     * @param pax if true, PaxPages are written; ignored if slotted is set
+     */
+    public BulkLoader(Type[] typeAr, char fieldSeparator, boolean slotted, boolean pax) {
+        this(typeAr, fieldSeparator, slotted, pax, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Creates a loader for text with the given field types that writes
+     * pages of the given size.
+     *
+     * @param pageSize the size of a page in bytes, see
+     *            {@link HeapFile#checkPageSize}
+     */
+    public BulkLoader(Type[] typeAr, char fieldSeparator, boolean slotted, boolean pax, int pageSize) {
+        this.typeAr = typeAr.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.slotted = slotted;
+        this.pax = pax && !slotted;
+        this.pageSize = HeapFile.checkPageSize(pageSize);
+        int size = 0;
+        for (Type t : typeAr)
+            size += t.getLen();
+        recordSize = size;
+        slotsPerPage = (pageSize * 8) / (recordSize * 8 + 1);
+        headerSize = (slotsPerPage + 7) / 8;
+    }
+
+    /**
+     * @return a loader that writes pages in the format of the given table.
+     */
+    public static BulkLoader forTable(HeapFile table, char fieldSeparator) {
+        TupleDesc td = table.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        return new BulkLoader(types, fieldSeparator, table.isSlotted(), table instanceof PaxFile,
+                table.getPageSize());
+    }
+
+    /**
+     * Sets the number of worker threads that parse chunks.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("at least one thread is needed");
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of bytes of text parsed as one chunk.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunks cannot be empty");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Converts the input text file into a new data file. An empty input
+     * gives a file of one empty page, as with HeapFileEncoder.
+     *
+     * @return the number of tuples written
+     * @throws IOException if the input/output file can't be opened
+     */
+    public long convert(File inFile, File outFile) throws IOException {
+        HeapFile.deleteSideFiles(outFile);
+        try (RandomAccessFile raf = new RandomAccessFile(outFile, "rw")) {
+            raf.setLength(0);
+            final FileChannel ch = raf.getChannel();
+            long tuples = run(inFile, chunk -> {
+                ByteBuffer buf = chunk.pages;
+                long offset = ch.size();
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+            });
+            if (ch.size() == 0) {
+                // an empty file still gets one empty page
+                Chunk empty = new Chunk(1, pageSize);
+                empty.newPage();
+                ByteBuffer buf = encodePages(empty).pages;
+                while (buf.hasRemaining())
+                    ch.write(buf, buf.position());
+            }
+            return tuples;
+        } catch (DbException | TransactionAbortedException e) {
+            // the sink of a conversion does not throw these
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Appends the tuples of the input text file to a table as a part of the
+     * given transaction, and adds them to the indexes of the table.
+     *
+     * @return the number of tuples loaded
+     * @throws IOException if the input file can't be read or the table
+     *         can't be written
+     */
+    public long load(final TransactionId tid, final HeapFile table, File inFile)
+            throws IOException, DbException, TransactionAbortedException {
+        final List<IndexFile> indexes = Database.getCatalog().getIndexes(table.getId());
+        return run(inFile, chunk -> {
+            List<HeapPage> pages = table.appendPages(tid, chunk.pages);
+            if (indexes.isEmpty())
+                return;
+            for (HeapPage page : pages) {
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (IndexFile index : indexes) {
+                        for (Page p : index.insertTuple(tid, t)) {
+                            p.markDirty(true, tid);
+                            Database.getBufferPool().unpinPage(tid, p.getId());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /** The pages encoded from one chunk of text. */
+    private static class Chunk {
+        final int pageSize;
+        ByteBuffer pages;
+        int numPages;
+        long numTuples;
+
+        Chunk(int capacity, int pageSize) {
+            this.pageSize = pageSize;
+            pages = ByteBuffer.allocate(Math.max(capacity, 1) * pageSize);
+        }
+
+        /** @return the offset of a new empty page at the end of the chunk. */
+        int newPage() {
+            int offset = numPages * pageSize;
+            if (offset + pageSize > pages.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(pages.capacity() * 2);
+                grown.put(pages.array(), 0, offset);
+                pages = grown;
+            }
+            numPages++;
+            return offset;
+        }
+    }
+
+    private interface ChunkSink {
+        void write(Chunk chunk) throws IOException, DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Reads the input in chunks of whole lines, encodes them on the worker
+     * threads and hands the encoded chunks to sink in input order.
+     */
+    private long run(File inFile, ChunkSink sink)
+            throws IOException, DbException, TransactionAbortedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        long tuples = 0;
+        try (InputStream is = new FileInputStream(inFile)) {
+            byte[] buf = new byte[chunkSize];
+            int len = 0;
+            boolean eof = false;
+            while (!eof) {
+                int n = is.read(buf, len, buf.length - len);
+                if (n < 0)
+                    eof = true;
+                else
+                    len += n;
+                if (!eof && len < buf.length)
+                    continue;
+                // hand over everything up to the last line break; the rest
+                // starts the next chunk
+                int end = len;
+                if (!eof) {
+                    while (end > 0 && buf[end - 1] != '\n')
+                        end--;
+                    if (end == 0) {
+                        // a line longer than a chunk
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                        continue;
+                    }
+                }
+                final byte[] text = Arrays.copyOf(buf, end);
+                pending.add(workers.submit(() -> encode(text)));
+                System.arraycopy(buf, end, buf, 0, len - end);
+                len -= end;
+                // bound the chunks in memory
+                while (pending.size() > 2 * threads || (eof && !pending.isEmpty()))
+                    tuples += write(pending.poll(), sink);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return tuples;
+    }
+
+    private static long write(Future<Chunk> future, ChunkSink sink)
+            throws IOException, DbException, TransactionAbortedException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+        if (chunk.numPages > 0)
+            sink.write(chunk);
+        return chunk.numTuples;
+    }
+
+    /**
+     * Parses the lines of text into page images.
+     */
+    private Chunk encode(byte[] text) {
+        Chunk chunk = new Chunk(text.length / pageSize + 1, pageSize);
+        byte[] record = new byte[slotted ? maxEncodedSize() : recordSize];
+        List<byte[]> pageTuples = new ArrayList<>();
+        int free = pageSize - SlottedHeapPage.HEADER_SIZE;
+        int page = -1;
+        int slot = slotsPerPage;
+        int start = 0;
+        while (start < text.length) {
+            int end = start;
+            while (end < text.length && text[end] != '\n')
+                end++;
+            int lineEnd = end;
+            // Ignore Windows/Notepad special line endings
+            if (lineEnd > start && text[lineEnd - 1] == '\r')
+                lineEnd--;
+            int len = isBlank(text, start, lineEnd) ? 0 : encodeTuple(text, start, lineEnd, record);
+            if (len < 0)
+                System.out.println("BAD LINE : " + new String(text, start, lineEnd - start));
+            if (len > 0) {
+                if (slotted) {
+                    if (SlottedHeapPage.spaceNeeded(len) > free) {
+                        putSlottedPage(chunk, pageTuples);
+                        free = pageSize - SlottedHeapPage.HEADER_SIZE;
+                    }
+                    pageTuples.add(Arrays.copyOf(record, len));
+                    free -= SlottedHeapPage.spaceNeeded(len);
+                } else {
+                    if (slot == slotsPerPage) {
+                        page = chunk.newPage();
+                        slot = 0;
+                    }
+                    byte[] pages = chunk.pages.array();
+                    System.arraycopy(record, 0, pages, page + headerSize + slot * recordSize, recordSize);
+                    pages[page + slot / 8] |= (byte) (1 << (slot % 8));
+                    slot++;
+                }
+                chunk.numTuples++;
+            }
+            start = end + 1;
+        }
+        if (!pageTuples.isEmpty())
+            putSlottedPage(chunk, pageTuples);
+        return encodePages(chunk);
+    }
+
+    /**
+     * Finishes a chunk: transposes its pages if PAX pages are written and
+     * sets the buffer up for writing its pages.
+     */
+    private Chunk encodePages(Chunk chunk) {
+        byte[] pages = chunk.pages.array();
+        if (pax) {
+            byte[] rowPage = new byte[pageSize];
+            for (int i = 0; i < chunk.numPages; i++) {
+                int offset = i * pageSize;
+                System.arraycopy(pages, offset, rowPage, 0, rowPage.length);
+                System.arraycopy(PaxPage.fromRowPage(rowPage, typeAr), 0, pages, offset, rowPage.length);
+            }
+        }
+        chunk.pages.clear();
+        chunk.pages.limit(chunk.numPages * pageSize);
+        return chunk;
+    }
+
+    private static void putSlottedPage(Chunk chunk, List<byte[]> tuples) {
+        int offset = chunk.newPage();
+        byte[] page = SlottedHeapPage.createPageData(tuples, chunk.pageSize);
+        System.arraycopy(page, 0, chunk.pages.array(), offset, page.length);
+        tuples.clear();
+    }
+
+    private int maxEncodedSize() {
+        int size = 0;
+        for (Type t : typeAr)
+            size += t == Type.STRING_TYPE ? 2 + Type.STRING_LEN : t.getLen();
+        return size;
+    }
+
+    private static boolean isBlank(byte[] text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text[i] > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes one line into record, in the fixed slot format or, for
+     * slotted pages, the variable length format of SlottedHeapPage.
+     *
+     * @return the number of bytes of record used, or -1 if the line is
+     *         malformed
+     */
+    private int encodeTuple(byte[] text, int start, int end, byte[] record) {
+        int pos = 0;
+        int fieldStart = start;
+        for (int i = 0; i < typeAr.length; i++) {
+            if (fieldStart > end)
+                return -1;
+            int fieldEnd = fieldStart;
+            while (fieldEnd < end && text[fieldEnd] != fieldSeparator)
+                fieldEnd++;
+            // trim the field
+            int s = fieldStart;
+            int e = fieldEnd;
+            while (s < e && text[s] <= ' ')
+                s++;
+            while (e > s && text[e - 1] <= ' ')
+                e--;
+            if (typeAr[i] == Type.INT_TYPE) {
+                long v = parseInt(text, s, e);
+                if (v == Long.MIN_VALUE)
+                    return -1;
+                putInt(record, pos, (int) v);
+                pos += 4;
+            } else {
+                int len = Math.min(e - s, Type.STRING_LEN);
+                if (slotted) {
+                    record[pos] = (byte) (len >> 8);
+                    record[pos + 1] = (byte) len;
+                    pos += 2;
+                } else {
+                    putInt(record, pos, len);
+                    pos += 4;
+                }
+                System.arraycopy(text, s, record, pos, len);
+                pos += len;
+                if (!slotted) {
+                    Arrays.fill(record, pos, pos + Type.STRING_LEN - len, (byte) 0);
+                    pos += Type.STRING_LEN - len;
+                }
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return pos;
+    }
+
+    /**
+     * @return the int in text[s, e), or Long.MIN_VALUE if it is not one.
+     */
+    private static long parseInt(byte[] text, int s, int e) {
+        boolean negative = false;
+        if (s < e && (text[s] == '-' || text[s] == '+')) {
+            negative = text[s] == '-';
+            s++;
+        }
+        if (s == e)
+            return Long.MIN_VALUE;
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = text[i] - '0';
+            if (d < 0 || d > 9)
+                return Long.MIN_VALUE;
+            v = v * 10 + d;
+            if (v > (long) Integer.MAX_VALUE + 1)
+                return Long.MIN_VALUE;
+        }
+        v = negative ? -v : v;
+        if (v > Integer.MAX_VALUE)
+            return Long.MIN_VALUE;
+        return v;
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >> 24);
+        b[pos + 1] = (byte) (v >> 16);
+        b[pos + 2] = (byte) (v >> 8);
+        b[pos + 3] = (byte) v;
+    }
+}
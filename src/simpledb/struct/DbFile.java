@@ -30,6 +30,28 @@ public interface DbFile extends Serializable {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages of this file to disk, as done when a
+     * transaction commits. Files that can write a run of adjacent pages at
+     * once do so; by default, the pages are written one by one.
+     *
+     * @param pages the pages to write, in page number order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Forces the pages written to this file so far onto the storage device.
+     * Does nothing by default.
+     *
+     * @throws IOException if the file can't be forced
+     */
+    public default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -86,4 +108,16 @@ public interface DbFile extends Serializable {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile. Pages of
+     * different files may differ in size; the BufferPool accounts for each
+     * page by its own size.
+     *
+     * @return the page size of this DbFile, {@link BufferPool#PAGE_SIZE}
+     *         unless the file says otherwise.
+     */
+    public default int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
 }
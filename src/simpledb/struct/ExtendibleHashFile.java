@@ -0,0 +1,496 @@
+package simpledb.struct;
+
+import simpledb.*;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ExtendibleHashFile is an extendible hash index over one field of a
+ * HeapFile, for equality lookups such as the probes of an
+ * {@link simpledb.operation.IndexNestedLoopJoin}. Its entries are the same
+ * (key, record id) pairs as those of a BTreeFile, kept in bucket pages
+ * that a {@link HashDirectoryPage} on page 0 maps hash values to.
+ * <p>
+ * A full bucket is split in two by one more bit of the hash, doubling the
+ * directory when the bucket was already as deep as it. Buckets whose
+ * entries all agree in the hash bits the directory can use, such as many
+ * duplicates of one key, get overflow pages instead. Buckets are never
+ * merged again.
+ * <p>
+ * All pages are read and written through the BufferPool. Lookups read
+ * lock the directory and the bucket chain; inserts and deletes write lock
+ * the bucket chain, and a split also the directory.
+ *
+ * @see IndexFile
+ * @see Catalog#addIndex
+ */
+public class ExtendibleHashFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final Type keyType;
+    private final int tableId;
+    private final int keyField;
+    private final TupleDesc td;
+    private final AtomicInteger pageCount = new AtomicInteger(0);
+    private transient FileChannel channel;
+
+    /**
+     * Opens the hash index stored in f, creating an empty one if f is
+     * empty.
+     *
+     * @param f the file that stores the index
+     * @param keyType the type of the indexed field
+     * @param tableId the id of the HeapFile that is indexed
+     * @param keyField the index of the indexed field in that table
+     */
+    public ExtendibleHashFile(File f, Type keyType, int tableId, int keyField) {
+        this.f = f;
+        this.keyType = keyType;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[] {keyType, Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {"key", "pageno", "slot"});
+        pageCount.set((int) (f.length() / BufferPool.PAGE_SIZE));
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this file, the hash code of its
+     * absolute file name like for HeapFile.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int numPages() {
+        return pageCount.get();
+    }
+
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        return channel;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * @return the hash of a key. The directory uses its low bits, so the
+     * hash code of the field is mixed first; the hash codes of IntFields
+     * are their values, which differ only in the low bits.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId hpid = (HashPageId) pid;
+        long offset = (long) hpid.pageNumber() * BufferPool.PAGE_SIZE;
+        try {
+            FileChannel ch = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            byte[] data = buf.array();
+            if (hpid.pageNumber() == 0) {
+                // the directory of a new file reads as an empty index
+                if (HashPage.pageType(data) != HashPage.DIRECTORY)
+                    data = HashDirectoryPage.createPageData(0, new int[] {0});
+                return new HashDirectoryPage(hpid, data);
+            }
+            // pages past the end, or allocated by an aborted transaction,
+            // read as empty buckets
+            if (HashPage.pageType(data) != HashPage.BUCKET)
+                data = HashBucketPage.createPageData(0, Collections.<BTreeEntry>emptyList(), 0);
+            return new HashBucketPage(hpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        long offset = (long) pgNo * BufferPool.PAGE_SIZE;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+        int count;
+        while ((count = pageCount.get()) <= pgNo)
+            pageCount.compareAndSet(count, pgNo + 1);
+    }
+
+    /**
+     * Appends an empty bucket page of the given local depth to the file and
+     * fetches it for writing.
+     */
+    private HashBucketPage allocateBucket(TransactionId tid, int localDepth)
+            throws IOException, TransactionAbortedException, DbException {
+        int pgNo;
+        synchronized (this) {
+            // page 0 is always the directory
+            pgNo = Math.max(pageCount.get(), 1);
+            writePageData(pgNo, HashBucketPage.createPageData(localDepth,
+                    Collections.<BTreeEntry>emptyList(), 0));
+        }
+        return (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashPage) Database.getBufferPool().getPage(
+                tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    private BTreeEntry entryFor(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableId)
+            throw new DbException("tuple is not stored in the indexed table");
+        return new BTreeEntry(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * @return the pages of the bucket chain starting at page first.
+     */
+    private List<HashBucketPage> chain(TransactionId tid, int first, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        ArrayList<HashBucketPage> pages = new ArrayList<>();
+        for (int pgNo = first; pgNo != 0; pgNo = pages.get(pages.size() - 1).getNext())
+            pages.add((HashBucketPage) getPage(tid, pgNo, perm));
+        return pages;
+    }
+
+    private static void markDirty(HashPage page, TransactionId tid, List<Page> dirtied) {
+        page.markDirty(true, tid);
+        if (!dirtied.contains(page))
+            dirtied.add(page);
+    }
+
+    /**
+     * Adds e to the first page of chain with room for it, appending an
+     * overflow page to the chain if all of them are full.
+     */
+    private void addToChain(TransactionId tid, List<HashBucketPage> chain, BTreeEntry e,
+                            List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        for (HashBucketPage page : chain) {
+            if (!page.isFull()) {
+                page.insert(e);
+                markDirty(page, tid, dirtied);
+                return;
+            }
+        }
+        HashBucketPage last = chain.get(chain.size() - 1);
+        // dirty before allocating, so the pool cannot evict it meanwhile
+        markDirty(last, tid, dirtied);
+        HashBucketPage overflow = allocateBucket(tid, last.getLocalDepth());
+        last.setNext(overflow.getId().pageNumber());
+        overflow.insert(e);
+        markDirty(overflow, tid, dirtied);
+        chain.add(overflow);
+    }
+
+    private static boolean hasRoom(List<HashBucketPage> chain) {
+        for (HashBucketPage page : chain) {
+            if (!page.isFull())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if splitting the bucket holding chain can separate some
+     * of its entries from an entry with hash h.
+     */
+    private boolean canSplit(List<HashBucketPage> chain, int h) {
+        int depth = chain.get(0).getLocalDepth();
+        int mask = (1 << HashDirectoryPage.maxDepth()) - 1;
+        if (depth >= HashDirectoryPage.maxDepth())
+            return false;
+        for (HashBucketPage page : chain) {
+            for (BTreeEntry e : page.entries()) {
+                if (((hash(e.getKey()) ^ h) & mask) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket holding chain by one more bit of the hash, moving
+     * the entries with that bit set to a new bucket.
+     */
+    private void split(TransactionId tid, List<HashBucketPage> chain, List<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+        HashBucketPage bucket = chain.get(0);
+        int depth = bucket.getLocalDepth();
+        // dirty the pages before allocating, so the pool cannot evict them
+        markDirty(dir, tid, dirtied);
+        for (HashBucketPage page : chain)
+            markDirty(page, tid, dirtied);
+        if (depth == dir.getGlobalDepth())
+            dir.grow();
+        HashBucketPage image = allocateBucket(tid, depth + 1);
+        dir.split(bucket.getId().pageNumber(), depth, image.getId().pageNumber());
+
+        ArrayList<BTreeEntry> all = new ArrayList<>();
+        for (HashBucketPage page : chain) {
+            all.addAll(page.entries());
+            page.clear();
+            page.setLocalDepth(depth + 1);
+        }
+        List<HashBucketPage> imageChain = new ArrayList<>(Collections.singletonList(image));
+        markDirty(image, tid, dirtied);
+        for (BTreeEntry e : all) {
+            if ((hash(e.getKey()) & (1 << depth)) != 0)
+                addToChain(tid, imageChain, e, dirtied);
+            else
+                addToChain(tid, chain, e, dirtied);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeEntry e = entryFor(t);
+        int h = hash(e.getKey());
+        ArrayList<Page> dirtied = new ArrayList<>();
+        while (true) {
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+            if (dir.getBucket(h) == 0) {
+                dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+                if (dir.getBucket(h) == 0) {
+                    markDirty(dir, tid, dirtied);
+                    dir.setAll(allocateBucket(tid, dir.getGlobalDepth()).getId().pageNumber());
+                }
+            }
+            List<HashBucketPage> chain = chain(tid, dir.getBucket(h), Permissions.READ_WRITE);
+            if (hasRoom(chain) || !canSplit(chain, h)) {
+                addToChain(tid, chain, e, dirtied);
+                return dirtied;
+            }
+            // the entry may still not fit after one split, so look again
+            split(tid, chain, dirtied);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BTreeEntry e = entryFor(t);
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+        int first = dir.getBucket(hash(e.getKey()));
+        if (first != 0) {
+            for (HashBucketPage page : chain(tid, first, Permissions.READ_WRITE)) {
+                if (page.delete(e)) {
+                    page.markDirty(true, tid);
+                    return page;
+                }
+            }
+        }
+        throw new DbException("tuple is not in this index");
+    }
+
+    /**
+     * Returns an iterator over all entries of the index, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null);
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * Returns an iterator over the entries whose key equals key; it only
+     * visits the bucket the key hashes to.
+     *
+     * @throws UnsupportedOperationException if op is not EQUALS
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        if (!supports(op))
+            throw new UnsupportedOperationException("hash indexes only answer equality predicates");
+        return new HashFileIterator(tid, key);
+    }
+
+    private class HashFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field key;
+        private Iterator<Integer> buckets;
+        private List<BTreeEntry> entries;
+        private int pos;
+        private int nextPage;
+        private Tuple next;
+
+        HashFileIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            rewind();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            next = null;
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+            if (key == null) {
+                buckets = new ArrayList<>(dir.bucketPages()).iterator();
+            } else {
+                int first = dir.getBucket(hash(key));
+                buckets = first == 0 ? Collections.<Integer>emptyIterator()
+                        : Collections.singletonList(first).iterator();
+            }
+            entries = new ArrayList<>();
+            pos = 0;
+            nextPage = 0;
+        }
+
+        private void setPage(int pgNo) throws DbException, TransactionAbortedException {
+            HashBucketPage page = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+            // copy, so that deletes through this transaction do not shift
+            // the entries under the iterator
+            entries = new ArrayList<>(page.entries());
+            nextPage = page.getNext();
+            pos = 0;
+        }
+
+        private Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (pos < entries.size()) {
+                    BTreeEntry e = entries.get(pos++);
+                    if (key == null || e.getKey().compare(Predicate.Op.EQUALS, key)) {
+                        Tuple t = new Tuple(td);
+                        t.setField(0, e.getKey());
+                        t.setField(1, new IntField(e.getPageNo()));
+                        t.setField(2, new IntField(e.getSlot()));
+                        return t;
+                    }
+                } else if (nextPage != 0) {
+                    setPage(nextPage);
+                } else if (buckets.hasNext()) {
+                    setPage(buckets.next());
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (next == null && entries != null)
+                next = fetchNext();
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void close() {
+            entries = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the current contents of table, which is read
+     * directly from disk. The directory is made deep enough for the buckets
+     * to be about three quarters full, every bucket has the global depth,
+     * and the pages are written bypassing the BufferPool, so this is meant
+     * for opening a database, before any transaction runs.
+     */
+    public synchronized void rebuild(HeapFile table) throws IOException {
+        ArrayList<BTreeEntry> all = new ArrayList<>();
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                all.add(new BTreeEntry(t.getField(keyField), i, t.getRecordId().tupleno()));
+            }
+        }
+
+        int cap = HashBucketPage.capacity(keyType);
+        int depth = 0;
+        while (depth < HashDirectoryPage.maxDepth() && all.size() * 4 > (cap << depth) * 3)
+            depth++;
+        ArrayList<ArrayList<BTreeEntry>> groups = new ArrayList<>();
+        for (int i = 0; i < (1 << depth); i++)
+            groups.add(new ArrayList<BTreeEntry>());
+        for (BTreeEntry e : all)
+            groups.get(hash(e.getKey()) & ((1 << depth) - 1)).add(e);
+
+        getChannel().truncate(0);
+        pageCount.set(0);
+        int[] buckets = new int[1 << depth];
+        // the primary bucket pages come first, overflow pages after them
+        int overflow = 1 + buckets.length;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 1 + i;
+            List<BTreeEntry> group = groups.get(i);
+            int pgNo = buckets[i];
+            for (int from = 0; ; from += cap) {
+                List<BTreeEntry> chunk = group.subList(from, Math.min(group.size(), from + cap));
+                int next = from + cap < group.size() ? overflow++ : 0;
+                writePageData(pgNo, HashBucketPage.createPageData(depth, chunk, next));
+                if (next == 0)
+                    break;
+                pgNo = next;
+            }
+        }
+        writePageData(0, HashDirectoryPage.createPageData(depth, buckets));
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb.struct;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records how much room each page of a HeapFile has left, so
+ * that an insert can go straight to a page that fits the tuple instead of
+ * probing every page through the BufferPool.
+ * <p>
+ * The amount is in the units of {@link HeapPage#getFreeSpace}. The map is
+ * kept in memory and persisted next to the data file, one int per page, in
+ * a file with the ".fsm" suffix. An entry on disk is written together with
+ * its page by {@link HeapFile#writePage}, so the persisted map describes the
+ * data on disk while the in-memory map also reflects uncommitted changes of
+ * pages in the buffer pool.
+ * <p>
+ * Entries are only hints: a missing or stale map costs extra page reads or
+ * leaves some free space unused, but never affects correctness. Unknown
+ * entries are -1.
+ */
+public class FreeSpaceMap implements Closeable {
+
+    /** Value of entries whose free space has not been seen yet. */
+    public static final int UNKNOWN = -1;
+
+    private final File file;
+    private final HeapFile heapFile;
+    private int[] free;
+    private transient FileChannel channel;
+
+    FreeSpaceMap(HeapFile heapFile) {
+        this.heapFile = heapFile;
+        this.file = fileFor(heapFile.getFile());
+    }
+
+    /**
+     * @return the file the free space map of the given data file is stored in.
+     */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Loads the persisted map on first use. Only entries for pages that the
+     * data file has are taken, a longer map is left over from an older file.
+     */
+    private void load() {
+        if (free != null)
+            return;
+        int numPages = heapFile.numPages();
+        free = new int[Math.max(numPages, 16)];
+        Arrays.fill(free, UNKNOWN);
+        if (!file.exists())
+            return;
+        try {
+            FileChannel ch = getChannel();
+            int n = (int) Math.min(ch.size() / 4, numPages);
+            ByteBuffer buf = ByteBuffer.allocate(n * 4);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+            for (int i = 0; i < n && buf.remaining() >= 4; i++)
+                free[i] = buf.getInt();
+        } catch (IOException e) {
+            // the map is only a hint; start from unknown entries
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureCapacity(int pgNo) {
+        if (pgNo >= free.length) {
+            int old = free.length;
+            free = Arrays.copyOf(free, Math.max(pgNo + 1, old * 2));
+            Arrays.fill(free, old, free.length, UNKNOWN);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * @return the recorded free space of the given page, or UNKNOWN.
+     */
+    public synchronized int get(int pgNo) {
+        load();
+        return pgNo < free.length ? free[pgNo] : UNKNOWN;
+    }
+
+    /**
+     * Records the free space of a page in memory.
+     */
+    public synchronized void update(int pgNo, int freeSpace) {
+        load();
+        ensureCapacity(pgNo);
+        free[pgNo] = freeSpace;
+    }
+
+    /**
+     * Records the free space of a page that has just been written to the
+     * data file, both in memory and on disk.
+     */
+    synchronized void persist(int pgNo, int freeSpace) throws IOException {
+        update(pgNo, freeSpace);
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(freeSpace).flip();
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, (long) pgNo * 4 + buf.position());
+    }
+
+    /**
+     * Returns the first page number in [from, numPages) that has at least
+     * the needed free space or whose free space is unknown.
+     *
+     * @return the page number, or -1 if there is no such page.
+     */
+    public synchronized int nextPage(int needed, int from, int numPages) {
+        load();
+        for (int i = from; i < numPages; i++) {
+            int f = i < free.length ? free[i] : UNKNOWN;
+            if (f == UNKNOWN || f >= needed)
+                return i;
+        }
+        return -1;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
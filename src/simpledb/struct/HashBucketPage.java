@@ -0,0 +1,116 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+import simpledb.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashBucketPage holds the entries of one bucket of an ExtendibleHashFile,
+ * in no particular order. A bucket that cannot be split any further,
+ * because all of its entries hash alike or the directory is at its
+ * largest, continues in a chain of overflow pages of the same format.
+ * <p>
+ * The page image is the page type byte, the int local depth of the
+ * bucket, an int entry count, the int page number of the next overflow
+ * page (0 for the last page of the chain) and the entries.
+ */
+public class HashBucketPage extends HashPage {
+
+    static final int HEADER_SIZE = 13;
+
+    private int localDepth;
+    private ArrayList<BTreeEntry> entries = new ArrayList<>();
+    private int next;
+
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        localDepth = dis.readInt();
+        int n = dis.readInt();
+        next = dis.readInt();
+        for (int i = 0; i < n; i++)
+            entries.add(BTreeEntry.parse(dis, keyType));
+    }
+
+    /**
+     * @return the number of entries a bucket page holds for the given key
+     * type.
+     */
+    public static int capacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / BTreeEntry.size(keyType);
+    }
+
+    /**
+     * @return the page image of a bucket page holding the given entries.
+     */
+    public static byte[] createPageData(int localDepth, List<BTreeEntry> entries, int next) {
+        return createPageData(BUCKET, "entries", dos -> {
+            dos.writeInt(localDepth);
+            dos.writeInt(entries.size());
+            dos.writeInt(next);
+            for (BTreeEntry e : entries)
+                e.serialize(dos);
+        });
+    }
+
+    public byte[] getPageData() {
+        return createPageData(localDepth, entries, next);
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * @return the entries of this page. The list is the page's own;
+     * callers that modify the page while iterating must copy it.
+     */
+    public List<BTreeEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * @return the page number of the next overflow page, or 0.
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    boolean isFull() {
+        return entries.size() >= capacity(keyType);
+    }
+
+    void insert(BTreeEntry e) {
+        entries.add(e);
+    }
+
+    /**
+     * @return true if e was on this page and has been removed.
+     */
+    boolean delete(BTreeEntry e) {
+        return entries.remove(e);
+    }
+
+    void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashDirectoryPage is page 0 of every ExtendibleHashFile. It holds the
+ * global depth d of the index and 2^d bucket page numbers; a key with hash
+ * h belongs to the bucket in slot <tt>h mod 2^d</tt>. A bucket of local
+ * depth l &lt; d is shared by the 2^(d-l) slots that agree with it in the
+ * low l bits.
+ * <p>
+ * The page image is the page type byte, the int global depth and the slots.
+ * A slot of 0 means that no bucket has been allocated yet, which only
+ * happens in an empty index.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    static final int HEADER_SIZE = 5;
+
+    private int globalDepth;
+    private int[] buckets;
+
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = pageReader(data);
+        globalDepth = dis.readInt();
+        buckets = new int[1 << globalDepth];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = dis.readInt();
+    }
+
+    /**
+     * @return the largest global depth whose directory fits on a page.
+     */
+    public static int maxDepth() {
+        int depth = 0;
+        while (HEADER_SIZE + 4 * (2 << depth) <= BufferPool.PAGE_SIZE)
+            depth++;
+        return depth;
+    }
+
+    /**
+     * @return the page image of a directory of the given global depth.
+     */
+    public static byte[] createPageData(int globalDepth, int[] buckets) {
+        return createPageData(DIRECTORY, "buckets", dos -> {
+            dos.writeInt(globalDepth);
+            for (int i = 0; i < (1 << globalDepth); i++)
+                dos.writeInt(buckets[i]);
+        });
+    }
+
+    public byte[] getPageData() {
+        return createPageData(globalDepth, buckets);
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, beforeImageData());
+        } catch (IOException e) {
+            beforeImageFailed(e);
+        }
+        return null;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /**
+     * @return the page number of the bucket for keys with the given hash,
+     * or 0 if the index has no bucket yet.
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & ((1 << globalDepth) - 1)];
+    }
+
+    /**
+     * @return the page numbers of all buckets, each once, in slot order.
+     */
+    public Collection<Integer> bucketPages() {
+        LinkedHashSet<Integer> pages = new LinkedHashSet<>();
+        for (int b : buckets) {
+            if (b != 0)
+                pages.add(b);
+        }
+        return pages;
+    }
+
+    /**
+     * Points every slot at the given bucket; used to set up the first
+     * bucket of an empty index.
+     */
+    void setAll(int bucket) {
+        Arrays.fill(buckets, bucket);
+    }
+
+    /**
+     * Doubles the directory. Slot i + 2^d starts out pointing at the same
+     * bucket as slot i.
+     */
+    void grow() {
+        if (globalDepth >= maxDepth())
+            throw new IllegalStateException("hash directory cannot grow beyond depth " + maxDepth());
+        int[] grown = Arrays.copyOf(buckets, buckets.length * 2);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        globalDepth++;
+    }
+
+    /**
+     * Moves the slots of bucket old whose bit number depth is set to
+     * bucket image, after old has been split from local depth depth to
+     * depth + 1.
+     */
+    void split(int old, int depth, int image) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == old && (i & (1 << depth)) != 0)
+                buckets[i] = image;
+        }
+    }
+}
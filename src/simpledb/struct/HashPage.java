@@ -0,0 +1,18 @@
+package simpledb.struct;
+
+/**
+ * HashPage is the base of the page types of an ExtendibleHashFile. The
+ * first byte of every page image is the page type, {@link #DIRECTORY} or
+ * {@link #BUCKET}.
+ *
+ * @see ExtendibleHashFile
+ */
+public abstract class HashPage extends IndexPage<HashPageId> {
+
+    public static final byte DIRECTORY = 1;
+    public static final byte BUCKET = 2;
+
+    HashPage(HashPageId id) {
+        super(id);
+    }
+}
@@ -0,0 +1,21 @@
+package simpledb.struct;
+
+/** Unique identifier for the pages of an ExtendibleHashFile. */
+public class HashPageId extends IndexPageId {
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific extendible hash index.
+     *
+     * @param tableId The id of the ExtendibleHashFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        super(tableId, pgNo);
+    }
+
+    @Override
+    String kind() {
+        return "hash";
+    }
+}
@@ -1,10 +1,15 @@
 package simpledb.struct;
 
 import simpledb.*;
+import simpledb.operation.Predicate;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -13,14 +18,88 @@ import java.util.concurrent.atomic.AtomicInteger;
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
  * 
+ * <p>
+ * All page I/O goes through one FileChannel that is opened on first use and
+ * kept until {@link #close}. Reads and writes are positional, so they do not
+ * share a file pointer and several threads can read pages of the same table
+ * at once. A large file can be split into {@link Segments}, files of a
+ * fixed number of pages with a channel each; offsets are 64 bit throughout,
+ * so unsegmented files may grow beyond 2GB as well.
+ *
+ * <p>
+ * Inserts pick their target page from a {@link FreeSpaceMap} and only lock
+ * that page. Pages that other transactions have locked are passed over, so
+ * concurrent inserters end up on different pages.
+ *
+ * <p>
+ * A {@link ZoneMap} keeps the range of every int field on each page, and
+ * fields can have a {@link BloomFilterMap} of the values on each page.
+ * Iterators built with predicates pass over the pages whose ranges or
+ * Bloom filters rule them out without locking them. A scan that skips a page does not see
+ * tuples another transaction inserts there later, so such scans are not
+ * protected against phantoms.
+ *
+ * <p>
+ * Pages are appended one at a time by inserts, or many at once by
+ * {@link #appendPages} for bulk loads; both hold the lock of the HeapFile
+ * while the file grows. {@link #compact} moves tuples off the last pages
+ * and shrinks the file again under the same lock.
+ *
+ * <p>
+ * Pages are {@link BufferPool#PAGE_SIZE} bytes unless the file is
+ * constructed with another page size, e.g. larger pages for tables that
+ * are mostly scanned. The page size is not stored in the data file; the
+ * catalog records it with the table.
+ *
+ * <p>
+ * A HeapFile whose data file has a {@link PageIndex} next to it is stored
+ * compressed: pages are of the file's fixed size in the BufferPool, but each is
+ * deflated on disk and found through the index. Compressed files are always
+ * read through the channel, never memory-mapped.
+ *
  * @see HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements DbFile, Closeable {
     private File f;
     TupleDesc td;
     private AtomicInteger pageCount = new AtomicInteger(0);
 
+    /** Bytes covered by one memory-mapped window of the file. */
+    public static final int MMAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Most pages an iterator fetches from the BufferPool at once, see
+     * {@link BufferPool#getPages}. Iterators fetch at most a quarter of the
+     * pool at once.
+     */
+    public static final int SCAN_BATCH_PAGES = 8;
+
+    /** Smallest page size a HeapFile can have. */
+    public static final int MIN_PAGE_SIZE = 512;
+    /**
+     * Largest page size a HeapFile can have; SlottedHeapPages keep offsets
+     * in two bytes.
+     */
+    public static final int MAX_PAGE_SIZE = 64 * 1024;
+
+    private boolean slotted = false;
+    private final int pageSize;
+    private boolean memoryMapped = false;
+    private transient FileChannel channel;
+    private transient MappedByteBuffer window;
+    private long windowStart;
+    private final FreeSpaceMap freeSpace;
+    private final ZoneMap zoneMap;
+    /** Writes of the data file so far, see {@link #writes}. */
+    private final AtomicLong writes = new AtomicLong();
+    private volatile BloomFilterMap[] bloomFilters = new BloomFilterMap[0];
+    private PageIndex pageIndex;
+    private Segments segments;
+    /** The segment the memory-mapped window is a part of. */
+    private int windowSegment;
+    /** The free space of an empty page of this file, or 0 before it is known. */
+    private transient int emptyPageSpace;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -30,10 +109,240 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param slotted
+     *            if true, the file is made of variable length
+     *            SlottedHeapPages rather than fixed slot HeapPages.
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
+        this(f, td, slotted, BufferPool.PAGE_SIZE);
+    }
 
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * of the given size.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param slotted
+     *            if true, the file is made of variable length
+     *            SlottedHeapPages rather than fixed slot HeapPages.
+     * @param pageSize
+     *            the size of a page in bytes, see {@link #checkPageSize}.
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted, int pageSize) {
         this.f = f;
         this.td = td;
+        this.slotted = slotted;
+        this.pageSize = checkPageSize(pageSize);
+        if (PageIndex.isCompressed(f)) {
+            try {
+                pageIndex = new PageIndex(f);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read page index of " + f, e);
+            }
+        }
+        if (Segments.isSegmented(f)) {
+            if (pageIndex != null)
+                throw new IllegalArgumentException("compressed file " + f + " cannot be segmented");
+            try {
+                segments = new Segments(f, pageSize);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot read segments of " + f, e);
+            }
+        }
         resetNumPages();
+        this.freeSpace = new FreeSpaceMap(this);
+        this.zoneMap = new ZoneMap(this);
+    }
+
+    /**
+     * Checks that pages of the given size can be stored in a HeapFile: a
+     * power of two between {@link #MIN_PAGE_SIZE} and {@link #MAX_PAGE_SIZE}.
+     *
+     * @return the page size
+     * @throws IllegalArgumentException if the page size is not allowed
+     */
+    public static int checkPageSize(int pageSize) {
+        if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1)
+            throw new IllegalArgumentException("bad page size " + pageSize);
+        return pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return true if this file stores variable length SlottedHeapPages.
+     */
+    public boolean isSlotted() {
+        return slotted;
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed.
+     */
+    public boolean isCompressed() {
+        return pageIndex != null;
+    }
+
+    /**
+     * @return true if the pages of this file are split into segment files.
+     */
+    public boolean isSegmented() {
+        return segments != null;
+    }
+
+    /**
+     * @return the map of free space on the pages of this file.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * @return the map of int field ranges on the pages of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Keeps Bloom filters of the values of a field on the pages of this
+     * file from now on. Filters persisted by an earlier use are taken, the
+     * filters of other pages are built as the pages are read or written.
+     *
+     * @return the filters of the field
+     */
+    public synchronized BloomFilterMap addBloomFilter(int field) {
+        BloomFilterMap filter = getBloomFilter(field);
+        if (filter == null) {
+            filter = new BloomFilterMap(this, field);
+            BloomFilterMap[] filters = Arrays.copyOf(bloomFilters, bloomFilters.length + 1);
+            filters[filters.length - 1] = filter;
+            bloomFilters = filters;
+        }
+        return filter;
+    }
+
+    /**
+     * @return the Bloom filters of the values of a field on the pages of
+     * this file, or null if the field has none.
+     */
+    public BloomFilterMap getBloomFilter(int field) {
+        for (BloomFilterMap filter : bloomFilters) {
+            if (filter.getField() == field)
+                return filter;
+        }
+        return null;
+    }
+
+    /**
+     * @return false if no tuple on the given page can satisfy p according
+     * to the zone map and the Bloom filters of this file, true if one may.
+     */
+    public boolean mayMatch(int pgNo, Predicate p) {
+        if (!zoneMap.mayMatch(pgNo, p))
+            return false;
+        if (p.getOp() == Predicate.Op.EQUALS) {
+            BloomFilterMap filter = getBloomFilter(p.getField());
+            if (filter != null)
+                return filter.mayContain(pgNo, p.getOperand());
+        }
+        return true;
+    }
+
+    /**
+     * Brings the side maps of a page up to date after t was inserted on it.
+     */
+    void tupleInserted(int pgNo, Tuple t) {
+        zoneMap.widen(pgNo, t);
+        for (BloomFilterMap filter : bloomFilters)
+            filter.add(pgNo, t);
+    }
+
+    /**
+     * @return the number of times the data file was written to, which the
+     * side maps are stamped with (see {@link MapStamp}).
+     */
+    long writes() {
+        return writes.get();
+    }
+
+    /**
+     * Counts a write of the data file and clears the stamps of the zone map
+     * and the Bloom filters before it is made.
+     */
+    private void changing() throws IOException {
+        writes.incrementAndGet();
+        zoneMap.changing();
+        for (BloomFilterMap filter : bloomFilters)
+            filter.changing();
+    }
+
+    /**
+     * Persists the side maps of a page that has just been written.
+     */
+    private void pageWritten(HeapPage page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        freeSpace.persist(pgNo, page.getFreeSpace());
+        zoneMap.persist(pgNo, page);
+        for (BloomFilterMap filter : bloomFilters)
+            filter.persist(pgNo, page);
+    }
+
+    /**
+     * @return the free space, in the units of {@link HeapPage#getFreeSpace},
+     * a page of this file needs to take t.
+     */
+    public int spaceNeeded(Tuple t) {
+        return slotted ? SlottedHeapPage.spaceNeeded(SlottedHeapPage.encodedSize(t)) : 1;
+    }
+
+    /**
+     * @return the free space, in the units of {@link HeapPage#getFreeSpace},
+     * of an empty page of this file.
+     */
+    private int emptyPageSpace() throws IOException {
+        if (emptyPageSpace == 0) {
+            emptyPageSpace = newPage(new HeapPageId(getId(), 0),
+                    HeapPage.createEmptyPageData(pageSize)).getFreeSpace();
+        }
+        return emptyPageSpace;
+    }
+
+    /**
+     * Builds a page of this file's page format from a page image.
+     */
+    public HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return slotted ? new SlottedHeapPage(pid, data) : new HeapPage(pid, data);
+    }
+
+    /**
+     * Switches this file between the plain read path and the memory-mapped
+     * read path. In memory-mapped mode the file is mapped in windows of
+     * {@link #MMAP_WINDOW_SIZE} bytes which are kept across calls to
+     * readPage and only remapped when a page falls outside the current one.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped)
+            window = null;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -45,6 +354,19 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    /**
+     * Deletes the files kept next to the given data file: its free space
+     * map, zone map, Bloom filters, page index and segments after the
+     * first, as done when the data file is written anew.
+     */
+    public static void deleteSideFiles(File dataFile) {
+        FreeSpaceMap.fileFor(dataFile).delete();
+        ZoneMap.fileFor(dataFile).delete();
+        BloomFilterMap.deleteFiles(dataFile);
+        PageIndex.fileFor(dataFile).delete();
+        Segments.deleteFiles(dataFile);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -70,33 +392,431 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         HeapPageId hpid = (HeapPageId)pid;
-        int pgNo = hpid.pageNumber();
-        RandomAccessFile raf = null;
+        HeapPage page;
+        if (pageIndex != null)
+            page = readCompressedPage(hpid);
+        else if (memoryMapped)
+            page = readMappedPage(hpid);
+        else
+            page = readChannelPage(hpid);
+        pageRead(page);
+        return page;
+    }
+
+    /**
+     * Reads a run of pages. Pages of a plain file are read with one
+     * scattering read straight into the page images; pages of compressed or
+     * memory-mapped files are read one at a time.
+     *
+     * @param from the number of the first page
+     * @param count the number of pages
+     * @return the pages, in page number order
+     */
+    public List<HeapPage> readPages(int from, int count) {
+        ArrayList<HeapPage> pages = new ArrayList<>(count);
+        if (pageIndex != null || memoryMapped) {
+            for (int i = 0; i < count; i++)
+                pages.add((HeapPage) readPage(new HeapPageId(getId(), from + i)));
+            return pages;
+        }
+        // a run of pages over the end of a segment is read per segment
+        if (segments != null && from + count > segments.segmentEnd(from)) {
+            int split = segments.segmentEnd(from);
+            pages.addAll(readPages(from, split - from));
+            pages.addAll(readPages(split, from + count - split));
+            return pages;
+        }
+        byte[][] data = new byte[count][pageSize];
+        ByteBuffer[] bufs = new ByteBuffer[count];
+        for (int i = 0; i < count; i++)
+            bufs[i] = ByteBuffer.wrap(data[i]);
         try {
-            raf = new RandomAccessFile(f, "r");
-            raf.seek(hpid.pageNumber() * BufferPool.PAGE_SIZE);
-            byte[] data = new byte[BufferPool.PAGE_SIZE];
-            raf.read(data);
-            return new HeapPage(hpid, data);
+            // the scattering read goes from the position of the channel,
+            // which only the scattering reads and gathering writes of this
+            // file use, under its lock
+            synchronized (this) {
+                FileChannel ch = channelFor(from);
+                ch.position(offsetOf(from));
+                // pages past the end of the file read as empty pages
+                while (bufs[count - 1].hasRemaining()) {
+                    if (ch.read(bufs) < 0)
+                        break;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                HeapPage page = newPage(new HeapPageId(getId(), from + i), data[i]);
+                pageRead(page);
+                pages.add(page);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+        return pages;
+    }
+
+    /**
+     * @return true if the images of the pages of this file can be read as
+     * they are, through {@link #readPageImage}: the file is not compressed.
+     */
+    public boolean hasPageImages() {
+        return pageIndex == null;
+    }
+
+    /**
+     * Reads the image of a page straight into the given buffer, as done for
+     * the off-heap arena of the BufferPool (see simpledb.PageArena). A page
+     * past the end of the file reads as an empty page.
+     *
+     * @param dst a buffer with a page of room left; it is filled
+     * @throws IllegalArgumentException if the page cannot be read
+     */
+    public void readPageImage(int pgNo, ByteBuffer dst) {
+        if (pageIndex != null)
+            throw new IllegalArgumentException("the pages of a compressed file have no image");
+        long offset = offsetOf(pgNo) - dst.position();
+        try {
+            FileChannel ch = channelFor(pgNo);
+            while (dst.hasRemaining()) {
+                if (ch.read(dst, offset + dst.position()) < 0)
+                    break;
+            }
+            while (dst.hasRemaining())
+                dst.put((byte) 0);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    /**
+     * Decodes a page from an image read by {@link #readPageImage}, as
+     * {@link #readPage} does from the image it reads.
+     *
+     * @param image the page image, between the position and the limit
+     */
+    public HeapPage decodePage(HeapPageId pid, ByteBuffer image) {
+        byte[] data = new byte[pageSize];
+        image.duplicate().get(data);
+        try {
+            HeapPage page = newPage(pid, data);
+            pageRead(page);
+            return page;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    /**
+     * Brings the side maps of a page that has just been read up to date.
+     */
+    private void pageRead(HeapPage page) {
+        int pgNo = page.getId().pageNumber();
+        freeSpace.update(pgNo, page.getFreeSpace());
+        zoneMap.learn(pgNo, page);
+        for (BloomFilterMap filter : bloomFilters)
+            filter.learn(pgNo, page);
+    }
+
+    private HeapPage readChannelPage(HeapPageId hpid) {
+        long offset = offsetOf(hpid.pageNumber());
+        try {
+            FileChannel ch = channelFor(hpid.pageNumber());
+            ByteBuffer buf = ByteBuffer.allocate(pageSize);
+            // a page past the end of the file reads as an empty page
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            return newPage(hpid, buf.array());
         } catch (IOException e) {
             throw new IllegalArgumentException("page does not exist in this file");
-        }finally {
-            if(raf !=null)
-                try {
-                    raf.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        }
+    }
+
+    private HeapPage readCompressedPage(HeapPageId hpid) {
+        try {
+            long offset = pageIndex.offset(hpid.pageNumber());
+            // a page that was never written reads as an empty page
+            if (offset < 0)
+                return newPage(hpid, HeapPage.createEmptyPageData(pageSize));
+            ByteBuffer buf = ByteBuffer.allocate(pageIndex.length(hpid.pageNumber()));
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    throw new IOException("compressed page is truncated");
+            }
+            return newPage(hpid, PageIndex.decompress(buf.array(), buf.capacity(), pageSize));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    private synchronized HeapPage readMappedPage(HeapPageId hpid) {
+        long offset = offsetOf(hpid.pageNumber());
+        int segment = segments == null ? 0 : segments.segment(hpid.pageNumber());
+        try {
+            if (window == null || segment != windowSegment || offset < windowStart
+                    || offset + pageSize > windowStart + window.capacity())
+                remap(segment, offset);
+            // Page implementations must keep the (PageId, byte[]) constructor
+            // as their only one (see LogFile.readPageData), so copy the page
+            // image out of the mapping here. As on the channel, a page cut
+            // short by the end of the file, or past it, reads padded with
+            // zeros.
+            byte[] data = new byte[pageSize];
+            long mapped = Math.min(pageSize, windowStart + window.capacity() - offset);
+            if (mapped > 0) {
+                window.position((int) (offset - windowStart));
+                window.get(data, 0, (int) mapped);
+            }
+            return newPage(hpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("page does not exist in this file");
+        }
+    }
+
+    /**
+     * Maps the window that contains the given offset of a segment. Windows
+     * are aligned to MMAP_WINDOW_SIZE so that neighbouring pages share one.
+     */
+    private void remap(int segment, long offset) throws IOException {
+        FileChannel ch = segments == null ? getChannel() : segments.channel(segment);
+        windowSegment = segment;
+        windowStart = offset - offset % MMAP_WINDOW_SIZE;
+        long size = Math.min(MMAP_WINDOW_SIZE, ch.size() - windowStart);
+        window = ch.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.max(size, 0));
+    }
+
+    /**
+     * Returns the channel used for all I/O on this file, opening it if this
+     * is the first access or the previous channel was closed (e.g. by an
+     * interrupted reader).
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(f, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * @return the channel of the file holding the given page.
+     */
+    private FileChannel channelFor(int pgNo) throws IOException {
+        return segments == null ? getChannel() : segments.channel(segments.segment(pgNo));
+    }
+
+    /**
+     * @return the offset of the given page in the file holding it.
+     */
+    private long offsetOf(int pgNo) {
+        return segments == null ? (long) pgNo * pageSize : segments.offset(pgNo);
+    }
+
+    /**
+     * Closes the channel backing this file. The file can still be used
+     * afterwards; the channel is reopened on the next access.
+     */
+    public synchronized void close() throws IOException {
+        window = null;
+        freeSpace.close();
+        zoneMap.close();
+        for (BloomFilterMap filter : bloomFilters)
+            filter.close();
+        if (pageIndex != null)
+            pageIndex.close();
+        if (segments != null)
+            segments.close();
+        if (channel != null) {
+            channel.close();
+            channel = null;
         }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(f, "rw");
-        raf.seek(page.getId().pageNumber() * BufferPool.PAGE_SIZE);
-        raf.write(page.getPageData());
-        raf.close();
+        int pgNo = page.getId().pageNumber();
+        writePageData(pgNo, page.getPageData());
+        pageWritten((HeapPage) page);
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        changing();
+        if (pageIndex != null) {
+            writeCompressedPage(pgNo, data);
+        } else {
+            long offset = offsetOf(pgNo);
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            FileChannel ch = channelFor(pgNo);
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+        }
+        extendTo(pgNo + 1);
+    }
+
+    /**
+     * Counts the pages up to the given number as pages of the file, as
+     * writing past the end extends the file.
+     */
+    private void extendTo(int numPages) {
+        int count;
+        while ((count = pageCount.get()) < numPages)
+            pageCount.compareAndSet(count, numPages);
+    }
+
+    /**
+     * Writes pages with one gathering write per run of adjacent pages in
+     * the same segment. Pages of a compressed file are written one at a
+     * time.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        if (pageIndex != null) {
+            for (Page page : pages)
+                writePage(page);
+            return;
+        }
+        for (int i = 0; i < pages.size(); ) {
+            int from = pages.get(i).getId().pageNumber();
+            int last = segments == null ? Integer.MAX_VALUE : segments.segmentEnd(from);
+            int end = i + 1;
+            while (end < pages.size() && from + (end - i) < last
+                    && pages.get(end).getId().pageNumber() == from + (end - i))
+                end++;
+            writeRun(from, pages.subList(i, end));
+            i = end;
+        }
+    }
+
+    /**
+     * Writes a run of adjacent pages of one segment from the given page
+     * number on.
+     */
+    private void writeRun(int from, List<Page> run) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[run.size()];
+        for (int i = 0; i < bufs.length; i++)
+            bufs[i] = ByteBuffer.wrap(run.get(i).getPageData());
+        synchronized (this) {
+            changing();
+            FileChannel ch = channelFor(from);
+            ch.position(offsetOf(from));
+            while (bufs[bufs.length - 1].hasRemaining())
+                ch.write(bufs);
+        }
+        extendTo(from + run.size());
+        for (Page page : run)
+            pageWritten((HeapPage) page);
+    }
+
+    /**
+     * Forces the pages of the file, and the index of its pages if it is
+     * compressed, onto the storage device, then forces the zone map and
+     * the Bloom filters and stamps them with the data file.
+     */
+    @Override
+    public void force() throws IOException {
+        long written = writes.get();
+        if (segments != null)
+            segments.force();
+        else
+            getChannel().force(false);
+        if (pageIndex != null)
+            pageIndex.force();
+        zoneMap.force(written);
+        for (BloomFilterMap filter : bloomFilters)
+            filter.force(written);
     }
+
+    private void writeCompressedPage(int pgNo, byte[] data) throws IOException {
+        byte[] compressed = PageIndex.compress(data);
+        long[] extent = pageIndex.place(pgNo, compressed.length);
+        ByteBuffer buf = ByteBuffer.wrap(compressed);
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, extent[0] + buf.position());
+        pageIndex.record(pgNo, extent[0], compressed.length, (int) extent[1]);
+    }
+
+    /**
+     * Appends an empty page to the file.
+     *
+     * @return the number of the new page.
+     */
+    private int allocatePage() throws IOException {
+        synchronized (this) {
+            int pgNo = pageCount.get();
+            HeapPage page = newPage(new HeapPageId(getId(), pgNo), HeapPage.createEmptyPageData(pageSize));
+            writePageData(pgNo, page.getPageData());
+            pageWritten(page);
+            return pgNo;
+        }
+    }
+
+    /**
+     * Appends whole page images to the end of the file, bypassing the
+     * BufferPool, as done by {@link BulkLoader}. The pages are written with
+     * one sequential write per segment, or one write per page if the file
+     * is compressed, and only count as pages of the file once they are on
+     * disk.
+     * <p>
+     * If tid is not null, every page is first logged as an update by tid
+     * from an empty page, and the log is forced once for all of them, so
+     * the pages can be undone like pages tid wrote through the BufferPool.
+     * The pages are then handed to the BufferPool (see
+     * {@link BufferPool#pagesWritten}), which locks them for tid before
+     * they count as pages of the file, forces the file when tid commits and
+     * rolls the pages back when it aborts.
+     *
+     * @param pages the page images, a whole number of pages between the
+     *            position and the limit
+     * @return the appended pages
+     */
+    public List<HeapPage> appendPages(TransactionId tid, ByteBuffer pages)
+            throws IOException, TransactionAbortedException {
+        int n = pages.remaining() / pageSize;
+        ArrayList<HeapPage> appended = new ArrayList<>(n);
+        synchronized (this) {
+            int first = pageCount.get();
+            for (int i = 0; i < n; i++) {
+                byte[] data = new byte[pageSize];
+                ByteBuffer page = pages.duplicate();
+                page.position(pages.position() + i * pageSize);
+                page.get(data);
+                appended.add(newPage(new HeapPageId(getId(), first + i), data));
+            }
+            if (tid != null) {
+                LogFile log = Database.getLogFile();
+                for (HeapPage page : appended)
+                    log.logWrite(tid, newPage(page.getId(), HeapPage.createEmptyPageData(pageSize)), page);
+                log.force();
+            }
+            changing();
+            if (pageIndex != null) {
+                for (HeapPage page : appended)
+                    writeCompressedPage(page.getId().pageNumber(), page.getPageData());
+            } else if (segments != null) {
+                ByteBuffer buf = pages.duplicate();
+                buf.limit(buf.position() + n * pageSize);
+                segments.write(first, buf);
+            } else {
+                ByteBuffer buf = pages.duplicate();
+                buf.limit(buf.position() + n * pageSize);
+                long offset = (long) first * pageSize - buf.position();
+                FileChannel ch = getChannel();
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+            }
+            for (HeapPage page : appended)
+                pageWritten(page);
+            if (tid != null) {
+                ArrayList<PageId> pids = new ArrayList<>(n);
+                for (HeapPage page : appended)
+                    pids.add(page.getId());
+                Database.getBufferPool().pagesWritten(tid, pids);
+            }
+            pageCount.set(first + n);
+        }
+        return appended;
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -105,19 +825,48 @@ public class HeapFile implements DbFile {
     }
 
     public void resetNumPages() {
-        pageCount.set((int)(f.length() / BufferPool.PAGE_SIZE));
-    }
-    public void incrNumPages() {
-        pageCount.set(pageCount.intValue()+1);
+        if (pageIndex != null)
+            pageCount.set(pageIndex.numPages());
+        else if (segments != null)
+            pageCount.set(segments.numPages());
+        else
+            pageCount.set((int) Math.min(Integer.MAX_VALUE, f.length() / pageSize));
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        ArrayList<Page> pages = new ArrayList<>();
-        Page page = Database.getBufferPool().insertTuple(tid, getId(), t);
-        pages.add(page);
-        return pages;
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+        BufferPool bufferPool = Database.getBufferPool();
+        int needed = spaceNeeded(t);
+        // no page of the file, not even a new one, could take the tuple
+        if (needed > emptyPageSpace())
+            throw new DbException("tuple does not fit on a page");
+        int pgNo = freeSpace.nextPage(needed, 0, numPages());
+        while (true) {
+            if (pgNo < 0)
+                pgNo = allocatePage();
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            if (!bufferPool.isLockedByOthers(tid, pid)) {
+                // pages not seen since the file was opened are probed
+                // through the pool, which learns their free space
+                int free = freeSpace.get(pgNo);
+                if (free == FreeSpaceMap.UNKNOWN || free >= needed) {
+                    HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                    if (page.canInsert(t)) {
+                        page.insertTuple(t);
+                        page.markDirty(true, tid);
+                        ArrayList<Page> pages = new ArrayList<>();
+                        pages.add(page);
+                        return pages;
+                    }
+                    freeSpace.update(pgNo, page.getFreeSpace());
+                    bufferPool.unpinPage(tid, pid);
+                }
+            }
+            pgNo = freeSpace.nextPage(needed, pgNo + 1, numPages());
+        }
     }
 
     // see DbFile.java for javadocs
@@ -126,16 +875,199 @@ public class HeapFile implements DbFile {
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(
                 tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        page.markDirty(true, tid);
         return page;
     }
 
+    /**
+     * Compacts this file online: moves the tuples of the last pages into
+     * free space on earlier pages, then truncates the pages left empty at
+     * the end of the file. The indexes of the table are kept up to date.
+     * <p>
+     * Every page emptied is a short {@link Transaction} of its own, logged
+     * and committed before the next page is started, so other transactions
+     * only ever wait for the few pages one step locks. Pages other
+     * transactions hold locks on are not used as targets; the compaction
+     * stops when the last page is locked by another transaction, when its
+     * tuples do not fit in the earlier pages, or when a step is aborted,
+     * keeping the steps done so far.
+     *
+     * @return the number of pages the file shrank by
+     */
+    public int compact() throws DbException, IOException {
+        int before = numPages();
+        for (int last = before - 1; last > 0; last--) {
+            Transaction xact = new Transaction();
+            xact.start();
+            boolean moved = false;
+            try {
+                moved = moveTuples(xact.getId(), last);
+            } catch (TransactionAbortedException e) {
+                moved = false;
+            } finally {
+                xact.transactionComplete(!moved);
+            }
+            if (!moved)
+                break;
+        }
+        truncateEmptyPages();
+        return before - numPages();
+    }
+
+    /**
+     * Moves all tuples of a page to earlier pages with room for them.
+     *
+     * @return false if the page is locked by others or a tuple did not fit,
+     * in which case tid has to be aborted
+     */
+    private boolean moveTuples(TransactionId tid, int pgNo)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        if (bufferPool.isLockedByOthers(tid, pid))
+            return false;
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        bufferPool.unpinPage(tid, pid);
+        for (Tuple t : tuples) {
+            HeapPage target = targetPage(tid, t, pgNo);
+            if (target == null)
+                return false;
+            Tuple copy = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++)
+                copy.setField(i, t.getField(i));
+            bufferPool.deleteTuple(tid, t);
+            target.markDirty(true, tid);
+            target.insertTuple(copy);
+            bufferPool.unpinPage(tid, target.getId());
+            for (IndexFile index : Database.getCatalog().getIndexes(getId())) {
+                for (Page indexPage : index.insertTuple(tid, copy)) {
+                    indexPage.markDirty(true, tid);
+                    bufferPool.unpinPage(tid, indexPage.getId());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds a page before the given one that has room for t and is not
+     * locked by other transactions, as insertTuple does without the end
+     * bound.
+     *
+     * @return the page, locked for writing, or null if there is none
+     */
+    private HeapPage targetPage(TransactionId tid, Tuple t, int end)
+            throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int needed = spaceNeeded(t);
+        for (int pgNo = freeSpace.nextPage(needed, 0, end); pgNo >= 0;
+                pgNo = freeSpace.nextPage(needed, pgNo + 1, end)) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            if (bufferPool.isLockedByOthers(tid, pid))
+                continue;
+            int free = freeSpace.get(pgNo);
+            if (free == FreeSpaceMap.UNKNOWN || free >= needed) {
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.canInsert(t))
+                    return page;
+                freeSpace.update(pgNo, page.getFreeSpace());
+                bufferPool.unpinPage(tid, pid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cuts the empty pages off the end of the file, keeping at least one
+     * page. The pages are locked for writing while the file is truncated,
+     * so no transaction can be using them.
+     */
+    private void truncateEmptyPages() throws DbException, IOException {
+        BufferPool bufferPool = Database.getBufferPool();
+        Transaction xact = new Transaction();
+        xact.start();
+        TransactionId tid = xact.getId();
+        try {
+            int count = numPages();
+            int end = count;
+            while (end > 1) {
+                HeapPageId pid = new HeapPageId(getId(), end - 1);
+                if (bufferPool.isLockedByOthers(tid, pid))
+                    break;
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.iterator().hasNext())
+                    break;
+                end--;
+            }
+            synchronized (this) {
+                // pages appended meanwhile are after the empty ones
+                if (end == count || numPages() != count)
+                    return;
+                for (int i = end; i < count; i++)
+                    bufferPool.discardPage(new HeapPageId(getId(), i));
+                window = null;
+                changing();
+                if (pageIndex != null)
+                    getChannel().truncate(pageIndex.truncate(end));
+                else if (segments != null)
+                    segments.truncate(end);
+                else
+                    getChannel().truncate((long) end * pageSize);
+                pageCount.set(end);
+            }
+        } catch (TransactionAbortedException e) {
+            // another transaction got in the way; keep the pages
+        } finally {
+            xact.commit();
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, (PageFilter) null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages that may hold a
+     * tuple satisfying all the given predicates, as told by
+     * {@link #mayMatch}. Other pages are neither locked nor read. The tuples
+     * of the pages read are all returned, whether they satisfy the
+     * predicates or not.
+     *
+     * @param predicates predicates on the fields of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, final List<Predicate> predicates) {
+        return iterator(tid, new PageFilter() {
+            public boolean mayMatch(int pgNo) {
+                for (Predicate p : predicates) {
+                    if (!HeapFile.this.mayMatch(pgNo, p))
+                        return false;
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns an iterator over the tuples of the pages the given filter
+     * lets through, or of all pages if the filter is null. Other pages are
+     * neither locked nor read.
+     */
+    public DbFileIterator iterator(TransactionId tid, final PageFilter filter) {
         final TransactionId transactionId = tid;
         return new DbFileIterator() {
             private boolean opened;
             private int pgNo = 0;
             private Iterator<Tuple> iterator;
+            private final ReadAhead readAhead = new ReadAhead(HeapFile.this, filter);
+            private BufferRing ring;
+            /** The pages fetched last, from page batchStart on. */
+            private List<Page> batch = Collections.emptyList();
+            private int batchStart;
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
@@ -148,9 +1080,8 @@ public class HeapFile implements DbFile {
                 if(!opened)
                     return false;
                 if(iterator.hasNext()) return true;
-                for(int i=pgNo+1;i<numPages();++i) {
-                    HeapPageId pid = new HeapPageId(getId(), i);
-                    HeapPage page  = (HeapPage)Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY);
+                for(int i=nextPage(pgNo+1);i<numPages();i=nextPage(i+1)) {
+                    HeapPage page = fetch(i);
                     if(page.getNumEmptySlots() != page.numSlots)
                         return true;
                 }
@@ -162,34 +1093,70 @@ public class HeapFile implements DbFile {
                 if(!opened)
                     throw new NoSuchElementException();
 
-                if(iterator.hasNext())
-                    return iterator.next();
-                else if(pgNo >= numPages()-1)
-                    throw new NoSuchElementException();
-
-                setTupleIterator(++pgNo);
-                return next();
+                while(!iterator.hasNext()) {
+                    pgNo = nextPage(pgNo+1);
+                    if(pgNo >= numPages())
+                        throw new NoSuchElementException();
+                    setTupleIterator(pgNo);
+                }
+                return iterator.next();
             }
 
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
-                pgNo = 0;
-                setTupleIterator(pgNo);
+                // a table much larger than the pool is read through a ring
+                ring = BufferRing.forScan(transactionId, numPages(), pageSize);
+                readAhead.cancel();
+                readAhead.setRing(ring);
+                batch = Collections.emptyList();
+                pgNo = nextPage(0);
+                if(pgNo < numPages())
+                    setTupleIterator(pgNo);
+                else
+                    iterator = Collections.<Tuple>emptyList().iterator();
             }
 
             @Override
             public void close() {
                 opened = false;
+                readAhead.cancel();
+                batch = Collections.emptyList();
+            }
 
+            /**
+             * @return the first page from num on that may hold a matching
+             * tuple, or numPages() if there is none.
+             */
+            private int nextPage(int num) {
+                while(num < numPages() && filter != null && !filter.mayMatch(num))
+                    ++num;
+                return num;
             }
 
             private void setTupleIterator(int num) throws TransactionAbortedException, DbException {
-                HeapPageId pid = new HeapPageId(getId(), num);
-                HeapPage page  = (HeapPage)Database.getBufferPool().getPage(transactionId, pid, Permissions.READ_ONLY);
-                iterator = page.iterator();
+                iterator = fetch(num).iterator();
+            }
+
+            /**
+             * Returns a page from the last batch, fetching the next batch
+             * from the page on if the page is not in it. A batch ends
+             * before the first page the filter passes over.
+             */
+            private HeapPage fetch(int num) throws TransactionAbortedException, DbException {
+                if(num < batchStart || num >= batchStart + batch.size()) {
+                    BufferPool pool = Database.getBufferPool();
+                    int limit = Math.min(numPages(),
+                            num + Math.min(SCAN_BATCH_PAGES, Math.max(1, pool.getNumPages(pageSize) / 4)));
+                    int end = num + 1;
+                    while(end < limit && (filter == null || filter.mayMatch(end)))
+                        ++end;
+                    readAhead.reached(num, end);
+                    batch = pool.getPages(transactionId, getId(), num, end, Permissions.READ_ONLY, ring);
+                    batchStart = num;
+                }
+                return (HeapPage)batch.get(num - batchStart);
             }
         };
     }
 
 }
-
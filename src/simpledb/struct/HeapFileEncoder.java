@@ -4,7 +4,9 @@ import simpledb.Type;
 import simpledb.Utility;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -108,6 +110,7 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    HeapFile.deleteSideFiles(outFile);
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -226,4 +229,167 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file made of
+   * variable length SlottedHeapPages. The input format is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}; string fields only
+   * take as many bytes on disk as they need.
+   *
+   * @see SlottedHeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      HeapFile.deleteSideFiles(outFile);
+      FileOutputStream os = new FileOutputStream(outFile);
+
+      List<byte[]> pageTuples = new ArrayList<byte[]>();
+      int free = npagebytes - SlottedHeapPage.HEADER_SIZE;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (values.length < numFields) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < numFields; i++) {
+                  String v = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(v)));
+                  else
+                      t.setField(i, new StringField(v, Type.STRING_LEN));
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          byte[] enc = SlottedHeapPage.encodeTuple(t);
+          if (SlottedHeapPage.spaceNeeded(enc.length) > free) {
+              os.write(SlottedHeapPage.createPageData(pageTuples, npagebytes));
+              npages++;
+              pageTuples.clear();
+              free = npagebytes - SlottedHeapPage.HEADER_SIZE;
+          }
+          pageTuples.add(enc);
+          free -= SlottedHeapPage.spaceNeeded(enc.length);
+      }
+      // flush the last page; an empty file still gets one empty page
+      if (!pageTuples.isEmpty() || npages == 0)
+          os.write(SlottedHeapPage.createPageData(pageTuples, npagebytes));
+      br.close();
+      os.close();
+  }
+
+  /** Convert the specified input text file into a binary page file made of
+   * PaxPages, which store each column of a page contiguously. The input
+   * format is the same as for {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see PaxPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      // encode row pages first, then transpose each page into minipages
+      File rowFile = File.createTempFile("paxTable", ".dat");
+      rowFile.deleteOnExit();
+      convert(inFile, rowFile, npagebytes, numFields, typeAr, fieldSeparator);
+
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFile)));
+      HeapFile.deleteSideFiles(outFile);
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] rowPage = new byte[npagebytes];
+      long npages = rowFile.length() / npagebytes;
+      for (long i = 0; i < npages; i++) {
+          is.readFully(rowPage);
+          os.write(PaxPage.fromRowPage(rowPage, typeAr));
+      }
+      is.close();
+      os.close();
+      rowFile.delete();
+  }
+
+  /** Rewrites a file of uncompressed pages, as written by the convert
+   * methods, as a compressed HeapFile: every page is deflated into its own
+   * extent of outFile and a {@link PageIndex} is written next to it.
+   *
+   * @see PageIndex
+   * @param pageFile The file of uncompressed pages to read
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in pageFile
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void compress(File pageFile, File outFile, int npagebytes)
+      throws IOException {
+      DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(pageFile)));
+      HeapFile.deleteSideFiles(outFile);
+      RandomAccessFile os = new RandomAccessFile(outFile, "rw");
+      os.setLength(0);
+      PageIndex index = new PageIndex(outFile);
+      byte[] page = new byte[npagebytes];
+      long npages = pageFile.length() / npagebytes;
+      for (int i = 0; i < npages; i++) {
+          is.readFully(page);
+          byte[] compressed = PageIndex.compress(page);
+          long[] extent = index.place(i, compressed.length);
+          os.seek(extent[0]);
+          os.write(compressed);
+          index.record(i, extent[0], compressed.length, (int) extent[1]);
+      }
+      is.close();
+      os.close();
+      index.close();
+  }
+
+  /** Splits a file of uncompressed pages, as written by the convert
+   * methods, into {@link Segments} of segmentPages pages each: the data
+   * file keeps the pages of the first segment, and the others move to
+   * segment files next to it.
+   *
+   * @see Segments
+   * @param dataFile The file of uncompressed pages to split
+   * @param npagebytes The number of bytes per page in dataFile
+   * @param segmentPages The number of pages per segment
+   * @throws IOException if the data file or a segment file can't be opened
+   */
+  public static void segment(File dataFile, int npagebytes, int segmentPages)
+      throws IOException {
+      if (PageIndex.isCompressed(dataFile) || Segments.isSegmented(dataFile))
+          throw new IllegalArgumentException(dataFile + " is compressed or segmented already");
+      // segment files left over from an earlier layout
+      Segments.deleteFiles(dataFile);
+      long segmentBytes = (long) segmentPages * npagebytes;
+      try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+          FileChannel in = raf.getChannel();
+          long size = in.size();
+          for (int i = 1; (long) i * segmentBytes < size; i++) {
+              try (RandomAccessFile out = new RandomAccessFile(Segments.segmentFile(dataFile, i), "rw")) {
+                  out.setLength(0);
+                  long start = (long) i * segmentBytes;
+                  long end = Math.min(size, start + segmentBytes);
+                  for (long pos = start; pos < end; )
+                      pos += in.transferTo(pos, end - pos, out.getChannel());
+              }
+          }
+          in.truncate(Math.min(size, segmentBytes));
+      }
+      Segments.create(dataFile, segmentPages);
+  }
 }
@@ -17,12 +17,14 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
+    /** The page image; the header bytes are at the front of this array. */
+    byte data[];
+    int headerSize;
     int numSlots;
     boolean dirty;
     private TransactionId dirtyTid;
 
+    /** Before image, or null if it is the same as the current content. */
     byte[] oldData;
 
     /**
@@ -30,46 +32,36 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of its file, see {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps its own copy of data as the only representation of its
+     * contents. Tuples are decoded from it when they are handed out, and
+     * inserts and deletes write straight into the slot and header bytes.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDbFile(id.getTableId());
+        this.td = file.getTupleDesc();
+        this.data = Arrays.copyOf(data, file.getPageSize());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        return (data.length * 8) / (td.getSize() * 8 + 1);
 
     }
 
@@ -85,7 +77,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData : data);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -94,8 +86,17 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Makes the current content the before image. Nothing is copied until a
+     * transaction is about to modify the page again.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (oldData == null)
+            oldData = getPageData();
     }
 
     /**
@@ -106,21 +107,18 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the offset of the given slot within the page image.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /**
+     * Decodes the tuple stored in the given slot, which must be in use.
+     */
+    Tuple readTuple(int slotId) throws NoSuchElementException {
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(data, slotOffset(slotId), td.getSize()));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -139,6 +137,39 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Returns the tuple in the given slot, or null if the slot is empty.
+     */
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
+            return null;
+        return readTuple(slotId);
+    }
+
+    /**
+     * Encodes the fields of t into the bytes of the given slot.
+     */
+    void writeTuple(int slotId, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, slotOffset(slotId), td.getSize());
+    }
+
+    /**
+     * Zeroes the bytes of the given slot.
+     */
+    void clearSlot(int slotId) {
+        Arrays.fill(data, slotOffset(slotId), slotOffset(slotId + 1), (byte) 0);
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -151,64 +182,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -221,8 +195,19 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the image of an empty page of the given size, as used by
+     * files whose pages are not of the default size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    public int getPageSize() {
+        return data.length;
     }
 
     /**
@@ -233,12 +218,17 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        int slotNum = t.getRecordId().tupleno();
-        if(tuples[slotNum] == null || !tuples[slotNum].equals(t))
+        RecordId rid = t.getRecordId();
+        if(rid == null || !pid.equals(rid.getPageId()))
             throw new DbException("this tuple is not on this page");
+        int slotNum = rid.tupleno();
         if(!isSlotUsed(slotNum))
             throw new DbException("slot is empty");
+        if(!readTuple(slotNum).equals(t))
+            throw new DbException("this tuple is not on this page");
         markSlotUsed(slotNum, false);
+        clearSlot(slotNum);
+        freeSpaceChanged();
     }
 
     /**
@@ -255,15 +245,37 @@ public class HeapPage implements Page {
         if(!t.getTupleDesc().equals(td))
             throw new DbException("tupledesc is mismatch");
 
-        int nheaderbits = getNumTuples();
-        for(int i=0; i< nheaderbits; ++i) {
+        for(int i=0; i< numSlots; ++i) {
             if (!isSlotUsed(i)) {
+                writeTuple(i, t);
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
                 break;
             }
         }
+        freeSpaceChanged();
+        tupleInserted(t);
+    }
+
+    /**
+     * Keeps the free space map of the file this page belongs to up to date
+     * after an insert or delete.
+     */
+    void freeSpaceChanged() {
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).getFreeSpaceMap().update(pid.pageNumber(), getFreeSpace());
+    }
+
+    /**
+     * Widens the zone map entry and Bloom filters of this page to cover t
+     * after an insert. Deletes need no call, the entries are narrowed when
+     * the page is written.
+     */
+    void tupleInserted(Tuple t) {
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (file instanceof HeapFile)
+            ((HeapFile) file).tupleInserted(pid.pageNumber(), t);
     }
 
     /**
@@ -271,6 +283,8 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            captureBeforeImage();
         this.dirty = dirty;
         this.dirtyTid = tid;
     }
@@ -284,17 +298,32 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Returns true if t can be added to this page by insertTuple.
+     */
+    public boolean canInsert(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns the room left on this page as recorded in the free space map:
+     * the number of empty slots.
+     *
+     * @see FreeSpaceMap
+     */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int nheaderbits = getNumTuples();
-        int result = 0;
-        for(int i=0; i< nheaderbits; ++i) {
-            if(!isSlotUsed(i))
-                ++result;
-        }
-        return result;
+        // header bits past numSlots are always clear
+        int used = 0;
+        for(int i=0; i< headerSize; ++i)
+            used += Integer.bitCount(data[i] & 0xff);
+        return numSlots - used;
     }
 
     /**
@@ -306,7 +335,7 @@ public class HeapPage implements Page {
          * for example, if first 2 slot in a header is used,
          * the byte should be "0 0 0 0 0 0 1 1"
          */
-        return ((header[i / 8] >> (i % 8)) & 1) == 1;
+        return ((data[i / 8] >> (i % 8)) & 1) == 1;
     }
 
     /**
@@ -314,9 +343,9 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         if(value)
-            header[i/8] |= (1 << (i % 8));
+            data[i/8] |= (1 << (i % 8));
         else
-            header[i/8] &= ~(1 << (i % 8));
+            data[i/8] &= ~(1 << (i % 8));
     }
 
     /**
@@ -324,13 +353,35 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> retTuples = new ArrayList<>();
-        for(int i=0; i<getNumTuples(); ++i) {
-            if(isSlotUsed(i))
-                retTuples.add(tuples[i]);
-        }
-        return retTuples.iterator();
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = readTuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
-}
+    private int nextUsedSlot(int from) {
+        int i = from;
+        while (i < numSlots && !isSlotUsed(i))
+            ++i;
+        return i;
+    }
 
+}
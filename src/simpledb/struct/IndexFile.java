@@ -0,0 +1,61 @@
+package simpledb.struct;
+
+import simpledb.TransactionId;
+import simpledb.Type;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+
+/**
+ * IndexFile is a DbFile that indexes one field of a HeapFile. Its
+ * insertTuple and deleteTuple take tuples of the indexed table, with their
+ * record ids set, and add or remove their entries; BufferPool calls them
+ * for every index the Catalog knows of the table.
+ * <p>
+ * The tuples returned by its iterators are index entries with the
+ * TupleDesc (key, pageno, slot): the key and the position of the indexed
+ * tuple in its table.
+ *
+ * @see BTreeFile
+ * @see ExtendibleHashFile
+ * @see simpledb.Catalog#addIndex
+ */
+public interface IndexFile extends DbFile, Closeable {
+
+    /**
+     * @return the id of the indexed table.
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the indexed field in that table.
+     */
+    public int getKeyField();
+
+    /**
+     * @return the type of the indexed field.
+     */
+    public Type getKeyType();
+
+    public int numPages();
+
+    /**
+     * @return true if indexIterator can answer predicates with operator op.
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries whose key k satisfies
+     * <tt>k op key</tt>.
+     *
+     * @throws UnsupportedOperationException if the index does not support op
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key);
+
+    /**
+     * Rebuilds the index from the current contents of table, reading it
+     * directly from disk and bypassing the BufferPool. Meant for opening a
+     * database, before any transaction runs.
+     */
+    public void rebuild(HeapFile table) throws IOException;
+}
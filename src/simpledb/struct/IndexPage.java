@@ -0,0 +1,122 @@
+package simpledb.struct;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * IndexPage holds what the pages of the index files have in common: the
+ * page id, the key type of the index and the dirty and before image state
+ * used by the BufferPool and the log.
+ * <p>
+ * The first byte of every page image is the page type, whose values each
+ * kind of index defines. Subclasses decode the rest of the page when they
+ * are constructed, through {@link #pageReader}, and encode it again in
+ * getPageData, through {@link #createPageData}.
+ *
+ * @see IndexFile
+ */
+public abstract class IndexPage<I extends IndexPageId> implements Page {
+
+    final I pid;
+    final Type keyType;
+    private boolean dirty;
+    private TransactionId dirtyTid;
+
+    /** Before image, or null if it is the same as the current content. */
+    byte[] oldData;
+
+    IndexPage(I id) {
+        this.pid = id;
+        this.keyType = ((IndexFile) Database.getCatalog().getDbFile(id.getTableId())).getKeyType();
+    }
+
+    /**
+     * @return the page type stored in a page image.
+     */
+    public static byte pageType(byte[] data) {
+        return data[0];
+    }
+
+    /**
+     * The part of a page image after the page type.
+     */
+    interface Body {
+        void write(DataOutputStream dos) throws IOException;
+    }
+
+    /**
+     * @return a stream over a page image, past the page type.
+     */
+    static DataInputStream pageReader(byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        return dis;
+    }
+
+    /**
+     * @param what what the body holds, for the error if it does not fit
+     * @return the page image of the given page type and body, padded to
+     * the page size.
+     * @throws IllegalArgumentException if the body does not fit on a page
+     */
+    static byte[] createPageData(byte type, String what, Body body) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(type);
+            body.write(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        if (baos.size() > BufferPool.PAGE_SIZE)
+            throw new IllegalArgumentException(what + " do not fit on one page");
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public I getId() {
+        return pid;
+    }
+
+    /**
+     * @return the image getBeforeImage should build its page from.
+     */
+    byte[] beforeImageData() {
+        return oldData != null ? oldData : getPageData();
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            captureBeforeImage();
+        this.dirty = dirty;
+        this.dirtyTid = tid;
+    }
+
+    public TransactionId isDirty() {
+        if (dirty)
+            return dirtyTid;
+        return null;
+    }
+
+    /**
+     * Turns an IOException from decoding a page image into the error
+     * reported by getBeforeImage, which cannot throw.
+     */
+    static void beforeImageFailed(IOException e) {
+        e.printStackTrace();
+        //should never happen -- we parsed it OK before!
+        System.exit(1);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+
+/**
+ * Unique identifier for the pages of an index file. Each kind of index
+ * has its own subclass, so that the ids of pages of different kinds are
+ * never equal.
+ */
+public abstract class IndexPageId implements PageId {
+
+    private int tableId_;
+    private int pgNo_;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The id of the index file that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    IndexPageId(int tableId, int pgNo) {
+        tableId_ = tableId;
+        pgNo_ = pgNo;
+    }
+
+    /** @return the id of the index file associated with this PageId */
+    public int getTableId() {
+        return tableId_;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo_;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the table number and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        final int PRIME = 31;
+        int result = 19;
+        result = PRIME * result + tableId_;
+        result = PRIME * result + pgNo_;
+        return result;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if(o == null) return false;
+        if(this == o) return true;
+        if(getClass() != o.getClass()) return false;
+        IndexPageId ipid = (IndexPageId)o;
+        return tableId_ == ipid.getTableId() &&
+                pgNo_ == ipid.pageNumber();
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+
+    /**
+     * @return the name of the kind of index, for toString.
+     */
+    abstract String kind();
+
+    @Override
+    public String toString() {
+        return kind() + " tableId: " + tableId_ + ", pageNo: " + pageNumber();
+    }
+
+}
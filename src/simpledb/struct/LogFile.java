@@ -153,15 +153,16 @@ public class LogFile {
 
         synchronized (Database.getBufferPool()) {
 
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord); it writes
+            // pages without holding the lock of the log
+            rollback(tid);
+
             synchronized(this) {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
-
                 raf.writeInt(ABORT_RECORD);
                 raf.writeLong(tid.getId());
                 raf.writeLong(currentOffset);
@@ -191,7 +192,9 @@ public class LogFile {
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  The first
+        record of a transaction that logged no BEGIN record is where
+        its rollback starts.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -203,6 +206,7 @@ public class LogFile {
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), currentOffset);
         /* update record conists of
 
            record type
@@ -219,6 +223,9 @@ public class LogFile {
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
 
+        // the before image now lives in the log; the page can drop its copy
+        after.setBeforeImage();
+
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
@@ -462,19 +469,65 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        The first before image the log holds of each page the
+        transaction updated is written to the page's file, and the page
+        is discarded from the buffer pool.
 
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
+            LinkedHashMap<PageId, Page> before = new LinkedHashMap<PageId, Page>();
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    return;
+                long end = raf.length();
+                raf.seek(first);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page image = readPageData(raf);
+                        readPageData(raf);
+                        // later records hold images the transaction made
+                        if (recordTid == tid.getId() && !before.containsKey(image.getId()))
+                            before.put(image.getId(), image);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(end);
             }
+            restore(before.values());
         }
     }
 
+    /** Write before images back to the files of their pages, discard
+        the pages from the buffer pool and force the files, so that a
+        transaction ended after its rollback is not undone again by
+        recovery.
+    */
+    private void restore(Collection<Page> images) throws IOException {
+        Set<Integer> tables = new HashSet<Integer>();
+        for (Page page : images) {
+            PageId pid = page.getId();
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+            Database.getBufferPool().discardPage(pid);
+            tables.add(pid.getTableId());
+        }
+        for (int tableId : tables)
+            Database.getCatalog().getDbFile(tableId).force();
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -489,17 +542,98 @@ public class LogFile {
         }
     }
 
+    /** Close the log file without writing a checkpoint, as a crash
+        would leave it, so that it can be recovered from by another
+        LogFile on the same file.
+    */
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        A transaction forces the pages it changed before its COMMIT
+        record is written, so the updates of committed transactions are
+        on disk already. Pages of transactions that did not end may have
+        been written out early by the buffer pool; each of them gets the
+        first before image the log holds of it, and an ABORT record is
+        written for the transaction. A record cut short by the crash
+        ends the log. The catalog must hold the tables of the log.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
+            Map<Long, LinkedHashMap<PageId, Page>> losers =
+                new HashMap<Long, LinkedHashMap<PageId, Page>>();
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                tidToFirstLogRecord.clear();
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                long end = LONG_SIZE;
+                raf.seek(end);
+                try {
+                    while (true) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        switch (type) {
+                        case BEGIN_RECORD:
+                            tidToFirstLogRecord.putIfAbsent(recordTid, end);
+                            losers.putIfAbsent(recordTid, new LinkedHashMap<PageId, Page>());
+                            break;
+                        case UPDATE_RECORD:
+                            Page image = readPageData(raf);
+                            readPageData(raf);
+                            tidToFirstLogRecord.putIfAbsent(recordTid, end);
+                            losers.computeIfAbsent(recordTid, k -> new LinkedHashMap<PageId, Page>())
+                                .putIfAbsent(image.getId(), image);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            tidToFirstLogRecord.remove(recordTid);
+                            losers.remove(recordTid);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        default:
+                            throw new EOFException("bad log record type " + type);
+                        }
+                        raf.readLong();
+                        end = raf.getFilePointer();
+                    }
+                } catch (EOFException e) {
+                    // the last record was not written completely
+                }
+                raf.setLength(end);
+                raf.seek(end);
+                currentOffset = end;
+            }
+
+            for (LinkedHashMap<PageId, Page> before : losers.values())
+                restore(before.values());
+
+            synchronized (this) {
+                for (long tid : losers.keySet()) {
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                    tidToFirstLogRecord.remove(tid);
+                }
+                force();
             }
-         }
+        }
+    }
+
+    /** @return true if the log holds records of the transaction, which
+        has not committed or aborted yet */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
     }
 
     /** Print out a human readable represenation of the log */
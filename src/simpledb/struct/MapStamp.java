@@ -0,0 +1,100 @@
+package simpledb.struct;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MapStamp ties a map kept in a file next to the data file of a HeapFile,
+ * such as its {@link ZoneMap} or a {@link BloomFilterMap}, to the data
+ * file. The map file starts with a
+ * header of {@link #SIZE} bytes which, once stamped, holds the number of
+ * pages, the length and the modification time of the data file as of the
+ * last time both files were forced together. A map whose stamp does not
+ * match its data file, because the data file was replaced, or written and
+ * not forced along with the map before a crash, is not trusted.
+ * <p>
+ * The header is cleared, and the clearing forced, before the data file is
+ * first written after the map was stamped.
+ */
+final class MapStamp {
+
+    /** Bytes of the header in front of the entries of a map file. */
+    static final int SIZE = 24;
+
+    private static final int STAMPED = 0x5354414d;
+
+    private final HeapFile heapFile;
+    /** Whether the header on disk is stamped. */
+    private boolean stamped;
+
+    MapStamp(HeapFile heapFile) {
+        this.heapFile = heapFile;
+    }
+
+    /**
+     * @return true if the header of the map file matches the data file.
+     */
+    boolean check(FileChannel ch) throws IOException {
+        stamped = false;
+        if (ch.size() < SIZE)
+            return false;
+        ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) < 0)
+                return false;
+        }
+        buf.flip();
+        File data = heapFile.getFile();
+        stamped = buf.getInt() == STAMPED
+                && buf.getInt() == heapFile.numPages()
+                && buf.getLong() == data.length()
+                && buf.getLong() == data.lastModified();
+        return stamped;
+    }
+
+    /**
+     * Drops the entries of a map file that did not pass {@link #check}.
+     */
+    void reset(FileChannel ch) throws IOException {
+        ch.truncate(0);
+        stamped = false;
+    }
+
+    /**
+     * Clears the stamp before the data file is written, if the map is
+     * stamped.
+     */
+    void clear(FileChannel ch) throws IOException {
+        if (!stamped)
+            return;
+        write(ch, ByteBuffer.allocate(SIZE));
+        ch.force(false);
+        stamped = false;
+    }
+
+    /**
+     * Forces the map file and stamps it with the state of the data file,
+     * which has just been forced, unless the data file was written after
+     * the given count of writes (see {@link HeapFile#writes}).
+     */
+    void stamp(FileChannel ch, long writes) throws IOException {
+        if (stamped || writes != heapFile.writes())
+            return;
+        ch.force(false);
+        File data = heapFile.getFile();
+        ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        buf.putInt(STAMPED).putInt(heapFile.numPages())
+                .putLong(data.length()).putLong(data.lastModified());
+        buf.flip();
+        write(ch, buf);
+        ch.force(false);
+        stamped = true;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            ch.write(buf, buf.position());
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb.struct;
 
+import simpledb.BufferPool;
 import simpledb.TransactionId;
 
 /**
@@ -58,4 +59,19 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Called before a transaction modifies this page. Keeps a copy of the
+     * current content as the before image, unless one has already been
+     * kept since the page was last committed or logged.
+     */
+    public void captureBeforeImage();
+
+    /**
+     * @return the number of bytes this page takes in the BufferPool, the
+     * page size of its DbFile.
+     */
+    public default int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
 }
@@ -0,0 +1,17 @@
+package simpledb.struct;
+
+/**
+ * PageFilter tells a HeapFile iterator which pages it has to read. It is
+ * asked once per page as the iterator reaches it, so a filter may change
+ * between rewinds of the iterator.
+ *
+ * @see HeapFile#iterator(simpledb.TransactionId, PageFilter)
+ */
+public interface PageFilter {
+
+    /**
+     * @return false if no tuple the scan is looking for can be on the given
+     *         page of the file, true if one may be.
+     */
+    public boolean mayMatch(int pgNo);
+}
@@ -0,0 +1,241 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PageIndex locates the pages of a compressed HeapFile. In a compressed
+ * file every page is deflated on its own and stored in an extent of the
+ * data file; the extents are not in page order and not of equal size. The
+ * index records, for each page number, the offset of its extent, the length
+ * of the compressed image and the capacity of the extent.
+ * <p>
+ * The index is stored next to the data file in a file with the ".pgidx"
+ * suffix, {@link #ENTRY_SIZE} bytes per page, and its existence is what
+ * marks a data file as compressed. It is loaded completely when the file is
+ * opened.
+ * <p>
+ * A page that still fits in its extent is rewritten in place; otherwise it
+ * moves to a new extent at the end of the file and the old one is left
+ * unused.
+ *
+ * @see HeapFile
+ * @see HeapFileEncoder#compress
+ */
+public class PageIndex implements Closeable {
+
+    /** Bytes per index entry: a long offset, an int length and an int capacity. */
+    public static final int ENTRY_SIZE = 16;
+
+    /** Extents are allocated in multiples of this many bytes. */
+    public static final int EXTENT_ALIGNMENT = 256;
+
+    private final File file;
+    private int numPages;
+    private long[] offsets;
+    private int[] lengths;
+    private int[] capacities;
+    /** The end of the last extent in the data file. */
+    private long dataEnd;
+    private transient FileChannel channel;
+
+    /**
+     * Opens the index of the given data file, reading all entries of an
+     * existing index file.
+     */
+    public PageIndex(File dataFile) throws IOException {
+        this.file = fileFor(dataFile);
+        offsets = new long[16];
+        lengths = new int[16];
+        capacities = new int[16];
+        if (!file.exists())
+            return;
+        FileChannel ch = getChannel();
+        ByteBuffer buf = ByteBuffer.allocate((int) (ch.size() / ENTRY_SIZE * ENTRY_SIZE));
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) < 0)
+                break;
+        }
+        buf.flip();
+        int pgNo = 0;
+        while (buf.remaining() >= ENTRY_SIZE) {
+            set(pgNo++, buf.getLong(), buf.getInt(), buf.getInt());
+        }
+    }
+
+    /**
+     * @return the file the page index of the given data file is stored in.
+     */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".pgidx");
+    }
+
+    /**
+     * @return true if the given data file is stored compressed.
+     */
+    public static boolean isCompressed(File dataFile) {
+        return fileFor(dataFile).exists();
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    private void set(int pgNo, long offset, int length, int capacity) {
+        if (pgNo >= offsets.length) {
+            int size = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+        dataEnd = Math.max(dataEnd, offset + capacity);
+    }
+
+    /**
+     * @return the number of pages that have an entry in the index.
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the offset of the extent of the given page, or -1 if the page
+     * has not been written yet.
+     */
+    public synchronized long offset(int pgNo) {
+        return pgNo < numPages && capacities[pgNo] > 0 ? offsets[pgNo] : -1;
+    }
+
+    /**
+     * @return the length of the compressed image of the given page.
+     */
+    public synchronized int length(int pgNo) {
+        return pgNo < numPages ? lengths[pgNo] : 0;
+    }
+
+    /**
+     * Chooses where a compressed page image of the given length is written:
+     * its current extent if it fits, otherwise a new extent reserved at the
+     * end of the data file. The entry is only changed by {@link #record}
+     * once the image is on disk.
+     *
+     * @return the offset and the capacity of the extent to write.
+     */
+    public synchronized long[] place(int pgNo, int length) {
+        if (pgNo < numPages && capacities[pgNo] >= length)
+            return new long[] {offsets[pgNo], capacities[pgNo]};
+        long capacity = (length + EXTENT_ALIGNMENT - 1) / EXTENT_ALIGNMENT * EXTENT_ALIGNMENT;
+        long offset = dataEnd;
+        dataEnd += capacity;
+        return new long[] {offset, capacity};
+    }
+
+    /**
+     * Points the entry of a page at the extent its image was written to and
+     * persists the entry.
+     */
+    public synchronized void record(int pgNo, long offset, int length, int capacity)
+            throws IOException {
+        set(pgNo, offset, length, capacity);
+        ByteBuffer buf = ByteBuffer.allocate(ENTRY_SIZE);
+        buf.putLong(offset).putInt(length).putInt(capacity).flip();
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, (long) pgNo * ENTRY_SIZE + buf.position());
+    }
+
+    /**
+     * Forces the entries recorded so far onto the storage device.
+     */
+    public synchronized void force() throws IOException {
+        if (channel != null && channel.isOpen())
+            channel.force(false);
+    }
+
+    /**
+     * Drops the entries of the pages from n on, as done when the end of a
+     * HeapFile is truncated.
+     *
+     * @return the end of the last extent still in use, past which the data
+     * file can be truncated.
+     */
+    public synchronized long truncate(int n) throws IOException {
+        if (n >= numPages)
+            return dataEnd;
+        numPages = n;
+        dataEnd = 0;
+        for (int i = 0; i < n; i++)
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        getChannel().truncate((long) n * ENTRY_SIZE);
+        return dataEnd;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Deflates a page image.
+     */
+    public static byte[] compress(byte[] page) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(page);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(page.length / 4);
+            byte[] buf = new byte[1024];
+            while (!deflater.finished())
+                out.write(buf, 0, deflater.deflate(buf));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates a page image written by {@link #compress}.
+     */
+    public static byte[] decompress(byte[] data, int length) throws IOException {
+        return decompress(data, length, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Inflates a page image of the given page size written by
+     * {@link #compress}.
+     */
+    public static byte[] decompress(byte[] data, int length, int pageSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 0, length);
+            byte[] page = new byte[pageSize];
+            int n = 0;
+            while (n < page.length && !inflater.finished()) {
+                int r = inflater.inflate(page, n, page.length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("truncated compressed page");
+                n += r;
+            }
+            return page;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
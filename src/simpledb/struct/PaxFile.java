@@ -0,0 +1,40 @@
+package simpledb.struct;
+
+import java.io.*;
+
+/**
+ * PaxFile is a HeapFile whose pages are PaxPages: within a page the values
+ * of each column are stored contiguously. Scans over a PaxFile only decode
+ * the columns that operators actually read, which suits analytical queries
+ * that touch a few columns of a wide table.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            table.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, whose pages are
+     * of the given size.
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, false, pageSize);
+    }
+
+    @Override
+    public HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
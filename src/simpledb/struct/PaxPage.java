@@ -0,0 +1,211 @@
+package simpledb.struct;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxPage is a HeapPage whose slot area is stored column by column
+ * (PAX-style minipages) instead of tuple by tuple.
+ * <p>
+ * The header is the same used-slot bitmap as in HeapPage and the page has
+ * the same number of slots. After the header come one minipage per field,
+ * in field order; minipage j holds the values of field j for every slot,
+ * each taking td.getFieldType(j).getLen() bytes.
+ * <p>
+ * Tuples handed out by the iterator decode a field only when it is first
+ * asked for, so a scan that only looks at a few columns of a wide table
+ * only decodes those. Int columns are decoded a whole minipage at a time
+ * into an int[] that is kept until the page is modified. A tuple decodes
+ * from the image of the page it was handed out from: the first change
+ * after tuples were handed out writes to a copy of the image.
+ *
+ * @see PaxFile
+ * @see HeapFileEncoder#convertPax
+ */
+public class PaxPage extends HeapPage {
+
+    private final int[] columnOffsets;
+    private transient int[][] intColumns;
+    /** Whether tuples handed out decode from the current image. */
+    private transient boolean shared;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        Type[] types = new Type[td.numFields()];
+        for (int j = 0; j < types.length; j++)
+            types[j] = td.getFieldType(j);
+        columnOffsets = columnOffsets(types, headerSize, numSlots);
+        intColumns = new int[types.length][];
+    }
+
+    /**
+     * @return the page offset of each field's minipage, for a page with the
+     * given header size and number of slots.
+     */
+    static int[] columnOffsets(Type[] types, int headerSize, int numSlots) {
+        int[] offsets = new int[types.length];
+        int offset = headerSize;
+        for (int j = 0; j < types.length; j++) {
+            offsets[j] = offset;
+            offset += numSlots * types[j].getLen();
+        }
+        return offsets;
+    }
+
+    /**
+     * Rearranges a row-major HeapPage image into the PaxPage layout. Both
+     * pages have the same header and number of slots.
+     */
+    public static byte[] fromRowPage(byte[] rowPage, Type[] types) {
+        int tupleSize = 0;
+        for (Type t : types)
+            tupleSize += t.getLen();
+        int numSlots = (rowPage.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (int) Math.ceil(numSlots / 8.0);
+        int[] offsets = columnOffsets(types, headerSize, numSlots);
+
+        byte[] page = new byte[rowPage.length];
+        System.arraycopy(rowPage, 0, page, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            int rowOffset = headerSize + i * tupleSize;
+            for (int j = 0; j < types.length; j++) {
+                int len = types[j].getLen();
+                System.arraycopy(rowPage, rowOffset, page, offsets[j] + i * len, len);
+                rowOffset += len;
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, oldData != null ? oldData : data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    private int fieldOffset(int slotId, int field) {
+        return columnOffsets[field] + slotId * td.getFieldType(field).getLen();
+    }
+
+    /**
+     * @return the values of an int field for every slot of this page. Empty
+     * slots read as 0. The array must not be modified.
+     */
+    public int[] getIntColumn(int field) {
+        int[] column = intColumns[field];
+        if (column == null) {
+            column = new int[numSlots];
+            int offset = columnOffsets[field];
+            for (int i = 0; i < numSlots; i++, offset += 4) {
+                column[i] = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                        | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            }
+            intColumns[field] = column;
+        }
+        return column;
+    }
+
+    /**
+     * Decodes one field of the tuple in the given slot of a page image,
+     * the current one or one the page had before it was changed.
+     */
+    Field readField(byte[] image, int slotId, int field) {
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE && image == data)
+            return new IntField(getIntColumn(field)[slotId]);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                image, fieldOffset(slotId, field), type.getLen()));
+        try {
+            return type.parse(dis);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    @Override
+    Tuple readTuple(int slotId) throws NoSuchElementException {
+        shared = true;
+        return new PaxTuple(this, data, slotId);
+    }
+
+    /**
+     * Makes the image ready for a change: tuples handed out keep decoding
+     * from the image they were handed out from, which is left as it is.
+     */
+    private void beforeChange() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+        intColumns = new int[td.numFields()][];
+    }
+
+    @Override
+    void writeTuple(int slotId, Tuple t) {
+        beforeChange();
+        for (int j = 0; j < td.numFields(); j++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getFieldType(j).getLen());
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                t.getField(j).serialize(dos);
+                dos.flush();
+            } catch (IOException e) {
+                // this really shouldn't happen
+                e.printStackTrace();
+            }
+            System.arraycopy(baos.toByteArray(), 0, data, fieldOffset(slotId, j), td.getFieldType(j).getLen());
+        }
+    }
+
+    @Override
+    void clearSlot(int slotId) {
+        beforeChange();
+        for (int j = 0; j < td.numFields(); j++) {
+            int offset = fieldOffset(slotId, j);
+            Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+        }
+    }
+
+    /**
+     * A tuple of a PaxPage whose fields are decoded on first access, from
+     * the image of the page it was handed out from.
+     */
+    private static class PaxTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient PaxPage page;
+        private final transient byte[] image;
+        private final int slotId;
+
+        PaxTuple(PaxPage page, byte[] image, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.image = image;
+            this.slotId = slotId;
+            setRecordId(new RecordId(page.pid, slotId));
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null) {
+                f = page.readField(image, slotId, i);
+                setField(i, f);
+            }
+            return f;
+        }
+    }
+}
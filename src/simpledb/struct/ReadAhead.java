@@ -0,0 +1,174 @@
+package simpledb.struct;
+
+import simpledb.BufferPool;
+import simpledb.BufferRing;
+import simpledb.Database;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead loads the pages a HeapFile iterator is about to read into the
+ * BufferPool in the background, so that reading the next pages overlaps
+ * with processing the tuples of the current one.
+ * <p>
+ * Read-ahead starts once the iterator has moved on from its first batch of
+ * pages, and keeps up to depth pages ahead of the batch it fetched last,
+ * leaving out the pages the iterator's {@link PageFilter} passes over. The
+ * depth starts at
+ * {@link #MIN_DEPTH} and follows the rate at which the iterator consumes
+ * pages: it doubles whenever the iterator reaches a page whose read has not
+ * finished, and halves whenever a page loaded for it has already been
+ * evicted when it gets there. Pages are only loaded while the BufferPool is
+ * not under pressure, see {@link BufferPool#prefetchPage}. An iterator
+ * reading through a {@link BufferRing} reads ahead into its ring, and keeps
+ * at most half the ring ahead, so that the pages read ahead are not
+ * recycled before their use.
+ * <p>
+ * The reads run on {@link #IO_THREADS} daemon threads shared by all
+ * iterators. An iterator reaching a page that is being read waits for that
+ * read instead of reading the page a second time.
+ */
+public class ReadAhead {
+
+    /** Pages kept ahead of an iterator at first. */
+    public static final int MIN_DEPTH = 2;
+    /** Most pages kept ahead of an iterator. */
+    public static final int MAX_DEPTH = 32;
+    /** Threads reading pages ahead. */
+    public static final int IO_THREADS = 2;
+
+    private static volatile boolean enabled = true;
+    private static ExecutorService io;
+
+    private final HeapFile file;
+    private final PageFilter filter;
+    private final HashMap<Integer, Future<Boolean>> pending = new HashMap<Integer, Future<Boolean>>();
+    private BufferPool bufferPool;
+    private BufferRing ring;
+    private int depth = MIN_DEPTH;
+    /** The page the iterator reached last, or -1. */
+    private int last = -1;
+    /** The first page not requested yet. */
+    private int next;
+
+    ReadAhead(HeapFile file, PageFilter filter) {
+        this.file = file;
+        this.filter = filter;
+    }
+
+    /**
+     * Turns read-ahead on or off for all iterators, e.g. to measure its
+     * effect. It is on by default.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    private static synchronized ExecutorService io() {
+        if (io == null) {
+            io = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return io;
+    }
+
+    /**
+     * Sets the ring the iterator reads pages through, or null if it reads
+     * them through the pool as usual.
+     */
+    void setRing(BufferRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * @return the number of pages currently kept ahead of the iterator.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Called by the iterator before it fetches the pages [from, to) from
+     * the BufferPool. Waits for the reads of these pages in progress, adapts
+     * the depth and requests the pages up to depth pages past them.
+     */
+    void reached(int from, int to) {
+        if (Database.getBufferPool() != bufferPool)
+            cancel();
+        // hasNext() looks at pages next() goes through again
+        if (!enabled || to - 1 <= last)
+            return;
+        boolean started = last >= 0;
+        last = to - 1;
+        bufferPool = Database.getBufferPool();
+
+        for (int pgNo = from; pgNo < to; pgNo++) {
+            Future<Boolean> read = pending.remove(pgNo);
+            if (read == null)
+                continue;
+            if (!read.isDone())
+                depth = Math.min(MAX_DEPTH, depth * 2);
+            if (loaded(read) && !bufferPool.isCached(new HeapPageId(file.getId(), pgNo)))
+                depth = Math.max(MIN_DEPTH, depth / 2);
+        }
+        // requests for pages the iterator went past are of no use any more
+        for (Iterator<Integer> it = pending.keySet().iterator(); it.hasNext(); ) {
+            if (it.next() < to)
+                it.remove();
+        }
+        if (!started)
+            return;
+
+        next = Math.max(next, to);
+        int ahead = ring == null ? depth : Math.min(depth, Math.max(1, ring.capacity() / 2));
+        int end = Math.min(file.numPages(), to + ahead);
+        for (; next < end; next++) {
+            if (filter != null && !filter.mayMatch(next))
+                continue;
+            final HeapPageId pid = new HeapPageId(file.getId(), next);
+            final BufferPool pool = bufferPool;
+            final BufferRing into = ring;
+            pending.put(next, io().submit(() -> pool.prefetchPage(pid, into)));
+        }
+    }
+
+    /**
+     * Waits for a read to finish.
+     *
+     * @return true if the read cached its page
+     */
+    private static boolean loaded(Future<Boolean> read) {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Drops the requests not started yet and starts over from the next page
+     * the iterator reaches, as done when it is rewound or closed.
+     */
+    void cancel() {
+        for (Future<Boolean> read : pending.values())
+            read.cancel(false);
+        pending.clear();
+        last = -1;
+        next = 0;
+        depth = MIN_DEPTH;
+    }
+}
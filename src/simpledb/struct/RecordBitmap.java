@@ -0,0 +1,93 @@
+package simpledb.struct;
+
+import java.util.*;
+
+/**
+ * RecordBitmap is a set of record ids of one table, kept as a bitmap of
+ * slots for every page that has a record in the set. Pages without any
+ * record take no space, so the bitmaps of selective predicates stay small,
+ * and the pages of the set can be visited in order without looking at the
+ * others.
+ *
+ * @see BitmapIndexFile
+ */
+public class RecordBitmap {
+
+    private final TreeMap<Integer, BitSet> pages = new TreeMap<>();
+
+    public void set(int pageNo, int slot) {
+        BitSet slots = pages.get(pageNo);
+        if (slots == null) {
+            slots = new BitSet();
+            pages.put(pageNo, slots);
+        }
+        slots.set(slot);
+    }
+
+    /**
+     * Adds all slots of the given page that are set in slots.
+     */
+    public void or(int pageNo, BitSet slots) {
+        if (slots.isEmpty())
+            return;
+        BitSet mine = pages.get(pageNo);
+        if (mine == null)
+            pages.put(pageNo, (BitSet) slots.clone());
+        else
+            mine.or(slots);
+    }
+
+    /**
+     * Adds all records of other to this bitmap.
+     */
+    public void or(RecordBitmap other) {
+        for (Map.Entry<Integer, BitSet> e : other.pages.entrySet())
+            or(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Removes the records that are not also in other from this bitmap.
+     */
+    public void and(RecordBitmap other) {
+        Iterator<Map.Entry<Integer, BitSet>> it = pages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, BitSet> e = it.next();
+            BitSet theirs = other.pages.get(e.getKey());
+            if (theirs != null)
+                e.getValue().and(theirs);
+            if (theirs == null || e.getValue().isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * @return the page numbers that have records in this bitmap, in
+     * increasing order.
+     */
+    public Set<Integer> pages() {
+        return pages.keySet();
+    }
+
+    /**
+     * @return the slots of the given page that are in this bitmap; must not
+     * be modified.
+     */
+    public BitSet slots(int pageNo) {
+        BitSet slots = pages.get(pageNo);
+        return slots == null ? new BitSet() : slots;
+    }
+
+    /**
+     * @return the number of records in this bitmap.
+     */
+    public int cardinality() {
+        int n = 0;
+        for (BitSet slots : pages.values())
+            n += slots.cardinality();
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return pages.isEmpty();
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb.struct;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Segments splits the pages of a large HeapFile over several files of a
+ * fixed number of pages each, so that no single file of a table grows
+ * beyond what the file system or backup tools handle well. Segment 0 is the
+ * data file itself, segment i &gt; 0 is the file named after the data file
+ * with the ".i" suffix, and page n is at offset
+ * {@code (n % segmentPages) * pageSize} of segment {@code n / segmentPages}.
+ * <p>
+ * A data file is segmented if a file with the ".seg" suffix is next to it,
+ * holding the number of pages per segment as an int. All segments but the
+ * last are full, so the number of pages of the table follows from the
+ * length of the last segment.
+ *
+ * @see HeapFile
+ * @see HeapFileEncoder#segment
+ */
+public class Segments implements Closeable {
+
+    /** Bytes per segment file, unless a file is split otherwise. */
+    public static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+
+    private final File dataFile;
+    private final int segmentPages;
+    private final int pageSize;
+    private final ArrayList<FileChannel> channels = new ArrayList<FileChannel>();
+
+    /**
+     * Opens the segments of the given data file, which must be segmented,
+     * holding pages of the given size.
+     */
+    public Segments(File dataFile, int pageSize) throws IOException {
+        this.dataFile = dataFile;
+        this.pageSize = pageSize;
+        DataInputStream in = new DataInputStream(new FileInputStream(fileFor(dataFile)));
+        try {
+            segmentPages = in.readInt();
+        } finally {
+            in.close();
+        }
+        if (segmentPages < 1)
+            throw new IOException("bad segment size in " + fileFor(dataFile));
+    }
+
+    /**
+     * @return the file holding the segment size of the given data file.
+     */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".seg");
+    }
+
+    /**
+     * @return the file of the given segment of the given data file.
+     */
+    public static File segmentFile(File dataFile, int segment) {
+        return segment == 0 ? dataFile : new File(dataFile.getPath() + "." + segment);
+    }
+
+    /**
+     * @return true if the given data file is split into segments.
+     */
+    public static boolean isSegmented(File dataFile) {
+        return fileFor(dataFile).exists();
+    }
+
+    /**
+     * Marks the given data file as split into segments of the given number
+     * of pages. The pages must already be laid out that way.
+     */
+    public static void create(File dataFile, int segmentPages) throws IOException {
+        if (segmentPages < 1)
+            throw new IllegalArgumentException("segments cannot be empty");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(fileFor(dataFile)));
+        try {
+            out.writeInt(segmentPages);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes the segment size and the segments after the first of the
+     * given data file, as done when the data file is written anew.
+     */
+    public static void deleteFiles(File dataFile) {
+        fileFor(dataFile).delete();
+        for (int i = 1; segmentFile(dataFile, i).delete(); i++)
+            ;
+    }
+
+    /**
+     * @return the number of pages per segment.
+     */
+    public int getSegmentPages() {
+        return segmentPages;
+    }
+
+    /**
+     * @return the segment holding the given page.
+     */
+    public int segment(int pgNo) {
+        return pgNo / segmentPages;
+    }
+
+    /**
+     * @return the offset of the given page in its segment.
+     */
+    public long offset(int pgNo) {
+        return (long) (pgNo % segmentPages) * pageSize;
+    }
+
+    /**
+     * @return the number of the first page after the segment of the given
+     * page.
+     */
+    public int segmentEnd(int pgNo) {
+        return (int) Math.min(Integer.MAX_VALUE, ((long) segment(pgNo) + 1) * segmentPages);
+    }
+
+    /**
+     * Returns the channel of a segment, opening it on first use. The file
+     * of a segment is created when it is first written.
+     */
+    public synchronized FileChannel channel(int segment) throws IOException {
+        while (channels.size() <= segment)
+            channels.add(null);
+        FileChannel ch = channels.get(segment);
+        if (ch == null || !ch.isOpen()) {
+            ch = new RandomAccessFile(segmentFile(dataFile, segment), "rw").getChannel();
+            channels.set(segment, ch);
+        }
+        return ch;
+    }
+
+    /**
+     * @return the number of pages in all segments.
+     */
+    public int numPages() {
+        int last = 0;
+        while (segmentFile(dataFile, last + 1).exists())
+            last++;
+        long pages = (long) last * segmentPages
+                + segmentFile(dataFile, last).length() / pageSize;
+        return (int) Math.min(Integer.MAX_VALUE, pages);
+    }
+
+    /**
+     * Cuts the segments down to the given number of pages, deleting the
+     * segments after the one of the last page.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        int keep = numPages == 0 ? 0 : segment(numPages - 1);
+        channel(keep).truncate((long) (numPages - keep * segmentPages) * pageSize);
+        for (int i = keep + 1; segmentFile(dataFile, i).exists(); i++) {
+            if (i < channels.size() && channels.get(i) != null) {
+                channels.get(i).close();
+                channels.set(i, null);
+            }
+            segmentFile(dataFile, i).delete();
+        }
+    }
+
+    /**
+     * Writes pages at the given page number, going on in the next segment
+     * where one segment ends.
+     *
+     * @param pages whole page images between the position and the limit
+     */
+    public void write(int pgNo, ByteBuffer pages) throws IOException {
+        ByteBuffer buf = pages.duplicate();
+        while (buf.hasRemaining()) {
+            int n = Math.min(segmentEnd(pgNo) - pgNo, buf.remaining() / pageSize);
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + n * pageSize);
+            long offset = offset(pgNo) - part.position();
+            FileChannel ch = channel(segment(pgNo));
+            while (part.hasRemaining())
+                ch.write(part, offset + part.position());
+            buf.position(part.position());
+            pgNo += n;
+        }
+    }
+
+    /**
+     * Forces the segments written through this object onto the storage
+     * device.
+     */
+    public synchronized void force() throws IOException {
+        for (FileChannel ch : channels) {
+            if (ch != null && ch.isOpen())
+                ch.force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        for (FileChannel ch : channels) {
+            if (ch != null)
+                ch.close();
+        }
+        channels.clear();
+    }
+}
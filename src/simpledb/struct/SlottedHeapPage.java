@@ -0,0 +1,296 @@
+package simpledb.struct;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a HeapPage variant whose tuples are variable length:
+ * string fields only take the bytes they need instead of
+ * {@link Type#STRING_LEN} + 4.
+ * <p>
+ * The page starts with a short holding the number of slot directory
+ * entries and a short holding the offset where tuple data begins. The
+ * directory follows, one (offset, length) pair of shorts per slot; an
+ * offset of 0 marks an empty slot. Tuple data is packed from the end of the
+ * page towards the directory. Within a tuple, int fields take 4 bytes and
+ * string fields a short length followed by the string bytes.
+ * <p>
+ * Deleting a tuple only clears its directory entry, so record ids of the
+ * other tuples stay valid. The data area is compacted when an insert does
+ * not fit in the contiguous free space.
+ *
+ * @see HeapFile
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * An all-zero page is a valid empty page.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.numSlots = getShort(0);
+    }
+
+    private int getShort(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private void putShort(int offset, int value) {
+        data[offset] = (byte) (value >> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private int dataStart() {
+        int start = getShort(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + numSlots * SLOT_SIZE;
+    }
+
+    private int slotDataOffset(int slotId) {
+        return getShort(HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    private int slotDataLength(int slotId) {
+        return getShort(HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int length) {
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the number of bytes t takes in the data area of a slotted page.
+     */
+    public static int encodedSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * Encodes t in the variable length tuple format of slotted pages.
+     */
+    public static byte[] encodeTuple(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(encodedSize(t));
+        DataOutputStream dos = new DataOutputStream(baos);
+        TupleDesc td = t.getTupleDesc();
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Builds the image of a slotted page holding the given encoded tuples in
+     * slots 0..n-1. Used by HeapFileEncoder to write pages without a catalog.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit on one page
+     */
+    public static byte[] createPageData(List<byte[]> tuples, int npagebytes) {
+        byte[] page = new byte[npagebytes];
+        int start = npagebytes;
+        int dir = HEADER_SIZE;
+        for (byte[] t : tuples) {
+            start -= t.length;
+            if (start < dir + SLOT_SIZE)
+                throw new IllegalArgumentException("tuples do not fit on one page");
+            System.arraycopy(t, 0, page, start, t.length);
+            page[dir] = (byte) (start >> 8);
+            page[dir + 1] = (byte) start;
+            page[dir + 2] = (byte) (t.length >> 8);
+            page[dir + 3] = (byte) t.length;
+            dir += SLOT_SIZE;
+        }
+        page[0] = (byte) (tuples.size() >> 8);
+        page[1] = (byte) tuples.size();
+        if (!tuples.isEmpty()) {
+            page[2] = (byte) (start >> 8);
+            page[3] = (byte) start;
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of bytes a page can hold for a tuple of the given
+     * encoded size, including its directory entry.
+     */
+    public static int spaceNeeded(int encodedSize) {
+        return encodedSize + SLOT_SIZE;
+    }
+
+    @Override
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(pid, oldData != null ? oldData : data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    Tuple readTuple(int slotId) throws NoSuchElementException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                data, slotDataOffset(slotId), slotDataLength(slotId)));
+
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    byte[] bs = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bs);
+                    t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+                } else {
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                }
+            }
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading tuple");
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * @return the free bytes on this page, counting space left by deleted
+     * tuples that has not been compacted yet.
+     */
+    @Override
+    public int getFreeSpace() {
+        int used = directoryEnd();
+        for (int i = 0; i < numSlots; i++)
+            used += slotDataLength(i);
+        return data.length - used;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the data of all used slots to the end of the page so that the
+     * free space between the directory and the data area is contiguous.
+     */
+    private void compact() {
+        byte[] packed = new byte[data.length];
+        int start = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int len = slotDataLength(i);
+            start -= len;
+            System.arraycopy(data, slotDataOffset(i), packed, start, len);
+            setSlot(i, start, len);
+        }
+        System.arraycopy(data, 0, packed, 0, directoryEnd());
+        data = packed;
+        putShort(2, start == data.length ? 0 : start);
+    }
+
+    @Override
+    public boolean canInsert(Tuple t) {
+        int needed = encodedSize(t) + (firstEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return needed <= getFreeSpace();
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tupledesc is mismatch");
+        if (!canInsert(t))
+            throw new DbException("no empty slot");
+
+        byte[] enc = encodeTuple(t);
+        int slot = firstEmptySlot();
+        int needed = enc.length + (slot < 0 ? SLOT_SIZE : 0);
+        if (dataStart() - directoryEnd() < needed)
+            compact();
+        if (slot < 0) {
+            slot = numSlots++;
+            putShort(0, numSlots);
+        }
+        int start = dataStart() - enc.length;
+        System.arraycopy(enc, 0, data, start, enc.length);
+        setSlot(slot, start, enc.length);
+        putShort(2, start);
+        t.setRecordId(new RecordId(pid, slot));
+        freeSpaceChanged();
+        tupleInserted(t);
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("this tuple is not on this page");
+        int slotNum = rid.tupleno();
+        if (slotNum >= numSlots || !isSlotUsed(slotNum))
+            throw new DbException("slot is empty");
+        if (!readTuple(slotNum).equals(t))
+            throw new DbException("this tuple is not on this page");
+        setSlot(slotNum, 0, 0);
+        // trailing empty entries can be dropped without moving any tuple
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1))
+            numSlots--;
+        putShort(0, numSlots);
+        if (numSlots == 0)
+            putShort(2, 0);
+        freeSpaceChanged();
+    }
+
+    @Override
+    public int getNumEmptySlots() {
+        int result = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                ++result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && slotDataOffset(i) != 0;
+    }
+}
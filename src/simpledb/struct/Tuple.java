@@ -84,8 +84,8 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for(Field f : fields) {
-            sb.append(f.toString()).append("\t");
+        for(int i=0;i<fields.length;i++) {
+            sb.append(getField(i).toString()).append("\t");
         }
         sb.setCharAt(sb.length()-1, '\n');
         return sb.toString();
@@ -97,7 +97,10 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return Arrays.asList(fields).iterator();
+        Field[] all = new Field[fields.length];
+        for(int i=0;i<fields.length;i++)
+            all[i] = getField(i);
+        return Arrays.asList(all).iterator();
     }
 
 
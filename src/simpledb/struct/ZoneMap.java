@@ -0,0 +1,261 @@
+package simpledb.struct;
+
+import simpledb.Type;
+import simpledb.operation.Predicate;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap records the smallest and largest value of every int field on each
+ * page of a HeapFile, so that a scan with a range predicate can pass over
+ * the pages that cannot hold a matching tuple without locking or reading
+ * them.
+ * <p>
+ * The map is kept in memory and persisted next to the data file in a file
+ * with the ".zm" suffix: a {@link MapStamp} header, then per page a byte
+ * that is 1 if the entry is known followed by the int minimum and maximum
+ * of each int field. An entry is computed exactly when its page is written
+ * by {@link HeapFile#writePage}, and when a page without an entry is read,
+ * as for the free space map. The map file is forced and stamped with the
+ * data file by {@link HeapFile#force}; a map file whose stamp does not
+ * match the data file is dropped when it is loaded.
+ * <p>
+ * Unlike the free space map, a scan relies on the map, so an entry must
+ * cover every tuple the page may hold. Inserts widen the entry of their
+ * page in memory at once; deletes leave it as it is, as a range that is too
+ * wide only costs a page read, until the page is written. A page whose
+ * entry is unknown is always read.
+ */
+public class ZoneMap implements Closeable {
+
+    private final File file;
+    private final HeapFile heapFile;
+    /** The int fields of the table, in field order. */
+    private final int[] fields;
+    /** The position of each field of the table in fields, or -1. */
+    private final int[] slotOf;
+    private final int entrySize;
+    private boolean[] known;
+    private int[] min;
+    private int[] max;
+    private final MapStamp stamp;
+    private transient FileChannel channel;
+
+    ZoneMap(HeapFile heapFile) {
+        this.heapFile = heapFile;
+        this.file = fileFor(heapFile.getFile());
+        TupleDesc td = heapFile.getTupleDesc();
+        slotOf = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            slotOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        fields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (slotOf[i] >= 0)
+                fields[slotOf[i]] = i;
+        }
+        entrySize = 1 + 8 * n;
+        stamp = new MapStamp(heapFile);
+    }
+
+    /**
+     * @return the file the zone map of the given data file is stored in.
+     */
+    public static File fileFor(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /**
+     * Loads the persisted map on first use if its stamp matches the data
+     * file.
+     */
+    private void load() {
+        if (known != null)
+            return;
+        int numPages = heapFile.numPages();
+        ensureCapacity(Math.max(numPages, 16) - 1);
+        if (fields.length == 0 || !file.exists())
+            return;
+        try {
+            FileChannel ch = getChannel();
+            if (!stamp.check(ch)) {
+                stamp.reset(ch);
+                return;
+            }
+            int n = (int) Math.min((ch.size() - MapStamp.SIZE) / entrySize, numPages);
+            ByteBuffer buf = ByteBuffer.allocate(n * entrySize);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, MapStamp.SIZE + buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+            for (int i = 0; i < n && buf.remaining() >= entrySize; i++) {
+                known[i] = buf.get() == 1;
+                for (int f = 0; f < fields.length; f++) {
+                    min[i * fields.length + f] = buf.getInt();
+                    max[i * fields.length + f] = buf.getInt();
+                }
+            }
+        } catch (IOException e) {
+            // start from unknown entries, which are always read
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureCapacity(int pgNo) {
+        if (known == null) {
+            known = new boolean[pgNo + 1];
+            min = new int[known.length * fields.length];
+            max = new int[known.length * fields.length];
+        } else if (pgNo >= known.length) {
+            int size = Math.max(pgNo + 1, known.length * 2);
+            known = Arrays.copyOf(known, size);
+            min = Arrays.copyOf(min, size * fields.length);
+            max = Arrays.copyOf(max, size * fields.length);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        return channel;
+    }
+
+    /**
+     * @return false if no tuple on the given page can satisfy p, true if
+     * one may.
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        int field = p.getField();
+        if (field < 0 || field >= slotOf.length || slotOf[field] < 0)
+            return true;
+        load();
+        if (pgNo >= known.length || !known[pgNo])
+            return true;
+        int i = pgNo * fields.length + slotOf[field];
+        int lo = min[i];
+        int hi = max[i];
+        // an empty page
+        if (lo > hi)
+            return false;
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return lo <= v && v <= hi;
+            case NOT_EQUALS:
+                return lo != v || hi != v;
+            case GREATER_THAN:
+                return hi > v;
+            case GREATER_THAN_OR_EQ:
+                return hi >= v;
+            case LESS_THAN:
+                return lo < v;
+            case LESS_THAN_OR_EQ:
+                return lo <= v;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Widens the entry of a page in memory to cover a tuple inserted on it.
+     */
+    synchronized void widen(int pgNo, Tuple t) {
+        if (fields.length == 0)
+            return;
+        load();
+        if (pgNo >= known.length || !known[pgNo])
+            return;
+        for (int f = 0; f < fields.length; f++) {
+            int v = ((IntField) t.getField(fields[f])).getValue();
+            int i = pgNo * fields.length + f;
+            min[i] = Math.min(min[i], v);
+            max[i] = Math.max(max[i], v);
+        }
+    }
+
+    /**
+     * Computes the entry of a page that has just been read from the data
+     * file if it is not known yet, and persists it.
+     */
+    synchronized void learn(int pgNo, HeapPage page) {
+        if (fields.length == 0)
+            return;
+        load();
+        if (pgNo < known.length && known[pgNo])
+            return;
+        try {
+            persist(pgNo, page);
+        } catch (IOException e) {
+            // the entry stays known in memory; it is written again with
+            // the page
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Computes the entry of a page that has just been written to the data
+     * file, both in memory and on disk.
+     */
+    synchronized void persist(int pgNo, HeapPage page) throws IOException {
+        if (fields.length == 0)
+            return;
+        load();
+        ensureCapacity(pgNo);
+        int base = pgNo * fields.length;
+        Arrays.fill(min, base, base + fields.length, Integer.MAX_VALUE);
+        Arrays.fill(max, base, base + fields.length, Integer.MIN_VALUE);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int f = 0; f < fields.length; f++) {
+                int v = ((IntField) t.getField(fields[f])).getValue();
+                min[base + f] = Math.min(min[base + f], v);
+                max[base + f] = Math.max(max[base + f], v);
+            }
+        }
+        known[pgNo] = true;
+
+        ByteBuffer buf = ByteBuffer.allocate(entrySize);
+        buf.put((byte) 1);
+        for (int f = 0; f < fields.length; f++)
+            buf.putInt(min[base + f]).putInt(max[base + f]);
+        buf.flip();
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining())
+            ch.write(buf, MapStamp.SIZE + (long) pgNo * entrySize + buf.position());
+    }
+
+    /**
+     * Clears the stamp of the map file before the data file is written.
+     */
+    synchronized void changing() throws IOException {
+        if (fields.length == 0)
+            return;
+        load();
+        if (channel != null)
+            stamp.clear(channel);
+    }
+
+    /**
+     * Forces the map file and stamps it, after the data file was forced
+     * with the given count of writes.
+     */
+    synchronized void force(long writes) throws IOException {
+        if (fields.length == 0 || known == null)
+            return;
+        stamp.stamp(getChannel(), writes);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BTreeFile index;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, tuples);
+        File indexFile = File.createTempFile("btree", ".idx");
+        indexFile.deleteOnExit();
+        index = new BTreeFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+    }
+
+    private List<Integer> keys(DbFileIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        return keys;
+    }
+
+    private List<Integer> expectedKeys(Predicate.Op op, int key) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(key)))
+                keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * A rebuilt index holds every tuple, in key order.
+     */
+    @Test public void rebuild() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertTrue(index.numPages() > 2);
+        assertEquals(expectedKeys(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE),
+                keys(index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Range and equality lookups return exactly the matching entries.
+     */
+    @Test public void indexIterator() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ}) {
+            for (int key : new int[] {-1, 0, 250, 499, 1000}) {
+                assertEquals(op + " " + key, expectedKeys(op, key),
+                        keys(index.indexIterator(tid, op, new IntField(key))));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in step
+     * with the table, including when leaves and internal pages split.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        int pages = index.numPages();
+        for (int i = 0; i < 2000; ++i) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] {i % 7, i}));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i % 7);
+            t.add(i);
+            tuples.add(t);
+        }
+        assertTrue(index.numPages() > pages);
+
+        IndexScan scan = new IndexScan(tid, index, Predicate.Op.EQUALS, new IntField(3));
+        ArrayList<ArrayList<Integer>> deleted = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            deleted.add(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        assertTrue(deleted.size() >= 2000 / 7);
+        tuples.removeAll(deleted);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(expectedKeys(Predicate.Op.GREATER_THAN_OR_EQ, Integer.MIN_VALUE),
+                keys(index.iterator(tid)));
+        SystemTestUtil.matchTuples(new IndexScan(tid, index, Predicate.Op.GREATER_THAN, new IntField(-1)),
+                tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
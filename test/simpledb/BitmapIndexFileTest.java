@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BitmapIndexFile index0;
+    private BitmapIndexFile index1;
+
+    private BitmapIndexFile createIndex(int field) throws Exception {
+        File indexFile = File.createTempFile("bitmap", ".idx");
+        indexFile.deleteOnExit();
+        BitmapIndexFile index = new BitmapIndexFile(indexFile, Type.INT_TYPE, table.getId(), field);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+        return index;
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 20000, 10, null, tuples);
+        index0 = createIndex(0);
+        index1 = createIndex(1);
+    }
+
+    private static boolean matches(ArrayList<Integer> t, Predicate... predicates) {
+        for (Predicate p : predicates) {
+            if (!p.filter(Utility.getHeapTuple(new int[] {t.get(0), t.get(1), t.get(2)})))
+                return false;
+        }
+        return true;
+    }
+
+    private int expectedCount(Predicate... predicates) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (matches(t, predicates))
+                ++n;
+        }
+        return n;
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedTuples(Predicate... predicates) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (matches(t, predicates))
+                result.add(t);
+        }
+        return result;
+    }
+
+    /**
+     * A rebuilt index has a bitmap per distinct value, and lookups return
+     * exactly the records of the values that satisfy the predicate.
+     */
+    @Test public void rebuildAndLookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(10, index0.numValues(tid));
+        assertEquals(tuples.size(), index0.lookup(tid, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(0)).cardinality());
+        for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.NOT_EQUALS}) {
+            for (int key : new int[] {-1, 0, 4, 9}) {
+                assertEquals(op + " " + key,
+                        expectedCount(new Predicate(0, op, new IntField(key))),
+                        index0.lookup(tid, op, new IntField(key)).cardinality());
+            }
+        }
+        assertTrue(index0.lookup(tid, Predicate.Op.EQUALS, new IntField(10)).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A BitmapScan returns the tuples that satisfy all its predicates,
+     * reading only the pages that have one.
+     */
+    @Test public void bitmapScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p0 = new Predicate(0, Predicate.Op.EQUALS, new IntField(3));
+        Predicate p1 = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2));
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(p0, p1));
+        SystemTestUtil.matchTuples(scan, expectedTuples(p0, p1));
+
+        RecordBitmap both = index0.lookup(tid, p0.getOp(), p0.getOperand());
+        both.and(index1.lookup(tid, p1.getOp(), p1.getOperand()));
+        assertEquals(expectedCount(p0, p1), both.cardinality());
+        assertTrue(both.pages().size() <= table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the bitmaps in step
+     * with the table, including for values that are new to the index.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        int pages = index0.numPages();
+        for (int i = 0; i < 3000; ++i) {
+            int[] t = new int[] {i % 3 == 0 ? 10 + i % 4 : i % 10, i % 7, i};
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(t));
+            ArrayList<Integer> list = new ArrayList<Integer>();
+            for (int v : t)
+                list.add(v);
+            tuples.add(list);
+        }
+        assertTrue(index0.numPages() > pages);
+        assertEquals(14, index0.numValues(tid));
+
+        Predicate p0 = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(12));
+        Predicate p1 = new Predicate(1, Predicate.Op.EQUALS, new IntField(5));
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(p0, p1));
+        ArrayList<ArrayList<Integer>> deleted = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            deleted.add(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        assertEquals(expectedCount(p0, p1), deleted.size());
+        tuples.removeAll(deleted);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        scan = new BitmapScan(tid, table.getId(), "t", Arrays.asList(p0, p1));
+        scan.open();
+        assertTrue(!scan.hasNext());
+        scan.close();
+        for (int key : new int[] {0, 5, 10, 13}) {
+            Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(key));
+            List<Predicate> ps = Arrays.asList(p);
+            SystemTestUtil.matchTuples(new BitmapScan(tid, table.getId(), "t", ps),
+                    expectedTuples(p));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * String values beyond what one directory page holds go on further
+     * directory pages, both when rebuilding and when inserting.
+     */
+    @Test public void manyStringValues() throws Exception {
+        File f = File.createTempFile("bitmap", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        int capacity = BitmapDirectoryPage.capacity(Type.STRING_TYPE);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2 * capacity; i++)
+            Database.getBufferPool().insertTuple(tid, strings.getId(), stringTuple(td, i));
+        Database.getBufferPool().transactionComplete(tid);
+        File indexFile = File.createTempFile("bitmap", ".idx");
+        indexFile.deleteOnExit();
+        BitmapIndexFile index = new BitmapIndexFile(indexFile, Type.STRING_TYPE, strings.getId(), 1);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(strings);
+
+        tid = new TransactionId();
+        assertEquals(2 * capacity, index.numValues(tid));
+        for (int i = 2 * capacity; i < 4 * capacity; i++)
+            Database.getBufferPool().insertTuple(tid, strings.getId(), stringTuple(td, i));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(4 * capacity, index.numValues(tid));
+        for (int i = 0; i < 4 * capacity; i++) {
+            assertEquals(1, index.lookup(tid, Predicate.Op.EQUALS,
+                    new StringField("value" + i, Type.STRING_LEN)).cardinality());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple stringTuple(TupleDesc td, int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("value" + i, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexFileTest.class);
+    }
+}
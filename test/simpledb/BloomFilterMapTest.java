@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Filter;
+import simpledb.operation.JoinPredicate;
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BloomFilterMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table with unclustered values of the first field, with
+     * Bloom filters on that field, and reads it once so that every page has
+     * a filter.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000000, null, tuples);
+        table.addBloomFilter(0);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    private ArrayList<ArrayList<Integer>> withKey(int key) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key)
+                result.add(t);
+        }
+        return result;
+    }
+
+    private int lockedPages(TransactionId tid) {
+        int n = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), i)))
+                ++n;
+        }
+        return n;
+    }
+
+    /**
+     * A Filter on an equality predicate pushed down to its scan reads the
+     * page holding the key and hardly any other, although the zone maps of
+     * all pages cover the key.
+     */
+    @Test public void equalityFilter() throws Exception {
+        int key = tuples.get(ROWS / 2).get(0);
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(key));
+        int matching = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (table.getZoneMap().mayMatch(i, p))
+                ++matching;
+        }
+        assertTrue(matching > table.numPages() / 2);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(p);
+        scan.addPredicate(new Predicate(0, Predicate.Op.EQUALS, new IntField(key)));
+        assertEquals(1, scan.getPredicates().size());
+        SystemTestUtil.matchTuples(new Filter(p, scan), withKey(key));
+        assertTrue(lockedPages(tid) >= 1);
+        assertTrue(lockedPages(tid) <= 3);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The probe side of a hash join only reads the pages that may hold one
+     * of the keys of the build side.
+     */
+    @Test public void hashJoinProbe() throws Exception {
+        ArrayList<ArrayList<Integer>> buildTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, 3, null, buildTuples);
+        TransactionId tid = new TransactionId();
+        for (ArrayList<Integer> t : buildTuples)
+            Database.getBufferPool().deleteTuple(tid, findTuple(tid, build, t));
+        int key = tuples.get(ROWS - 1).get(0);
+        Database.getBufferPool().insertTuple(tid, build.getId(),
+                Utility.getHeapTuple(new int[] {key, 7}));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, build.getId(), "b"), new SeqScan(tid, table.getId(), "t"));
+        int n = 0;
+        join.open();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(key, ((IntField) t.getField(2)).getValue());
+            ++n;
+        }
+        join.close();
+        assertEquals(withKey(key).size(), n);
+        assertTrue(lockedPages(tid) <= 3);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Tuple findTuple(TransactionId tid, HeapFile file, ArrayList<Integer> values)
+            throws Exception {
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (SystemTestUtil.tupleToList(t).equals(values)) {
+                it.close();
+                return t;
+            }
+        }
+        it.close();
+        throw new AssertionError("tuple not found: " + values);
+    }
+
+    /**
+     * An inserted key is added to the filter of its page at once, and the
+     * filters are read back from disk when the file is opened again.
+     */
+    @Test public void insertAndReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {-17, 1});
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        int pgNo = t.getRecordId().getPageId().pageNumber();
+        BloomFilterMap filter = table.getBloomFilter(0);
+        assertTrue(filter.mayContain(pgNo, new IntField(-17)));
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(-17));
+        Filter scan = new Filter(p, new SeqScan(tid, table.getId(), "t"));
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        table.close();
+        HeapFile reopened = Utility.openHeapFile(2, table.getFile());
+        filter = reopened.addBloomFilter(0);
+        assertTrue(filter.mayContain(pgNo, new IntField(-17)));
+        int absent = 0;
+        for (int i = 0; i < reopened.numPages(); i++) {
+            if (!filter.mayContain(i, new IntField(-18)))
+                ++absent;
+        }
+        assertTrue(absent >= reopened.numPages() - 1);
+        assertNull(table.getBloomFilter(1));
+    }
+
+    /**
+     * Filters are only trusted after a reopen if they were forced along
+     * with the data file after it was last written.
+     */
+    @Test public void unforcedFiltersDropped() throws Exception {
+        table.force();
+        table.writePage(table.readPage(new HeapPageId(table.getId(), 0)));
+        table.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, table.getFile());
+        BloomFilterMap filter = reopened.addBloomFilter(0);
+        for (int i = 0; i < reopened.numPages(); i++)
+            assertTrue(filter.mayContain(i, new IntField(-18)));
+
+        SystemTestUtil.matchTuples(reopened, tuples);
+        reopened.force();
+        reopened.close();
+        reopened = Utility.openHeapFile(2, table.getFile());
+        filter = reopened.addBloomFilter(0);
+        int absent = 0;
+        for (int i = 0; i < reopened.numPages(); i++) {
+            if (!filter.mayContain(i, new IntField(-18)))
+                ++absent;
+        }
+        assertTrue(absent >= reopened.numPages() - 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterMapTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+
+    private HeapFile hot;
+    private ArrayList<ArrayList<Integer>> hotTuples;
+    private HeapFile large;
+    private ArrayList<ArrayList<Integer>> largeTuples;
+
+    /**
+     * Creates a table of a few pages, small enough to be scanned through
+     * the pool, and one of about forty pages, twice the size of the pool.
+     */
+    @Before public void setUp() throws Exception {
+        hotTuples = new ArrayList<ArrayList<Integer>>();
+        hot = SystemTestUtil.createRandomHeapFile(2, 2000, null, hotTuples);
+        largeTuples = new ArrayList<ArrayList<Integer>>();
+        large = SystemTestUtil.createRandomHeapFile(2, 20000, null, largeTuples);
+        Database.resetBufferPool(POOL_PAGES);
+        assertTrue(hot.numPages() <= POOL_PAGES * BufferRing.SCAN_THRESHOLD);
+        assertTrue(large.numPages() > POOL_PAGES);
+    }
+
+    private int cachedPages(HeapFile f) {
+        int n = 0;
+        for (int i = 0; i < f.numPages(); i++) {
+            if (Database.getBufferPool().isCached(new HeapPageId(f.getId(), i)))
+                ++n;
+        }
+        return n;
+    }
+
+    @Test public void forScan() {
+        TransactionId tid = new TransactionId();
+        assertNull(BufferRing.forScan(tid, hot.numPages()));
+        BufferRing ring = BufferRing.forScan(tid, large.numPages());
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 4, ring.capacity());
+        assertEquals(tid, ring.getTransactionId());
+    }
+
+    /**
+     * A scan of the large table leaves the pages of the small one in the
+     * pool, and takes no more frames than its ring has.
+     */
+    @Test public void hotPagesStay() throws Exception {
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        assertEquals(hot.numPages(), cachedPages(hot));
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, large.getId(), "l"), largeTuples);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(hot.numPages(), cachedPages(hot));
+        assertTrue(cachedPages(large) <= POOL_PAGES / 4);
+    }
+
+    /**
+     * Without a ring, the same scan pushes the small table out of the pool.
+     */
+    @Test public void withoutRing() throws Exception {
+        SystemTestUtil.matchTuples(hot, hotTuples);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < large.numPages(); i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(large.getId(), i),
+                    Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, cachedPages(hot));
+    }
+
+    /**
+     * A page of the ring another transaction has locked is not recycled.
+     */
+    @Test public void lockedPageStays() throws Exception {
+        TransactionId tid = new TransactionId();
+        TransactionId other = new TransactionId();
+        BufferRing ring = new BufferRing(tid, 2);
+        HeapPageId first = new HeapPageId(large.getId(), 0);
+        Database.getBufferPool().getPage(tid, first, Permissions.READ_ONLY, ring);
+        Database.getBufferPool().getPage(other, first, Permissions.READ_ONLY);
+        for (int i = 1; i < 6; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(large.getId(), i),
+                    Permissions.READ_ONLY, ring);
+        assertTrue(Database.getBufferPool().isCached(first));
+        assertEquals(3, cachedPages(large));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().transactionComplete(other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
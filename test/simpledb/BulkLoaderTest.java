@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    /**
+     * Writes the tuples as lines of text, with a blank and a malformed line
+     * among them.
+     */
+    private static File writeText(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = File.createTempFile("bulk", ".txt");
+        f.deleteOnExit();
+        PrintWriter pw = new PrintWriter(f);
+        for (int i = 0; i < tuples.size(); i++) {
+            ArrayList<Integer> t = tuples.get(i);
+            if (i == tuples.size() / 2) {
+                pw.println();
+                pw.println("1,x");
+            }
+            pw.print(t.get(0) + ", " + t.get(1) + (i % 2 == 0 ? "\r\n" : "\n"));
+        }
+        pw.close();
+        return f;
+    }
+
+    private static ArrayList<ArrayList<Integer>> randomTuples(int n) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add((int) (Math.random() * 1000) - 500);
+            t.add(i);
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * A conversion in many small chunks on several threads writes every
+     * tuple, in input order within each page, and skips bad lines.
+     */
+    @Test public void convert() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = randomTuples(20000);
+        File out = File.createTempFile("bulk", ".dat");
+        SystemTestUtil.deleteOnExit(out);
+        BulkLoader loader = new BulkLoader(Utility.getTypes(2), ',', false, false);
+        loader.setThreads(4);
+        loader.setChunkSize(10000);
+        assertEquals(tuples.size(), loader.convert(writeText(tuples), out));
+        assertEquals(0, out.length() % BufferPool.PAGE_SIZE);
+
+        HeapFile table = Utility.openHeapFile(2, out);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        // the second field numbers the input lines
+        int last = -1;
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            int i = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(i > last);
+            last = i;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An empty input gives a file of one empty page.
+     */
+    @Test public void convertEmpty() throws Exception {
+        File out = File.createTempFile("bulk", ".dat");
+        SystemTestUtil.deleteOnExit(out);
+        BulkLoader loader = new BulkLoader(Utility.getTypes(2), ',', false, false);
+        assertEquals(0, loader.convert(writeText(new ArrayList<ArrayList<Integer>>()), out));
+        assertEquals(BufferPool.PAGE_SIZE, out.length());
+    }
+
+    /**
+     * Loading into a table appends the tuples after its pages and adds
+     * them to the indexes of the table.
+     */
+    @Test public void load() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        int pages = table.numPages();
+        File indexFile = File.createTempFile("bulk", ".idx");
+        indexFile.deleteOnExit();
+        BTreeFile index = new BTreeFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+
+        ArrayList<ArrayList<Integer>> loaded = randomTuples(3000);
+        TransactionId tid = new TransactionId();
+        BulkLoader loader = BulkLoader.forTable(table, ',');
+        loader.setChunkSize(5000);
+        assertEquals(loaded.size(), loader.load(tid, table, writeText(loaded)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() > pages);
+
+        tuples.addAll(loaded);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 0)
+                expected.add(t.get(0));
+        }
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        DbFileIterator it = index.indexIterator(tid, Predicate.Op.LESS_THAN, new IntField(0));
+        it.open();
+        while (it.hasNext())
+            found.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(expected);
+        Collections.sort(found);
+        assertEquals(expected, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A load into an indexed table touching more index pages than the
+     * BufferPool holds goes through, the index pages being unpinned as
+     * they are changed.
+     */
+    @Test public void loadIndexedSmallPool() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        File indexFile = File.createTempFile("bulk", ".idx");
+        indexFile.deleteOnExit();
+        BTreeFile index = new BTreeFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+        Database.resetBufferPool(8);
+
+        ArrayList<ArrayList<Integer>> loaded = randomTuples(20000);
+        TransactionId tid = new TransactionId();
+        assertEquals(loaded.size(), BulkLoader.forTable(table, ',').load(tid, table, writeText(loaded)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The pages a load appends are locked for the loading transaction until
+     * it ends.
+     */
+    @Test public void loadLocksPages() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        int pages = table.numPages();
+        TransactionId tid = new TransactionId();
+        BulkLoader.forTable(table, ',').load(tid, table, writeText(randomTuples(3000)));
+
+        BufferPool pool = Database.getBufferPool();
+        TransactionId other = new TransactionId();
+        for (int i = pages; i < table.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            assertTrue(pool.holdsLock(tid, pid));
+            assertTrue(pool.isLockedByOthers(other, pid));
+        }
+        pool.transactionComplete(tid);
+        assertFalse(pool.isLockedByOthers(other, new HeapPageId(table.getId(), pages)));
+    }
+
+    /**
+     * A load aborted through the BufferPool alone leaves the tuples of the
+     * table as they were.
+     */
+    @Test public void loadAborted() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        BulkLoader.forTable(table, ',').load(tid, table, writeText(randomTuples(3000)));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -11,7 +16,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
+import simpledb.struct.BTreeFile;
 import simpledb.struct.DbFile;
+import simpledb.struct.HeapFile;
 import simpledb.struct.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -70,6 +77,62 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * @return the number of file descriptors of this process open on the
+     * given file or the files next to it whose names start with its name.
+     */
+    private static int openFiles(File file) throws IOException {
+        int n = 0;
+        for (File fd : new File("/proc/self/fd").listFiles()) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).toString().startsWith(file.getPath()))
+                    n++;
+            } catch (IOException e) {
+                // closed while listing
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Catalog.clear() closes the files of the tables and indexes, and
+     * Database.reset() leaves no file open.
+     */
+    @Test public void clearClosesFiles() throws Exception {
+        // open files are only listed where there is a /proc file system
+        if (!new File("/proc/self/fd").isDirectory())
+            return;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        File indexFile = File.createTempFile("catalog", ".idx");
+        indexFile.deleteOnExit();
+        BTreeFile index = new BTreeFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertTrue(openFiles(table.getFile()) > 0);
+        assertTrue(openFiles(indexFile) > 0);
+
+        Database.getCatalog().clear();
+        assertEquals(0, openFiles(table.getFile()));
+        assertEquals(0, openFiles(indexFile));
+
+        File dir = table.getFile().getParentFile();
+        table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        SystemTestUtil.matchTuples(table, tuples);
+        Database.reset();
+        int open = new File("/proc/self/fd").list().length;
+        for (int i = 0; i < 10; i++) {
+            tuples.clear();
+            table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+            SystemTestUtil.matchTuples(table, tuples);
+            Database.reset();
+            assertEquals(0, openFiles(table.getFile()));
+        }
+        assertEquals(dir, table.getFile().getParentFile());
+        assertEquals(open, new File("/proc/self/fd").list().length);
+    }
+
     /**
      * JUnit suite target
      */
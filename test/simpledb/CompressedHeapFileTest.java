@@ -0,0 +1,75 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File rowFile;
+    private File compressedFile;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        rowFile = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 100, null, tuples);
+        compressedFile = File.createTempFile("compressed", ".dat");
+        SystemTestUtil.deleteOnExit(compressedFile);
+        HeapFileEncoder.compress(rowFile, compressedFile, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * A compressed file has the same pages and tuples as the row file, in
+     * less space.
+     */
+    @Test public void readCompressed() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, compressedFile);
+        assertTrue(hf.isCompressed());
+        assertEquals(rowFile.length() / BufferPool.PAGE_SIZE, hf.numPages());
+        assertTrue(compressedFile.length() < rowFile.length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages written back to a compressed file, including ones that no
+     * longer fit their extent, read back correctly after reopening.
+     */
+    @Test public void writeCompressed() throws Exception {
+        HeapFile hf = Utility.openHeapFile(2, compressedFile);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; ++i) {
+            hf.insertTuple(tid, Utility.getHeapTuple(new int[] {i, i * 7919}));
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i * 7919);
+            tuples.add(tuple);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.reset();
+        HeapFile reopened = Utility.openHeapFile(2, compressedFile);
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
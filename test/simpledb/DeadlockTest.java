@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.struct.HeapPageId;
 import simpledb.struct.PageId;
@@ -213,6 +214,37 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * t3 acquires p0.write; t1 and t2 wait for p0.read until t3 completes;
+   * t1 and t2 then attempt to upgrade to p0.write. The reads that had to
+   * wait must not keep the upgrades from being found deadlocked.
+   */
+  @Test public void testUpgradeAfterWaitDeadlock() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid3, p0, Permissions.READ_WRITE);
+
+    LockGrabber lg1Read = startGrabber(tid1, p0, Permissions.READ_ONLY);
+    LockGrabber lg2Read = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1Read.acquired() || lg2Read.acquired());
+
+    bp.transactionComplete(tid3);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Read.acquired() && lg2Read.acquired());
+
+    LockGrabber lg1Write = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    for (int i = 0; i < 20; i++) {
+      Thread.sleep(POLL_INTERVAL);
+      if (lg1Write.getError() != null || lg2Write.getError() != null)
+        break;
+    }
+    assertTrue(lg1Write.getError() != null || lg2Write.getError() != null);
+    lg1Write.stop(); lg2Write.stop();
+    bp.transactionComplete(tid1);
+    bp.transactionComplete(tid2);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExtendibleHashFileTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private ExtendibleHashFile index;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, tuples);
+        File indexFile = File.createTempFile("hash", ".idx");
+        indexFile.deleteOnExit();
+        index = new ExtendibleHashFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+    }
+
+    private List<Integer> keys(DbFileIterator it) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private List<Integer> expectedKeys(Integer key) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (key == null || t.get(0).equals(key))
+                keys.add(t.get(0));
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * A rebuilt index holds every tuple, and equality lookups return
+     * exactly the matching entries.
+     */
+    @Test public void rebuildAndLookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertTrue(index.numPages() > 2);
+        assertEquals(expectedKeys(null), keys(index.iterator(tid)));
+        for (int key : new int[] {-1, 0, 17, 250, 499, 1000}) {
+            assertEquals("key " + key, expectedKeys(key),
+                    keys(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in step
+     * with the table, including when buckets split, the directory grows
+     * and many duplicates of one key need overflow pages.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        int pages = index.numPages();
+        for (int i = 0; i < 1500; ++i) {
+            // every other tuple has the same key
+            int key = i % 2 == 0 ? 1000 + i : 7;
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] {key, i}));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(key);
+            t.add(i);
+            tuples.add(t);
+        }
+        assertTrue(index.numPages() > pages);
+        assertEquals(expectedKeys(7),
+                keys(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))));
+
+        IndexScan scan = new IndexScan(tid, index, Predicate.Op.EQUALS, new IntField(7));
+        ArrayList<ArrayList<Integer>> deleted = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            deleted.add(SystemTestUtil.tupleToList(t));
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        assertTrue(deleted.size() >= 750);
+        tuples.removeAll(deleted);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(expectedKeys(null), keys(index.iterator(tid)));
+        for (int key : new int[] {7, 1000, 1998, 2498}) {
+            assertEquals("key " + key, expectedKeys(key),
+                    keys(index.indexIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExtendibleHashFileTest.class);
+    }
+}
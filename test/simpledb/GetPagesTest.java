@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GetPagesTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+
+    /**
+     * Creates a table of about ten pages.
+     */
+    @Before public void setUp() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A run of pages is locked and cached, and holds the same data as the
+     * pages read one at a time; cached pages are returned as they are.
+     */
+    @Test public void pageRun() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPageId third = new HeapPageId(table.getId(), 3);
+        Page cached = pool.getPage(tid, third, Permissions.READ_ONLY);
+
+        List<Page> pages = pool.getPages(tid, table.getId(), 1, 6, Permissions.READ_ONLY);
+        assertEquals(5, pages.size());
+        assertSame(cached, pages.get(2));
+        for (int i = 0; i < pages.size(); i++) {
+            HeapPageId pid = new HeapPageId(table.getId(), 1 + i);
+            assertEquals(pid, pages.get(i).getId());
+            assertTrue(pool.holdsLock(tid, pid));
+            assertTrue(pool.isCached(pid));
+            assertArrayEquals(table.readPage(pid).getPageData(), pages.get(i).getPageData());
+        }
+        assertFalse(pool.holdsLock(tid, new HeapPageId(table.getId(), 6)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * The locks on a run of pages are granted under one latch of the lock
+     * table, where locking the pages one at a time takes it once per page.
+     */
+    @Test public void runLockedUnderOneLatch() throws Exception {
+        LockTable locks = new LockTable();
+        TransactionId scan = new TransactionId(), other = new TransactionId();
+        ArrayList<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < table.numPages(); i++)
+            pids.add(new HeapPageId(table.getId(), i));
+
+        locks.acquireLocks(scan, pids, Permissions.READ_ONLY);
+        assertEquals(1, locks.getLatches());
+        for (PageId pid : pids)
+            locks.acquireLock(other, pid, Permissions.READ_ONLY);
+        assertEquals(1 + pids.size(), locks.getLatches());
+        for (PageId pid : pids) {
+            assertTrue(locks.holdsLock(scan, pid));
+            assertTrue(locks.holdsLock(other, pid));
+        }
+
+        // pages nobody else locks are locked for writing at once as well
+        locks.releaseAllLocks(scan);
+        locks.releaseAllLocks(other);
+        locks.acquireLocks(other, pids, Permissions.READ_WRITE);
+        assertEquals(2 + pids.size(), locks.getLatches());
+        assertTrue(locks.lockedByOthers(scan, pids.get(0)));
+    }
+
+    /**
+     * Pages read with one read past the end of the file are empty.
+     */
+    @Test public void readPastEnd() throws Exception {
+        int n = table.numPages();
+        List<HeapPage> pages = table.readPages(n - 1, 3);
+        assertEquals(3, pages.size());
+        assertArrayEquals(table.readPage(new HeapPageId(table.getId(), n - 1)).getPageData(),
+                pages.get(0).getPageData());
+        assertFalse(pages.get(1).iterator().hasNext());
+        assertFalse(pages.get(2).iterator().hasNext());
+    }
+
+    /**
+     * A run of pages fetched for writing can be updated and written back.
+     */
+    @Test public void readWrite() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        List<Page> pages = pool.getPages(tid, table.getId(), 0, 2, Permissions.READ_WRITE);
+        HeapPage page = (HeapPage) pages.get(1);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        pool.transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        page = (HeapPage) pool.getPage(tid, page.getId(), Permissions.READ_ONLY);
+        assertEquals(0, page.getNumEmptySlots());
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GetPagesTest.class);
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GroupFlushTest extends SimpleDbTestBase {
+
+    /** Records the pages written and the forces of a file. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final List<Integer> written = new ArrayList<Integer>();
+        int batches;
+        int forces;
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            written.add(page.getId().pageNumber());
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            batches++;
+            for (Page page : pages)
+                written.add(page.getId().pageNumber());
+            super.writePages(pages);
+        }
+
+        @Override
+        public void force() throws IOException {
+            forces++;
+            super.force();
+        }
+    }
+
+    /** Deletes the first tuple of a page and marks it dirty. */
+    private static HeapPage change(HeapPage page, TransactionId tid) throws DbException {
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        return page;
+    }
+
+    /**
+     * A commit writes the pages the transaction changed, in page number
+     * order with one batch and one force for the file, and none of the
+     * pages it only read or fetched for writing without changing.
+     */
+    @Test public void onlyChangedPagesWritten() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool pool = Database.getBufferPool();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < table.numPages(); i++)
+            pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        int[] changed = { 7, 2, 3 };
+        int[] empty = new int[changed.length];
+        for (int i = 0; i < changed.length; i++) {
+            HeapPageId pid = new HeapPageId(table.getId(), changed[i]);
+            empty[i] = change((HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE), tid)
+                    .getNumEmptySlots();
+            pool.unpinPage(tid, pid);
+        }
+        pool.getPage(tid, new HeapPageId(table.getId(), 4), Permissions.READ_WRITE);
+        pool.transactionComplete(tid);
+
+        assertEquals(Arrays.asList(2, 3, 7), table.written);
+        assertEquals(1, table.batches);
+        assertEquals(1, table.forces);
+        for (int i = 0; i < changed.length; i++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), changed[i]));
+            assertEquals(empty[i], page.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * A transaction that changed no page writes and forces nothing.
+     */
+    @Test public void readOnlyWritesNothing() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        Transaction t = new Transaction();
+        t.start();
+        scanAll(t, table);
+        t.commit();
+
+        assertEquals(0, table.written.size());
+        assertEquals(0, table.forces);
+    }
+
+    private static void scanAll(Transaction t, HeapFile table) throws Exception {
+        SeqScan scan = new SeqScan(t.getId(), table.getId(), "");
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+    }
+
+    /**
+     * A table whose changed pages were all written out before the commit
+     * is still forced at the commit.
+     */
+    @Test public void stolenTableForced() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, null);
+        BufferPool pool = Database.resetBufferPool(1);
+
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        change((HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE), tid);
+        pool.unpinPage(tid, pid);
+        // the only page of the pool is dirty, and is written out to make room
+        pool.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(Arrays.asList(0), table.written);
+        assertEquals(0, table.forces);
+
+        pool.transactionComplete(tid);
+        assertEquals(Arrays.asList(0), table.written);
+        assertEquals(1, table.forces);
+    }
+
+    /**
+     * Runs of adjacent pages, within a segment and over the end of one, are
+     * written as they are.
+     */
+    @Test public void runsWritten() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 1000, null, null);
+        HeapFileEncoder.segment(f, BufferPool.PAGE_SIZE, 3);
+        try {
+            HeapFile table = Utility.openHeapFile(2, f);
+            TransactionId tid = new TransactionId();
+            List<Page> pages = new ArrayList<Page>();
+            for (int pgNo : new int[] { 0, 1, 2, 3, 4, 7 })
+                pages.add(change((HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo)), tid));
+            table.writePages(pages);
+            table.force();
+
+            for (Page page : pages)
+                assertArrayEquals(page.getPageData(), table.readPage(page.getId()).getPageData());
+        } finally {
+            Segments.deleteFiles(f);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupFlushTest.class);
+    }
+}
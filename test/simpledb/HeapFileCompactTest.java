@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileCompactTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private BTreeFile index;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table of ten pages with an index on the first field, and
+     * deletes all but every tenth tuple.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        File indexFile = File.createTempFile("compact", ".idx");
+        indexFile.deleteOnExit();
+        index = new BTreeFile(indexFile, Type.INT_TYPE, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % 10 != 0)
+                deleted.add(t);
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void checkIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(t.get(0));
+        ArrayList<Integer> found = new ArrayList<Integer>();
+        IndexScan scan = new IndexScan(tid, index, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(Integer.MIN_VALUE), "t");
+        scan.open();
+        while (scan.hasNext())
+            found.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        Collections.sort(expected);
+        Collections.sort(found);
+        assertEquals(expected, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The live tuples end up on the first pages, the file is truncated
+     * after them, and the index finds the moved tuples.
+     */
+    @Test public void compact() throws Exception {
+        int pages = table.numPages();
+        int reclaimed = table.compact();
+        assertTrue(reclaimed >= pages - 2);
+        assertEquals(pages - reclaimed, table.numPages());
+        assertEquals((long) table.numPages() * BufferPool.PAGE_SIZE, table.getFile().length());
+        SystemTestUtil.matchTuples(table, tuples);
+        checkIndex();
+
+        // the file grows again from its new end
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] {i, -i}));
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(table, tuples);
+        checkIndex();
+    }
+
+    /**
+     * Each step of the compaction is logged as a transaction of its own,
+     * with a BEGIN and a COMMIT record, and recovery undoes none of them.
+     */
+    @Test public void stepsLogged() throws Exception {
+        int records = Database.getLogFile().getTotalRecords();
+        int reclaimed = table.compact();
+        assertTrue(reclaimed > 0);
+        assertTrue(Database.getLogFile().getTotalRecords() - records >= 2 * reclaimed);
+
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, tuples);
+        checkIndex();
+    }
+
+    /**
+     * A page another transaction holds a lock on is neither moved nor
+     * truncated, and the compaction can be resumed once it is released.
+     */
+    @Test public void lockedPage() throws Exception {
+        int pages = table.numPages();
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().getPage(other, new HeapPageId(table.getId(), pages - 1),
+                Permissions.READ_ONLY);
+        assertEquals(0, table.compact());
+        assertEquals(pages, table.numPages());
+        Database.getBufferPool().transactionComplete(other);
+
+        assertTrue(table.compact() > 0);
+        SystemTestUtil.matchTuples(table, tuples);
+        checkIndex();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileCompactTest.class);
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.struct.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.RandomAccessFile;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -78,6 +79,44 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory-mapped view of
+     * the file: every page, up to the last one, which is only partly
+     * filled, and a page cut short by the end of the file, reads the same
+     * as through the file channel.
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        int pages = file.numPages();
+        assertEquals(2, pages);
+        byte[][] expected = new byte[pages + 1][];
+        for (int i = 0; i < pages; i++)
+            expected[i] = file.readPage(new HeapPageId(file.getId(), i)).getPageData();
+        assertTrue(((HeapPage) file.readPage(new HeapPageId(file.getId(), pages - 1)))
+                .getNumEmptySlots() > 0);
+
+        // half a page written past the last whole page
+        RandomAccessFile raf = new RandomAccessFile(file.getFile(), "rw");
+        raf.seek(raf.length());
+        raf.write(expected[0], 0, expected[0].length / 2);
+        raf.close();
+        assertEquals(pages, file.numPages());
+        HeapPageId partial = new HeapPageId(file.getId(), pages);
+        expected[pages] = file.readPage(partial).getPageData();
+        assertFalse(Arrays.equals(expected[0], expected[pages]));
+
+        Database.getCatalog().addTable(file, "mapped", "", true);
+        assertTrue(file.isMemoryMapped());
+        for (int i = 0; i <= pages; i++) {
+            HeapPageId pid = new HeapPageId(file.getId(), i);
+            assertArrayEquals(expected[i], file.readPage(pid).getPageData());
+        }
+
+        file.setMemoryMapped(false);
+        assertArrayEquals(expected[pages], file.readPage(partial).getPageData());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -5,7 +5,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
+import simpledb.struct.*;
+import simpledb.systemtest.SystemTestUtil;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -43,6 +49,33 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A tuple larger than an empty slotted page is refused, rather than
+     * appending pages that cannot take it either.
+     */
+    @Test public void tupleTooLarge() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        Type[] types = new Type[40];
+        Arrays.fill(types, Type.STRING_TYPE);
+        TupleDesc td = new TupleDesc(types);
+        HeapFile table = new HeapFile(f, td, true);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        char[] chars = new char[Type.STRING_LEN];
+        Arrays.fill(chars, 'x');
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++)
+            t.setField(i, new StringField(new String(chars), Type.STRING_LEN));
+        try {
+            table.insertTuple(tid, t);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(0, table.numPages());
+    }
+
     /**
      * JUnit suite target
      */
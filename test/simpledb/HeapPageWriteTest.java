@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -13,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
+import simpledb.struct.HeapFile;
 import simpledb.struct.HeapPage;
 import simpledb.struct.HeapPageId;
 import simpledb.struct.Tuple;
@@ -129,6 +134,40 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): a page read READ_ONLY takes
+     * no copy of its contents, so its before image follows the page until
+     * it is fetched for writing, and from then on keeps the contents the
+     * page had before it was modified.
+     */
+    @Test public void lazyBeforeImage() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId id = new HeapPageId(file.getId(), 0);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, id, Permissions.READ_ONLY);
+        byte[] read = page.getPageData();
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next(), second = it.next();
+
+        // changed behind the pool's back, the page has no copy to go back to
+        page.deleteTuple(first);
+        byte[] unlogged = page.getPageData();
+        assertFalse(Arrays.equals(read, unlogged));
+        assertArrayEquals(unlogged, page.getBeforeImage().getPageData());
+
+        assertSame(page, bp.getPage(tid, id, Permissions.READ_WRITE));
+        page.deleteTuple(second);
+        page.markDirty(true, tid);
+        assertFalse(Arrays.equals(unlogged, page.getPageData()));
+        assertArrayEquals(unlogged, page.getBeforeImage().getPageData());
+
+        // once written out, the page is its own before image again
+        bp.flushPages(tid);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+        bp.transactionComplete(tid);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Filter;
+import simpledb.operation.IndexNestedLoopJoin;
+import simpledb.operation.JoinPredicate;
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+    private HeapFile outer;
+    private HeapFile inner;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, outerTuples);
+        inner = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, innerTuples);
+    }
+
+    private static IndexFile addIndex(IndexFile index, HeapFile table) throws Exception {
+        Database.getCatalog().addIndex(index);
+        index.rebuild(table);
+        return index;
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("inlj", ".idx");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return the concatenations of the outer and inner tuples that match
+     * the predicate and, if filter is set, have an inner second field
+     * below it.
+     */
+    private ArrayList<ArrayList<Integer>> expected(Predicate.Op op, Integer filter) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> i : innerTuples) {
+                if (!new IntField(o.get(0)).compare(op, new IntField(i.get(0))))
+                    continue;
+                if (filter != null && i.get(1) >= filter)
+                    continue;
+                ArrayList<Integer> t = new ArrayList<Integer>(o);
+                t.addAll(i);
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * An equality join probing a hash index returns every matching pair.
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        IndexFile index = addIndex(new ExtendibleHashFile(tempFile(), Type.INT_TYPE, inner.getId(), 0), inner);
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"),
+                new IndexScan(tid, index, Predicate.Op.EQUALS, null, "i"));
+        SystemTestUtil.matchTuples(join, expected(Predicate.Op.EQUALS, null));
+        // and again, after being closed and reopened
+        SystemTestUtil.matchTuples(join, expected(Predicate.Op.EQUALS, null));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A range join probing a B+ tree applies filters of the inner relation
+     * above its index scan to every probe.
+     */
+    @Test public void btreeRangeJoin() throws Exception {
+        IndexFile index = addIndex(new BTreeFile(tempFile(), Type.INT_TYPE, inner.getId(), 0), inner);
+        TransactionId tid = new TransactionId();
+        // o.0 < i.0 is i.0 > o.0 from the side of the index
+        DbIterator innerPlan = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)),
+                new IndexScan(tid, index, Predicate.Op.GREATER_THAN, null, "i"));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(
+                new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, outer.getId(), "o"), innerPlan);
+        SystemTestUtil.matchTuples(join, expected(Predicate.Op.LESS_THAN, 50));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
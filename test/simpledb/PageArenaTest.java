@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    private static final int ARENA_PAGES = 64;
+
+    private static void readAll(BufferPool pool, HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            Page page = pool.getPage(tid, pid, Permissions.READ_ONLY);
+            assertArrayEquals(table.readPage(pid).getPageData(), page.getPageData());
+        }
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * Pages evicted from the decoded pages of the pool are decoded again
+     * from their images in the arena.
+     */
+    @Test public void pagesKeptInArena() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 15000, null, null);
+        BufferPool pool = Database.resetBufferPoolArena((long) POOL_PAGES * BufferPool.PAGE_SIZE,
+                (long) ARENA_PAGES * BufferPool.PAGE_SIZE);
+        PageArena arena = pool.getArena();
+        assertEquals(ARENA_PAGES, arena.getNumSlots());
+
+        readAll(pool, table);
+        for (int i = 0; i < table.numPages(); i++)
+            assertTrue(arena.contains(new HeapPageId(table.getId(), i)));
+        readAll(pool, table);
+        assertTrue(pool.getCachedBytes() <= pool.getBudget());
+    }
+
+    /**
+     * An arena smaller than the table reuses its slots, and the pages read
+     * through it are right.
+     */
+    @Test public void slotsReused() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 15000, null, null);
+        BufferPool pool = Database.resetBufferPoolArena((long) POOL_PAGES * BufferPool.PAGE_SIZE,
+                8L * BufferPool.PAGE_SIZE);
+        readAll(pool, table);
+        readAll(pool, table);
+        int held = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (pool.getArena().contains(new HeapPageId(table.getId(), i)))
+                held++;
+        }
+        assertTrue(held <= 8);
+    }
+
+    /**
+     * A page written at commit is read again as written, not as its old
+     * image in the arena.
+     */
+    @Test public void writeDropsImage() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 15000, null, null);
+        BufferPool pool = Database.resetBufferPoolArena((long) POOL_PAGES * BufferPool.PAGE_SIZE,
+                (long) ARENA_PAGES * BufferPool.PAGE_SIZE);
+        readAll(pool, table);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2 });
+        pool.insertTuple(tid, table.getId(), t);
+        PageId written = t.getRecordId().getPageId();
+        pool.transactionComplete(tid);
+        assertFalse(pool.getArena().contains(written));
+
+        // the page leaves the decoded pages, and is read again
+        readAll(pool, table);
+        readAll(pool, table);
+        assertTrue(pool.getArena().contains(written));
+    }
+
+    /**
+     * Pages of a size other than that of the slots are read from their
+     * file without the arena.
+     */
+    @Test public void otherPageSizeBypasses() throws Exception {
+        File f = File.createTempFile("arena", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        HeapFileEncoder.convert(tuples, f, 2 * BufferPool.PAGE_SIZE, 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2), false, 2 * BufferPool.PAGE_SIZE);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPoolArena(4L * table.getPageSize(),
+                (long) ARENA_PAGES * BufferPool.PAGE_SIZE);
+
+        readAll(pool, table);
+        assertFalse(pool.getArena().contains(new HeapPageId(table.getId(), 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static final int LARGE = 32 * 1024;
+
+    /**
+     * Writes the given tuples of two int fields into a new table with pages
+     * of the given size.
+     */
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples, int pageSize)
+            throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2), false, pageSize);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private static ArrayList<ArrayList<Integer>> tuples(int rows) {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * Pages of a table with large pages hold as many more tuples, and
+     * tuples inserted through the BufferPool end up in the file.
+     */
+    @Test public void largePages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = tuples(5000);
+        HeapFile table = createTable(tuples, LARGE);
+        assertEquals(LARGE, table.getPageSize());
+        assertEquals(LARGE, Database.getCatalog().getPageSize(table.getId()));
+        // 4032 tuples of 8 bytes fit on a 32 KB page
+        assertEquals(2, table.numPages());
+        assertEquals(2L * LARGE, table.getFile().length());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(LARGE, page.getPageSize());
+        assertEquals(LARGE, page.getPageData().length);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> inserted = tuples(10000);
+        for (int i = 5000; i < 10000; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] {i, -i}));
+            tuples.add(inserted.get(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, table.numPages());
+        assertEquals(3L * LARGE, table.getFile().length());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * An aborted change of a large page is rolled back to its whole image.
+     */
+    @Test public void abortLargePage() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = tuples(100);
+        HeapFile table = createTable(tuples, LARGE);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] {-1, 1}));
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * The pool counts cached pages by their size: a budget of four large
+     * pages holds 32 small pages, or four large ones.
+     */
+    @Test public void byteBudget() throws Exception {
+        HeapFile large = createTable(tuples(30000), LARGE);
+        HeapFile small = createTable(tuples(30000), BufferPool.PAGE_SIZE);
+        BufferPool pool = Database.resetBufferPoolBudget(4L * LARGE);
+        assertEquals(4 * LARGE / BufferPool.PAGE_SIZE, pool.getNumPages());
+        assertEquals(4, pool.getNumPages(LARGE));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 32; i++)
+            pool.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        assertEquals(4L * LARGE, pool.getCachedBytes());
+        assertTrue(pool.isCached(new HeapPageId(small.getId(), 0)));
+
+        // a large page pushes out the eight least recently used small pages
+        pool.getPage(tid, new HeapPageId(large.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(4L * LARGE, pool.getCachedBytes());
+        for (int i = 0; i < 8; i++)
+            assertFalse(pool.isCached(new HeapPageId(small.getId(), i)));
+        assertTrue(pool.isCached(new HeapPageId(small.getId(), 8)));
+
+        for (int i = 1; i < 4; i++)
+            pool.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+        assertEquals(4L * LARGE, pool.getCachedBytes());
+        assertFalse(pool.isCached(new HeapPageId(small.getId(), 31)));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * The page size of a table is given in the catalog by the "pagesize"
+     * option.
+     */
+    @Test public void catalogOption() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "pagesize" + SystemTestUtil.getUUID());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        File data = new File(dir, "facts.dat");
+        data.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = tuples(3000);
+        HeapFileEncoder.convert(tuples, data, 16384, 2);
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter out = new FileWriter(schema);
+        out.write("facts (a int, b int) pagesize=16384\n");
+        out.close();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        int id = Database.getCatalog().getTableId("facts");
+        assertEquals(16384, Database.getCatalog().getPageSize(id));
+        HeapFile table = (HeapFile) Database.getCatalog().getDbFile(id);
+        assertEquals(2, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * Page sizes a HeapFile cannot have are refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void badPageSize() {
+        HeapFile.checkPageSize(5000);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 10;
+    private static final int THREADS = 8;
+
+    /**
+     * A pinned frame is not evicted, and an evicted frame can neither be
+     * pinned nor found.
+     */
+    @Test public void pinAndEvict() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        PageTable pages = new PageTable();
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        PageTable.Frame frame = pages.putIfAbsent(pid, table.readPage(pid));
+        assertSame(frame, pages.putIfAbsent(pid, table.readPage(pid)));
+        assertEquals(BufferPool.PAGE_SIZE, pages.bytes());
+
+        assertTrue(frame.pin());
+        assertFalse(pages.evict(frame));
+        frame.unpin();
+        assertTrue(pages.evict(frame));
+        assertFalse(frame.pin());
+        assertNull(pages.get(pid));
+        assertEquals(0, pages.bytes());
+        assertTrue(pages.isEmpty());
+    }
+
+    /**
+     * A page fetched for writing stays in the pool although it is clean
+     * and least recently used, until it is unpinned.
+     */
+    @Test public void pinnedPageStays() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        TransactionId writer = new TransactionId();
+        HeapPageId pinnedPid = new HeapPageId(table.getId(), 0);
+        pool.getPage(writer, pinnedPid, Permissions.READ_WRITE);
+
+        TransactionId reader = new TransactionId();
+        for (int i = 1; i < 2 * POOL_PAGES; i++)
+            pool.getPage(reader, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        assertTrue(pool.isCached(pinnedPid));
+
+        pool.unpinPage(writer, pinnedPid);
+        for (int i = 2 * POOL_PAGES; i < 3 * POOL_PAGES; i++)
+            pool.getPage(reader, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        assertFalse(pool.isCached(pinnedPid));
+        pool.transactionComplete(reader);
+        pool.transactionComplete(writer);
+    }
+
+    /**
+     * Many threads reading the pages of a table larger than the pool get
+     * the right pages, and the pool stays within its budget.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        final BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final int seed = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 50; round++) {
+                        TransactionId tid = new TransactionId();
+                        // a few hot pages and a sweep through the others
+                        for (int i = 0; i < table.numPages(); i++) {
+                            int pgNo = i % 3 == 0 ? (seed + i) % 3 : i;
+                            HeapPageId pid = new HeapPageId(table.getId(), pgNo);
+                            Page page = pool.getPage(tid, pid, Permissions.READ_ONLY);
+                            assertEquals(pid, page.getId());
+                        }
+                        pool.transactionComplete(tid);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertTrue(pool.getCachedBytes() <= (long) POOL_PAGES * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private byte[] paxData;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        paxData = PaxPage.fromRowPage(HeapPageReadTest.EXAMPLE_DATA, Utility.getTypes(2));
+    }
+
+    /**
+     * A transposed page must hold the same tuples as the row page.
+     */
+    @Test public void readTransposedPage() throws Exception {
+        PaxPage page = new PaxPage(pid, paxData);
+        assertEquals(484, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int[] values : HeapPageReadTest.EXAMPLE_VALUES) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(values[0]), t.getField(0));
+            assertEquals(new IntField(values[1]), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for PaxPage.getIntColumn()
+     */
+    @Test public void intColumn() throws Exception {
+        PaxPage page = new PaxPage(pid, paxData);
+        int[] column = page.getIntColumn(1);
+        for (int i = 0; i < HeapPageReadTest.EXAMPLE_VALUES.length; i++)
+            assertEquals(HeapPageReadTest.EXAMPLE_VALUES[i][1], column[i]);
+    }
+
+    /**
+     * Inserted and deleted tuples must be visible through getPageData.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        PaxPage page = new PaxPage(pid, paxData);
+        int free = page.getNumEmptySlots();
+        Tuple addition = Utility.getHeapTuple(new int[] {7, 8});
+        page.insertTuple(addition);
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        assertEquals(free, copy.getNumEmptySlots());
+        assertFalse(copy.isSlotUsed(first.getRecordId().tupleno()));
+
+        boolean found = false;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext()) {
+            if (TestUtil.compareTuples(addition, it.next()))
+                found = true;
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * A tuple handed out keeps its values when its slot is cleared and
+     * filled again before its fields are read.
+     */
+    @Test public void heldTupleUnchanged() throws Exception {
+        PaxPage page = new PaxPage(pid, paxData);
+        Tuple held = page.iterator().next();
+        int slot = held.getRecordId().tupleno();
+
+        // deleted through another tuple of the slot, held decodes nothing
+        page.deleteTuple(page.iterator().next());
+        Tuple addition = Utility.getHeapTuple(new int[] {7, 8});
+        page.insertTuple(addition);
+        assertEquals(slot, addition.getRecordId().tupleno());
+
+        int[] values = HeapPageReadTest.EXAMPLE_VALUES[0];
+        assertEquals(new IntField(values[0]), held.getField(0));
+        assertEquals(new IntField(values[1]), held.getField(1));
+        Tuple current = page.iterator().next();
+        assertEquals(slot, current.getRecordId().tupleno());
+        assertTrue(TestUtil.compareTuples(addition, current));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table of about forty pages in a pool large enough to hold
+     * it.
+     */
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(100);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+    }
+
+    @After public void tearDown() {
+        ReadAhead.setEnabled(true);
+    }
+
+    private boolean cachedWithin(HeapPageId pid, long millis) throws InterruptedException {
+        long end = System.currentTimeMillis() + millis;
+        while (!Database.getBufferPool().isCached(pid)) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Once the iterator has moved on to its second batch of pages, the
+     * pages after that batch are read into the pool without being locked.
+     */
+    @Test public void pagesAhead() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.next().getRecordId().getPageId().pageNumber() < HeapFile.SCAN_BATCH_PAGES)
+            ;
+        HeapPageId ahead = new HeapPageId(table.getId(),
+                2 * HeapFile.SCAN_BATCH_PAGES + ReadAhead.MIN_DEPTH - 1);
+        assertTrue(cachedWithin(ahead, 5000));
+        assertFalse(Database.getBufferPool().holdsLock(tid, ahead));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // and the scan returns the same tuples with or without read-ahead
+        SystemTestUtil.matchTuples(table, tuples);
+        ReadAhead.setEnabled(false);
+        Database.resetBufferPool(100);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * A scan through a pool much smaller than the table reads all of it,
+     * with the pages read ahead evicted before or after their use.
+     */
+    @Test public void smallPool() throws Exception {
+        Database.resetBufferPool(8);
+        SystemTestUtil.matchTuples(table, tuples);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * No page is read ahead into a pool that is full with at most half its
+     * pages clean.
+     */
+    @Test public void underPressure() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            Page page = pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+        }
+        HeapPageId pid = new HeapPageId(table.getId(), 10);
+        assertTrue(pool.prefetchPage(pid));
+        assertFalse(pool.prefetchPage(new HeapPageId(table.getId(), 11)));
+        assertFalse(pool.isCached(new HeapPageId(table.getId(), 11)));
+        pool.transactionComplete(tid, false);
+
+        // with the pages clean again the pool can make room
+        assertTrue(pool.prefetchPage(new HeapPageId(table.getId(), 11)));
+        assertEquals(4, countCached(pool));
+    }
+
+    private int countCached(BufferPool pool) {
+        int n = 0;
+        for (int i = 0; i < table.numPages(); i++) {
+            if (pool.isCached(new HeapPageId(table.getId(), i)))
+                ++n;
+        }
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final String[] POLICIES = {
+        ReplacementPolicy.LRU, ReplacementPolicy.CLOCK,
+        ReplacementPolicy.TWO_QUEUE, ReplacementPolicy.LRU_K
+    };
+
+    private HeapFile table;
+
+    @Before public void createTable() throws Exception {
+        table = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+    }
+
+    private PageTable.Frame frame(int pgNo) {
+        HeapPageId pid = new HeapPageId(table.getId(), pgNo);
+        return new PageTable.Frame(pid, table.readPage(pid));
+    }
+
+    /**
+     * Every policy passes over dirty and pinned pages, and offers them
+     * again once they are released.
+     */
+    @Test public void dirtyAndPinnedPassedOver() throws Exception {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = ReplacementPolicy.create(name);
+            assertEquals(name, policy.getName());
+            PageTable.Frame pinned = frame(0), dirty = frame(1), clean = frame(2);
+            for (PageTable.Frame frame : new PageTable.Frame[] { pinned, dirty, clean })
+                policy.admitted(frame);
+            pinned.pin();
+            dirty.page.markDirty(true, new TransactionId());
+
+            assertTrue(name, clean == policy.nextVictim());
+            policy.removed(clean);
+            assertNull(name, policy.nextVictim());
+
+            pinned.unpin();
+            policy.recordRelease(pinned);
+            assertTrue(name, pinned == policy.nextVictim());
+            policy.removed(pinned);
+            dirty.page.markDirty(false, null);
+            assertTrue(name, dirty == policy.nextVictim());
+        }
+    }
+
+    /**
+     * Every policy forgets the dirty and pinned pages it kept apart once
+     * they are evicted or discarded.
+     */
+    @Test public void heldFramesForgotten() throws Exception {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = ReplacementPolicy.create(name);
+            PageTable.Frame pinned = frame(0), dirty = frame(1);
+            policy.admitted(pinned);
+            policy.admitted(dirty);
+            policy.recordAccess(dirty);
+            pinned.pin();
+            dirty.page.markDirty(true, new TransactionId());
+            assertNull(name, policy.nextVictim());
+            assertEquals(name, 2, policy.size());
+
+            policy.removed(pinned);
+            policy.removed(dirty);
+            policy.removed(dirty);
+            assertEquals(name, 0, policy.size());
+            assertNull(name, policy.nextVictim());
+        }
+    }
+
+    /**
+     * A page 2Q kept apart in A1in is remembered in A1out when it is
+     * evicted, and joins Am when it is read again.
+     */
+    @Test public void twoQueueRemembersHeldPages() throws Exception {
+        ReplacementPolicy policy = ReplacementPolicy.create(ReplacementPolicy.TWO_QUEUE);
+        PageTable.Frame hot = frame(0);
+        policy.admitted(hot);
+        hot.pin();
+        assertNull(policy.nextVictim());
+        policy.removed(hot);
+
+        PageTable.Frame cold = frame(1);
+        policy.admitted(cold);
+        hot = frame(0);
+        policy.admitted(hot);
+        assertSame(hot, policy.nextVictim());
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockSecondChance() throws Exception {
+        ReplacementPolicy policy = ReplacementPolicy.create(ReplacementPolicy.CLOCK);
+        PageTable.Frame a = frame(0), b = frame(1);
+        policy.admitted(a);
+        policy.admitted(b);
+        policy.recordAccess(a);
+        assertSame(b, policy.nextVictim());
+        policy.removed(b);
+        assertSame(a, policy.nextVictim());
+    }
+
+    /**
+     * Pages read once by a scan are evicted by 2Q before the pages that
+     * were read again.
+     */
+    @Test public void twoQueueScanResistance() throws Exception {
+        ReplacementPolicy policy = ReplacementPolicy.create(ReplacementPolicy.TWO_QUEUE);
+        PageTable.Frame hot = frame(0);
+        policy.admitted(hot);
+        policy.removed(hot);
+        // read again while remembered, the page joins Am
+        hot = frame(0);
+        policy.admitted(hot);
+        for (int i = 1; i <= 8; i++)
+            policy.admitted(frame(i));
+        // the scan pages go while they are more than a quarter of the pages
+        for (int i = 1; i <= 7; i++) {
+            PageTable.Frame victim = policy.nextVictim();
+            assertEquals(i, victim.pid.pageNumber());
+            policy.removed(victim);
+        }
+        assertTrue(hot == policy.nextVictim());
+    }
+
+    /**
+     * LRU-K evicts the page whose second to last use is longest ago, where
+     * LRU evicts the page whose last use is.
+     */
+    @Test public void lruKUsesHistory() throws Exception {
+        PageTable.Frame a = frame(0), b = frame(1);
+        ReplacementPolicy lru = ReplacementPolicy.create(ReplacementPolicy.LRU);
+        ReplacementPolicy lruK = ReplacementPolicy.create(ReplacementPolicy.LRU_K);
+        for (ReplacementPolicy policy : new ReplacementPolicy[] { lru, lruK }) {
+            policy.admitted(a);
+            policy.admitted(b);
+            policy.recordAccess(b);
+            policy.recordAccess(a);
+        }
+        assertSame(b, lru.nextVictim());
+        assertSame(a, lruK.nextVictim());
+
+        // a page used once goes before either
+        PageTable.Frame c = frame(2);
+        lruK.admitted(c);
+        assertSame(c, lruK.nextVictim());
+    }
+
+    /**
+     * A pool reads a table larger than itself under every policy, and
+     * writes to it, keeping the pages a transaction changed.
+     */
+    @Test public void poolUnderEachPolicy() throws Exception {
+        for (String name : POLICIES) {
+            BufferPool pool = Database.resetBufferPool(10, name);
+            assertEquals(name, pool.getReplacementPolicy().getName());
+            TransactionId tid = new TransactionId();
+            HeapPageId written = new HeapPageId(table.getId(), 0);
+            pool.getPage(tid, written, Permissions.READ_WRITE).markDirty(true, tid);
+            pool.unpinPage(tid, written);
+            for (int round = 0; round < 2; round++) {
+                for (int i = 1; i < table.numPages(); i++)
+                    pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+            }
+            assertTrue(name, pool.isCached(written));
+            assertTrue(name, pool.getCachedBytes() <= pool.getBudget());
+            pool.transactionComplete(tid, false);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicy() {
+        ReplacementPolicy.create("mru");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SegmentsTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_PAGES = 3;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File dataFile;
+    private int pages;
+
+    /**
+     * Writes a table of about ten pages and splits it into segments of
+     * three pages.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        dataFile = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 100000, null, tuples);
+        pages = (int) (dataFile.length() / BufferPool.PAGE_SIZE);
+        HeapFileEncoder.segment(dataFile, BufferPool.PAGE_SIZE, SEGMENT_PAGES);
+    }
+
+    @After public void tearDown() {
+        Segments.deleteFiles(dataFile);
+    }
+
+    private int segmentFiles() {
+        int n = 0;
+        while (Segments.segmentFile(dataFile, n).exists())
+            n++;
+        return n;
+    }
+
+    /**
+     * The segments hold the pages of the table, which reads as before.
+     */
+    @Test public void readSegmented() throws Exception {
+        assertEquals((pages + SEGMENT_PAGES - 1) / SEGMENT_PAGES, segmentFiles());
+        assertEquals((long) SEGMENT_PAGES * BufferPool.PAGE_SIZE, dataFile.length());
+        HeapFile table = Utility.openHeapFile(2, dataFile);
+        assertTrue(table.isSegmented());
+        assertEquals(pages, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // a run of pages over segment ends reads as the single pages do
+        List<HeapPage> run = table.readPages(1, pages - 1);
+        for (int i = 1; i < pages; i++) {
+            HeapPageId pid = new HeapPageId(table.getId(), i);
+            assertArrayEquals(table.readPage(pid).getPageData(), run.get(i - 1).getPageData());
+        }
+
+        table.setMemoryMapped(true);
+        SystemTestUtil.matchTuples(table, tuples);
+        table.close();
+    }
+
+    /**
+     * Inserts and bulk appends go on into new segments, and compaction
+     * deletes the segments it empties.
+     */
+    @Test public void growAndShrink() throws Exception {
+        HeapFile table = Utility.openHeapFile(2, dataFile);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            inserted.add(t);
+            ArrayList<Integer> values = new ArrayList<Integer>();
+            values.add(i);
+            values.add(-i);
+            tuples.add(values);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() > pages);
+        assertEquals((table.numPages() + SEGMENT_PAGES - 1) / SEGMENT_PAGES, segmentFiles());
+
+        int grown = table.numPages();
+        table.close();
+        table = Utility.openHeapFile(2, dataFile);
+        assertEquals(grown, table.numPages());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        tid = new TransactionId();
+        for (Tuple t : inserted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        table.compact();
+        assertEquals(pages, table.numPages());
+        assertEquals((pages + SEGMENT_PAGES - 1) / SEGMENT_PAGES, segmentFiles());
+        SystemTestUtil.matchTuples(table, tuples.subList(0, tuples.size() - inserted.size()));
+        table.close();
+    }
+
+    /**
+     * Pages beyond 2GB into a file are written and read at their offset.
+     */
+    @Test public void largeOffsets() throws Exception {
+        File f = File.createTempFile("large", ".dat");
+        SystemTestUtil.deleteOnExit(f);
+        HeapFile table = Utility.openHeapFile(2, f);
+        int pgNo = (int) ((3L << 30) / BufferPool.PAGE_SIZE);
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), pgNo), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        table.writePage(page);
+        assertEquals(((long) pgNo + 1) * BufferPool.PAGE_SIZE, f.length());
+        assertEquals(pgNo + 1, table.numPages());
+        HeapPage read = (HeapPage) table.readPage(new HeapPageId(table.getId(), pgNo));
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        table.close();
+        f.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentsTest.class);
+    }
+}
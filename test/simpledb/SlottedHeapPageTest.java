@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings should pack many more tuples than the fixed layout.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int inserted = 0;
+        while (page.canInsert(makeTuple(inserted, "ab"))) {
+            page.insertTuple(makeTuple(inserted, "ab"));
+            inserted++;
+        }
+        // 4 byte int + 2 byte length + 2 chars + 4 byte slot entry
+        assertEquals((BufferPool.PAGE_SIZE - 4) / 12, inserted);
+
+        Iterator<Tuple> it = page.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(count), t.getField(0));
+            assertEquals("ab", t.getField(1).toString());
+            assertEquals(count, t.getRecordId().tupleno());
+            count++;
+        }
+        assertEquals(inserted, count);
+    }
+
+    /**
+     * getPageData must round trip through the constructor.
+     */
+    @Test public void pageData() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(makeTuple(1, "hello"));
+        page.insertTuple(makeTuple(2, ""));
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertTrue(TestUtil.compareTuples(makeTuple(1, "hello"), it.next()));
+        assertTrue(TestUtil.compareTuples(makeTuple(2, ""), it.next()));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused and their space is reclaimed by compaction.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.canInsert(makeTuple(0, "abcdefgh"))) {
+            Tuple t = makeTuple(tuples.size(), "abcdefgh");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        page.deleteTuple(tuples.get(3));
+        page.deleteTuple(tuples.get(4));
+        assertEquals(2, page.getNumEmptySlots());
+
+        // a tuple twice as large only fits once the two holes are merged
+        Tuple big = makeTuple(-1, "abcdefghijklmnopqrstu");
+        assertTrue(page.canInsert(big));
+        page.insertTuple(big);
+        assertEquals(3, big.getRecordId().tupleno());
+
+        Iterator<Tuple> it = page.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().tupleno() == 3)
+                assertTrue(TestUtil.compareTuples(big, t));
+            else
+                assertTrue(TestUtil.compareTuples(tuples.get(t.getRecordId().tupleno()), t));
+            count++;
+        }
+        assertEquals(tuples.size() - 1, count);
+    }
+
+    /**
+     * Unit test for deleting a tuple that is not on the page.
+     */
+    @Test(expected=DbException.class)
+    public void deleteNonexistentTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        page.deleteTuple(Utility.getHeapTuple(2, 2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.struct.*;
+import simpledb.systemtest.SystemTestUtil;
 
 import java.io.*;
 import java.util.*;
@@ -380,7 +381,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            SystemTestUtil.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.operation.Filter;
+import simpledb.operation.Predicate;
+import simpledb.struct.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File file;
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Creates a table whose first field grows with the page number, and
+     * reads it once so that the zone map knows every page. Forcing the
+     * table stamps the zone map with the data file.
+     */
+    @Before public void setUp() throws Exception {
+        File text = File.createTempFile("zonemap", ".txt");
+        text.deleteOnExit();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        PrintWriter pw = new PrintWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            pw.println(i + "," + i % 7);
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            tuples.add(t);
+        }
+        pw.close();
+        file = File.createTempFile("zonemap", ".dat");
+        SystemTestUtil.deleteOnExit(file);
+        new BulkLoader(Utility.getTypes(2), ',', false, false).convert(text, file);
+        table = Utility.openHeapFile(2, file);
+        SystemTestUtil.matchTuples(table, tuples);
+        table.force();
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(Predicate p) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (p.filter(Utility.getHeapTuple(new int[] {t.get(0), t.get(1)})))
+                result.add(t);
+        }
+        return result;
+    }
+
+    private SeqScan scan(TransactionId tid, Predicate p) {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(p);
+        return scan;
+    }
+
+    /**
+     * A scan with a range predicate neither locks nor reads the pages
+     * whose range rules it out, also once the file is reopened.
+     */
+    @Test public void skipsPages() throws Exception {
+        int last = table.numPages() - 1;
+        assertTrue(last > 2);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        assertFalse(table.getZoneMap().mayMatch(last, p));
+        assertTrue(table.getZoneMap().mayMatch(0, p));
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Filter(p, scan(tid, p)), expected(p));
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), 0)));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), last)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        table.close();
+        table = Utility.openHeapFile(2, file);
+        p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+        assertFalse(table.getZoneMap().mayMatch(0, p));
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new Filter(p, scan(tid, p)), expected(p));
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(table.getId(), 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts widen the range of their page at once, and deletes narrow it
+     * when the page is written.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {-5, 3});
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(-5));
+        int pgNo = t.getRecordId().getPageId().pageNumber();
+        assertTrue(table.getZoneMap().mayMatch(pgNo, p));
+
+        SeqScan scan = scan(tid, p);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Filter filter = new Filter(p, scan(tid, p));
+        filter.open();
+        assertTrue(filter.hasNext());
+        Database.getBufferPool().deleteTuple(tid, filter.next());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(table.getZoneMap().mayMatch(pgNo, p));
+        assertEquals(0, count(table.getId(), p));
+    }
+
+    /**
+     * A zone map is dropped when the data file was replaced after the map
+     * was stamped, so the pages whose old range ruled them out are read.
+     */
+    @Test public void replacedFileRebuilt() throws Exception {
+        int last = table.numPages() - 1;
+        table.close();
+        // the last page now holds the tuples of the first one
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        byte[] first = new byte[BufferPool.PAGE_SIZE];
+        raf.readFully(first);
+        raf.seek((long) last * BufferPool.PAGE_SIZE);
+        raf.write(first);
+        raf.close();
+        file.setLastModified(file.lastModified() + 2000);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table = Utility.openHeapFile(2, file);
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        assertTrue(table.getZoneMap().mayMatch(last, p));
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> rows = expected(p);
+        rows.addAll(expected(p));
+        SystemTestUtil.matchTuples(new Filter(p, scan(tid, p)), rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Writing the data file clears the stamp of the zone map until the
+     * table is forced again, so a map that may have missed a write before
+     * a crash is not trusted.
+     */
+    @Test public void writeClearsStamp() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        int last = table.numPages() - 1;
+        table.writePage(table.readPage(new HeapPageId(table.getId(), last)));
+        table.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table = Utility.openHeapFile(2, file);
+        assertTrue(table.getZoneMap().mayMatch(last, p));
+
+        SystemTestUtil.matchTuples(table, tuples);
+        table.force();
+        table.close();
+        table = Utility.openHeapFile(2, file);
+        assertFalse(table.getZoneMap().mayMatch(last, p));
+    }
+
+    private static int count(int tableId, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(p, new SeqScan(tid, tableId, "t"));
+        int n = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+            ++n;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
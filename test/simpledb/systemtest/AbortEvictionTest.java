@@ -10,7 +10,8 @@ import simpledb.struct.HeapFile;
 
 public class AbortEvictionTest extends SimpleDbTestBase {
     /** Aborts a transaction and ensures that its effects were actually undone.
-     * This requires dirty pages to <em>not</em> get flushed to disk.
+     * This requires dirty pages written out to make room to be restored
+     * from the log.
      */
     @Test public void testDoNotEvictDirtyPages()
             throws IOException, DbException, TransactionAbortedException {
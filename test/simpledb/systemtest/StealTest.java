@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import simpledb.*;
+import simpledb.struct.*;
+
+/**
+ * Runs transactions that change more pages than the buffer pool holds, so
+ * that pages they dirtied are written out before they end.
+ */
+public class StealTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 8;
+    /** Tuples of two integer fields that fill about 30 pages. */
+    private static final int ROWS = 504 * 30;
+
+    private static void insertRows(HeapFile f, Transaction t) throws DbException,
+            IOException, TransactionAbortedException {
+        for (int i = 0; i < ROWS; i++) {
+            Tuple tuple = new Tuple(Utility.getTupleDesc(2));
+            tuple.setField(0, new IntField(-i));
+            tuple.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tuple);
+        }
+    }
+
+    private static int countRows(HeapFile f) throws DbException, IOException,
+            TransactionAbortedException {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "");
+        int count = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        t.commit();
+        return count;
+    }
+
+    /** A transaction inserting more pages than the pool holds commits. */
+    @Test public void largeInsertCommits()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        Database.resetBufferPool(BUFFER_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(f, t);
+        t.commit();
+
+        assertEquals(100 + ROWS, countRows(f));
+    }
+
+    /**
+     * A transaction inserting more pages than the pool holds and aborting
+     * leaves the table as it was, although its pages were written out.
+     */
+    @Test public void largeInsertAborts()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        Database.resetBufferPool(BUFFER_PAGES);
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(f, t);
+        t.abort();
+
+        assertEquals(100, countRows(f));
+    }
+
+    /**
+     * A transaction aborted through the buffer pool alone, with no log
+     * records but those of its stolen pages, is rolled back as well.
+     */
+    @Test public void poolAbortRollsBack()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        BufferPool pool = Database.resetBufferPool(BUFFER_PAGES);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple tuple = new Tuple(Utility.getTupleDesc(2));
+            tuple.setField(0, new IntField(i));
+            tuple.setField(1, new IntField(i));
+            pool.insertTuple(tid, f.getId(), tuple);
+        }
+        pool.transactionComplete(tid, false);
+
+        assertEquals(100, countRows(f));
+    }
+
+    /**
+     * Pages written out for a transaction that had not ended when the
+     * database crashed are put back by recovery, while a transaction that
+     * committed before keeps its rows.
+     */
+    @Test public void crashRecovered()
+            throws IOException, DbException, TransactionAbortedException {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 100, 1000, null, null);
+        HeapFile f = Utility.openHeapFile(2, file);
+        Database.resetBufferPool(BUFFER_PAGES);
+
+        Transaction committed = new Transaction();
+        committed.start();
+        Tuple tuple = new Tuple(Utility.getTupleDesc(2));
+        tuple.setField(0, new IntField(1));
+        tuple.setField(1, new IntField(1));
+        Database.getBufferPool().insertTuple(committed.getId(), f.getId(), tuple);
+        committed.commit();
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(f, t);
+        assertTrue(f.numPages() > BUFFER_PAGES);
+
+        // the crash: the pool, the catalog and the log are lost
+        Database.reset();
+        f = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+
+        assertEquals(101, countRows(f));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealTest.class);
+    }
+}
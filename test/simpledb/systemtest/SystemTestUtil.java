@@ -19,6 +19,32 @@ public class SystemTestUtil {
 
     private static final int MAX_RAND_VALUE = 1 << 16;
 
+    /** Data files to delete, with their side files, when the JVM exits. */
+    private static final List<File> dataFiles = new ArrayList<File>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                synchronized (dataFiles) {
+                    for (File f : dataFiles) {
+                        f.delete();
+                        HeapFile.deleteSideFiles(f);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a data file a test created, and the files a HeapFile keeps
+     * next to it, when the JVM exits.
+     */
+    public static void deleteOnExit(File dataFile) {
+        synchronized (dataFiles) {
+            dataFiles.add(dataFile);
+        }
+    }
+
     /** @param columnSpecification Mapping between column index and value. */
     public static HeapFile createRandomHeapFile(
             int columns, int rows, Map<Integer, Integer> columnSpecification,
@@ -81,7 +107,7 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return temp;
     }